@@ -0,0 +1,147 @@
+package com.example.recipe.benchmarks;
+
+import com.example.recipe.RecipeApiApplication;
+import com.example.recipe.exceptions.NoSuchRecipeException;
+import com.example.recipe.models.*;
+import com.example.recipe.repositories.UserRepo;
+import com.example.recipe.services.RecipeService;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.security.crypto.password.PasswordEncoder;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+import redis.embedded.RedisServer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+//one application per benchmark fork, backed by an in-memory H2 database and an embedded Redis server
+public final class BenchmarkContext {
+
+    private static final int REDIS_PORT = 6390;
+    public static final String USER_PASSWORD = "benchmark";
+    //seeded reviews get ids far above anything the review id generator will hand out during a run
+    private static final AtomicLong SEEDED_REVIEW_ID = new AtomicLong(1_000_000_000L);
+    private static final AtomicLong SEED_COUNTER = new AtomicLong();
+
+    private static ConfigurableApplicationContext context;
+    private static RedisServer redisServer;
+
+    private BenchmarkContext() {
+    }
+
+    public static ConfigurableApplicationContext get() {
+        return get(List.of());
+    }
+
+    //the first call in a fork decides the configuration, later calls get the same application back
+    public static synchronized ConfigurableApplicationContext get(List<Class<?>> extraSources, String... extraProperties) {
+        if (context == null) {
+            redisServer = new RedisServer(REDIS_PORT);
+            redisServer.start();
+
+            List<Class<?>> sources = new ArrayList<>();
+            sources.add(RecipeApiApplication.class);
+            sources.addAll(extraSources);
+            context = new SpringApplicationBuilder(sources.toArray(new Class<?>[0]))
+                    .properties(
+                            "spring.datasource.url=jdbc:h2:mem:recipe_bench;DB_CLOSE_DELAY=-1",
+                            "spring.datasource.driver-class-name=org.h2.Driver",
+                            "spring.datasource.username=sa",
+                            "spring.datasource.password=",
+                            "spring.jpa.properties.hibernate.dialect=org.hibernate.dialect.H2Dialect",
+                            "spring.jpa.hibernate.ddl-auto=create-drop",
+                            "spring.redis.port=" + REDIS_PORT,
+                            "server.port=0",
+                            "logging.level.root=WARN")
+                    //added last so a benchmark can override any of the defaults above
+                    .properties(extraProperties)
+                    .run();
+            Runtime.getRuntime().addShutdownHook(new Thread(BenchmarkContext::close));
+        }
+        return context;
+    }
+
+    //RecipeService builds location URIs from the current request, so benchmark threads need one bound
+    public static void bindRequest() {
+        RequestContextHolder.setRequestAttributes(new ServletRequestAttributes(new MockHttpServletRequest()));
+    }
+
+    public static CustomUserDetails seedUser() {
+        long n = SEED_COUNTER.incrementAndGet();
+        List<Role> roles = new ArrayList<>();
+        roles.add(new Role(Role.Roles.ROLE_USER));
+        CustomUserDetails user = CustomUserDetails.builder()
+                .username("bench-user-" + n)
+                .password(get().getBean(PasswordEncoder.class).encode(USER_PASSWORD))
+                .authorities(roles)
+                .userMeta(UserMeta.builder().email("bench-user-" + n + "@example.com").name("Bench User").build())
+                .build();
+        return get().getBean(UserRepo.class).save(user);
+    }
+
+    public static Recipe seedRecipe(String name, CustomUserDetails author, int ingredientCount, int stepCount) {
+        List<Ingredient> ingredients = new ArrayList<>();
+        for (int i = 0; i < ingredientCount; i++) {
+            ingredients.add(Ingredient.builder().name("ingredient " + i).amount(i + " cups").state("dry").build());
+        }
+        List<Step> steps = new ArrayList<>();
+        for (int i = 0; i < stepCount; i++) {
+            steps.add(Step.builder().stepNumber(i + 1).description("step number " + (i + 1) + " of " + name).build());
+        }
+        Recipe recipe = Recipe.builder()
+                .name(name)
+                .minutesToMake(30)
+                .difficultyRating(5)
+                .author(author)
+                .ingredients(ingredients)
+                .steps(steps)
+                .build();
+        return get().getBean(RecipeService.class).createNewRecipe(recipe);
+    }
+
+    //inserts reviews with plain JDBC batches, going through JPA would make the 100k case take minutes to set up
+    public static void seedReviews(Long recipeId, CustomUserDetails author, int reviewCount) throws NoSuchRecipeException {
+        JdbcTemplate jdbcTemplate = get().getBean(JdbcTemplate.class);
+        List<Object[]> rows = new ArrayList<>();
+        long ratingSum = 0;
+        for (int i = 0; i < reviewCount; i++) {
+            int rating = i % 10 + 1;
+            ratingSum += rating;
+            rows.add(new Object[]{SEEDED_REVIEW_ID.incrementAndGet(), author.getUsername(), rating,
+                    "seeded review " + i, recipeId, author.getId()});
+            if (rows.size() == 1000) {
+                insertReviews(jdbcTemplate, rows);
+            }
+        }
+        insertReviews(jdbcTemplate, rows);
+        get().getBean(RecipeService.class).applyReviewDelta(recipeId, reviewCount, ratingSum);
+    }
+
+    private static void insertReviews(JdbcTemplate jdbcTemplate, List<Object[]> rows) {
+        if (!rows.isEmpty()) {
+            jdbcTemplate.batchUpdate(
+                    "insert into review (id, username, rating, description, recipe_id, user_id) values (?, ?, ?, ?, ?, ?)",
+                    rows);
+            rows.clear();
+        }
+    }
+
+    public static int port() {
+        return Integer.parseInt(get().getEnvironment().getRequiredProperty("local.server.port"));
+    }
+
+    public static synchronized void close() {
+        if (context != null) {
+            context.close();
+            context = null;
+        }
+        if (redisServer != null) {
+            redisServer.stop();
+            redisServer = null;
+        }
+    }
+}
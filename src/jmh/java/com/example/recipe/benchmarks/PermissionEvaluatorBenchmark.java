@@ -0,0 +1,54 @@
+package com.example.recipe.benchmarks;
+
+import com.example.recipe.config.CustomPermissionEvaluator;
+import com.example.recipe.config.OwnershipCache;
+import com.example.recipe.models.CustomUserDetails;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.Authentication;
+
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class PermissionEvaluatorBenchmark {
+
+    private CustomPermissionEvaluator permissionEvaluator;
+    private OwnershipCache ownershipCache;
+    private Authentication owner;
+    private Long recipeId;
+
+    @Setup
+    public void setup() {
+        ConfigurableApplicationContext context = BenchmarkContext.get();
+        BenchmarkContext.bindRequest();
+        permissionEvaluator = context.getBean(CustomPermissionEvaluator.class);
+        ownershipCache = context.getBean(OwnershipCache.class);
+
+        CustomUserDetails author = BenchmarkContext.seedUser();
+        recipeId = BenchmarkContext.seedRecipe("permission benchmark", author, 3, 2).getId();
+        owner = new UsernamePasswordAuthenticationToken(author, null, author.getAuthorities());
+    }
+
+    @Benchmark
+    public boolean hasPermissionCached() {
+        return permissionEvaluator.hasPermission(owner, recipeId, "Recipe", "edit");
+    }
+
+    //the ownership cache is cleared before every call, so each check runs the author id projection query
+    @Benchmark
+    public boolean hasPermissionUncached(ColdOwnership coldOwnership) {
+        return permissionEvaluator.hasPermission(owner, recipeId, "Recipe", "edit");
+    }
+
+    @State(Scope.Thread)
+    public static class ColdOwnership {
+
+        @Setup(Level.Invocation)
+        public void evict(PermissionEvaluatorBenchmark benchmark) {
+            benchmark.ownershipCache.evict("recipe", benchmark.recipeId);
+        }
+    }
+}
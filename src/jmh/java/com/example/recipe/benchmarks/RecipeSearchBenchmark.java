@@ -0,0 +1,51 @@
+package com.example.recipe.benchmarks;
+
+import com.example.recipe.models.CustomUserDetails;
+import com.example.recipe.models.Recipe;
+import com.example.recipe.repositories.RecipeRepo;
+import com.example.recipe.services.RecipeSearchIndex;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+//the LIKE '%name%' table scan against the in-process search index, over the same catalog
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class RecipeSearchBenchmark {
+
+    private static final String[] WORDS = {"swedish", "pancakes", "chocolate", "potato", "chips", "caramel",
+            "lemon", "garlic", "bread", "soup", "roasted", "chicken", "spicy", "noodles", "apple", "pie"};
+
+    @Param({"1000"})
+    public int recipeCount;
+
+    private RecipeRepo recipeRepo;
+    private RecipeSearchIndex recipeSearchIndex;
+
+    @Setup
+    public void setup() {
+        ConfigurableApplicationContext context = BenchmarkContext.get();
+        BenchmarkContext.bindRequest();
+        recipeRepo = context.getBean(RecipeRepo.class);
+        recipeSearchIndex = context.getBean(RecipeSearchIndex.class);
+
+        CustomUserDetails author = BenchmarkContext.seedUser();
+        for (int i = 0; i < recipeCount; i++) {
+            String name = WORDS[i % WORDS.length] + " " + WORDS[(i / WORDS.length) % WORDS.length] + " " + i;
+            BenchmarkContext.seedRecipe(name, author, 3, 2);
+        }
+    }
+
+    @Benchmark
+    public List<Recipe> findByNameContaining() {
+        return recipeRepo.findByNameContaining("pancakes");
+    }
+
+    @Benchmark
+    public List<Long> searchIndex() {
+        return recipeSearchIndex.search("pancakes", 0, 20);
+    }
+}
@@ -0,0 +1,56 @@
+package com.example.recipe.benchmarks;
+
+import com.example.recipe.config.CacheNames;
+import com.example.recipe.exceptions.NoSuchRecipeException;
+import com.example.recipe.models.CustomUserDetails;
+import com.example.recipe.models.Recipe;
+import com.example.recipe.services.RecipeService;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class RecipeServiceBenchmark {
+
+    private RecipeService recipeService;
+    private Cache recipeCache;
+    private Long recipeId;
+
+    @Setup
+    public void setup() throws NoSuchRecipeException {
+        ConfigurableApplicationContext context = BenchmarkContext.get();
+        BenchmarkContext.bindRequest();
+        recipeService = context.getBean(RecipeService.class);
+        recipeCache = context.getBean(CacheManager.class).getCache(CacheNames.RECIPE);
+
+        CustomUserDetails author = BenchmarkContext.seedUser();
+        recipeId = BenchmarkContext.seedRecipe("cache benchmark pancakes", author, 10, 5).getId();
+        BenchmarkContext.seedReviews(recipeId, author, 20);
+        recipeService.getRecipeById(recipeId);
+    }
+
+    @Benchmark
+    public Recipe getRecipeByIdCacheHit() throws NoSuchRecipeException {
+        return recipeService.getRecipeById(recipeId);
+    }
+
+    //the eviction runs in the invocation level setup, so only the database load and the cache fill are measured
+    @Benchmark
+    public Recipe getRecipeByIdCacheMiss(ColdCache coldCache) throws NoSuchRecipeException {
+        return recipeService.getRecipeById(recipeId);
+    }
+
+    @State(Scope.Thread)
+    public static class ColdCache {
+
+        @Setup(Level.Invocation)
+        public void evict(RecipeServiceBenchmark benchmark) {
+            benchmark.recipeCache.evict(benchmark.recipeId);
+        }
+    }
+}
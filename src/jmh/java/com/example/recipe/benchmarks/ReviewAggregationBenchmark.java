@@ -0,0 +1,44 @@
+package com.example.recipe.benchmarks;
+
+import com.example.recipe.exceptions.NoSuchRecipeException;
+import com.example.recipe.models.CustomUserDetails;
+import com.example.recipe.models.Review;
+import com.example.recipe.services.ReviewService;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+//posting a review should cost the same no matter how many reviews the recipe already has
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ReviewAggregationBenchmark {
+
+    @Param({"10", "1000", "100000"})
+    public int existingReviews;
+
+    private ReviewService reviewService;
+    private CustomUserDetails author;
+    private Long recipeId;
+
+    @Setup
+    public void setup() throws NoSuchRecipeException {
+        reviewService = BenchmarkContext.get().getBean(ReviewService.class);
+        BenchmarkContext.bindRequest();
+
+        author = BenchmarkContext.seedUser();
+        recipeId = BenchmarkContext.seedRecipe("review benchmark " + existingReviews, author, 5, 3).getId();
+        BenchmarkContext.seedReviews(recipeId, author, existingReviews);
+    }
+
+    @Benchmark
+    public Review postNewReview() throws NoSuchRecipeException {
+        Review review = Review.builder()
+                .username(author.getUsername())
+                .author(author)
+                .rating(7)
+                .description("benchmark review")
+                .build();
+        return reviewService.postNewReview(review, recipeId);
+    }
+}
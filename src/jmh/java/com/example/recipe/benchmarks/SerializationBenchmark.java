@@ -0,0 +1,96 @@
+package com.example.recipe.benchmarks;
+
+import com.example.recipe.config.RecipeCacheCodec;
+import com.example.recipe.models.*;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.data.redis.serializer.JdkSerializationRedisSerializer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+//encoding a large recipe as JSON for the API and for the Redis cache, no application context needed
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SerializationBenchmark {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final RecipeCacheCodec recipeCacheCodec = new RecipeCacheCodec(true, 512);
+    private final JdkSerializationRedisSerializer jdkSerializer = new JdkSerializationRedisSerializer();
+
+    private Recipe recipe;
+    private byte[] encodedRecipe;
+
+    @Setup
+    public void setup() {
+        CustomUserDetails author = CustomUserDetails.builder()
+                .id(1L)
+                .username("benchmark")
+                .authorities(List.of(new Role(1L, Role.Roles.ROLE_USER)))
+                .userMeta(new UserMeta(1L, "benchmark@example.com", "Benchmark"))
+                .build();
+
+        List<Ingredient> ingredients = new ArrayList<>();
+        for (long i = 0; i < 50; i++) {
+            ingredients.add(new Ingredient(i, "ingredient " + i, i + " tbsp", "dry"));
+        }
+        List<Step> steps = new ArrayList<>();
+        for (int i = 0; i < 30; i++) {
+            steps.add(new Step(i, i + 1, "Stir the batter for another minute and then do step " + (i + 1) + "."));
+        }
+        List<Review> reviews = new ArrayList<>();
+        for (long i = 0; i < 1000; i++) {
+            reviews.add(new Review(i, "reviewer" + i, (int) (i % 10) + 1, author, "Pretty good, would make it again. #" + i, 1L));
+        }
+
+        recipe = Recipe.builder()
+                .id(1L)
+                .name("Swedish Pancakes")
+                .minutesToMake(30)
+                .difficultyRating(3)
+                .author(author)
+                .ingredients(ingredients)
+                .steps(steps)
+                .reviews(reviews)
+                .reviewCount(reviews.size())
+                .build();
+        encodedRecipe = recipeCacheCodec.serialize(recipe);
+    }
+
+    @Benchmark
+    public byte[] jacksonSerialize() {
+        try {
+            return objectMapper.writeValueAsBytes(recipe);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Benchmark
+    public byte[] jdkSerialize() {
+        return jdkSerializer.serialize(recipe);
+    }
+
+    @Benchmark
+    public byte[] codecSerialize() {
+        return recipeCacheCodec.serialize(recipe);
+    }
+
+    @Benchmark
+    public Object codecDeserialize() {
+        return recipeCacheCodec.deserialize(encodedRecipe);
+    }
+
+    //payload sizes are a property of the recipe, not something to time, so they are printed by a plain run of this
+    //class rather than from inside the benchmark, see the README
+    public static void main(String[] args) {
+        SerializationBenchmark benchmark = new SerializationBenchmark();
+        benchmark.setup();
+        System.out.println("JSON bytes: " + benchmark.jacksonSerialize().length
+                + ", JDK bytes: " + benchmark.jdkSerialize().length
+                + ", codec bytes: " + benchmark.encodedRecipe.length);
+    }
+}
@@ -0,0 +1,63 @@
+package com.example.recipe.benchmarks;
+
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import javax.sql.DataSource;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.Statement;
+import java.util.concurrent.TimeUnit;
+
+//adds a fixed delay before every statement the application executes, standing in for a remote, loaded MySQL.
+//the delay is a sleep outside any lock, so a virtual thread waiting on it gives its carrier thread back
+@Configuration
+public class SlowDatabaseConfig {
+
+    static final long LATENCY_MILLIS = 50;
+
+    @Bean
+    public static BeanPostProcessor slowDataSourcePostProcessor() {
+        return new BeanPostProcessor() {
+            @Override
+            public Object postProcessAfterInitialization(Object bean, String beanName) {
+                if (bean instanceof DataSource) {
+                    return proxy(DataSource.class, bean);
+                }
+                return bean;
+            }
+        };
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T proxy(Class<T> type, Object target) {
+        InvocationHandler handler = (proxy, method, args) -> {
+            if (method.getName().startsWith("execute")) {
+                TimeUnit.MILLISECONDS.sleep(LATENCY_MILLIS);
+            }
+            Object result;
+            try {
+                result = method.invoke(target, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+            //keep wrapping until we reach the statements, which is where the delay is added
+            if (result instanceof CallableStatement) {
+                return proxy(CallableStatement.class, result);
+            } else if (result instanceof PreparedStatement) {
+                return proxy(PreparedStatement.class, result);
+            } else if (result instanceof Statement) {
+                return proxy(Statement.class, result);
+            } else if (result instanceof Connection) {
+                return proxy(Connection.class, result);
+            }
+            return result;
+        };
+        return (T) Proxy.newProxyInstance(SlowDatabaseConfig.class.getClassLoader(), new Class<?>[]{type}, handler);
+    }
+}
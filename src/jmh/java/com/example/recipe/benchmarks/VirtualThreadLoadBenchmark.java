@@ -0,0 +1,119 @@
+package com.example.recipe.benchmarks;
+
+import com.example.recipe.exceptions.NoSuchRecipeException;
+import com.example.recipe.models.CustomUserDetails;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+//requests per second for GET /recipes/{id}, GET /review/recipe/{recipeId} and POST /review/{recipeId} with 400
+//concurrent clients and a 50ms delay on every database statement. The virtual mode needs the benchmarks to run on Java 21 or newer:
+//  ./gradlew jmh -Pjmh.includes=VirtualThreadLoadBenchmark
+//throughput alone hides a virtual thread that blocks inside a synchronized block and holds on to its carrier, so
+//the fork prints the stack of every such pinning to its output, see application-virtual-threads.properties
+@State(Scope.Benchmark)
+@Fork(jvmArgsAppend = "-Djdk.tracePinnedThreads=short")
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Threads(400)
+@Warmup(iterations = 2, time = 10)
+@Measurement(iterations = 3, time = 10)
+public class VirtualThreadLoadBenchmark {
+
+    private static final int RECIPE_COUNT = 200;
+    //both modes get the connection pool of the virtual-threads profile, so the thread model is the only difference
+    private static final int CONNECTION_POOL_SIZE = 50;
+
+    //platform runs on Tomcat's default 200 threads, virtual uses the virtual-threads profile
+    @Param({"platform", "virtual"})
+    public String mode;
+
+    private HttpClient httpClient;
+    private String baseUrl;
+    private String authorization;
+    private long firstRecipeId;
+
+    @Setup
+    public void setup() throws NoSuchRecipeException {
+        BenchmarkContext.get(List.of(SlowDatabaseConfig.class),
+                "spring.profiles.active=" + ("virtual".equals(mode) ? "virtual-threads" : "default"),
+                //every read has to reach the database, otherwise the cache hides the latency being measured
+                "recipe.cache.ttl.recipe=1ms",
+                "recipe.cache.near.regions=",
+                "spring.datasource.hikari.maximum-pool-size=" + CONNECTION_POOL_SIZE,
+                "spring.datasource.hikari.minimum-idle=10");
+        BenchmarkContext.bindRequest();
+
+        CustomUserDetails user = BenchmarkContext.seedUser();
+        for (int i = 0; i < RECIPE_COUNT; i++) {
+            long id = BenchmarkContext.seedRecipe("load test recipe " + i, user, 5, 3).getId();
+            if (i == 0) {
+                firstRecipeId = id;
+            }
+            BenchmarkContext.seedReviews(id, user, 10);
+        }
+
+        httpClient = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+        baseUrl = "http://localhost:" + BenchmarkContext.port();
+        authorization = "Basic " + Base64.getEncoder().encodeToString(
+                (user.getUsername() + ":" + BenchmarkContext.USER_PASSWORD).getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Benchmark
+    public int getRecipeById(Client client) throws IOException, InterruptedException {
+        return send("/recipes/" + client.nextRecipeId(this));
+    }
+
+    @Benchmark
+    public int getReviewsByRecipeId(Client client) throws IOException, InterruptedException {
+        return send("/review/recipe/" + client.nextRecipeId(this));
+    }
+
+    //a write holds its connection for the whole transaction, the insert and the rating update, and then reads the
+    //recipe back for the response
+    @Benchmark
+    public int postNewReview(Client client) throws IOException, InterruptedException {
+        String path = "/review/" + client.nextRecipeId(this);
+        HttpRequest request = HttpRequest.newBuilder(URI.create(baseUrl + path))
+                .header("Authorization", authorization)
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString("{\"rating\": 7, \"description\": \"load test review\"}"))
+                .build();
+        return send(path, request, 201);
+    }
+
+    private int send(String path) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder(URI.create(baseUrl + path))
+                .header("Authorization", authorization)
+                .GET()
+                .build();
+        return send(path, request, 200);
+    }
+
+    private int send(String path, HttpRequest request, int expectedStatus) throws IOException, InterruptedException {
+        HttpResponse<Void> response = httpClient.send(request, HttpResponse.BodyHandlers.discarding());
+        if (response.statusCode() != expectedStatus) {
+            throw new IllegalStateException(path + " returned " + response.statusCode());
+        }
+        return response.statusCode();
+    }
+
+    //each client walks the recipes on its own, so requests spread over all of them
+    @State(Scope.Thread)
+    public static class Client {
+
+        private int next;
+
+        long nextRecipeId(VirtualThreadLoadBenchmark benchmark) {
+            return benchmark.firstRecipeId + (next++ % RECIPE_COUNT);
+        }
+    }
+}
@@ -5,6 +5,7 @@ import com.example.recipe.models.Recipe;
 import com.example.recipe.models.Review;
 import com.example.recipe.models.Step;
 import com.example.recipe.repositories.RecipeRepo;
+import com.example.recipe.services.RecipeService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.CommandLineRunner;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
@@ -18,6 +19,9 @@ public class RecipeMainTest implements CommandLineRunner {
     @Autowired
     RecipeRepo recipeRepo;
 
+    @Autowired
+    RecipeService recipeService;
+
     @Override
     public void run(String... args) throws Exception {
         System.out.println("STARTING WITH TEST DATABASE SETUP");
@@ -39,7 +43,7 @@ public class RecipeMainTest implements CommandLineRunner {
                     .build();
 
 
-            recipeRepo.save(recipe1);
+            recipeService.createNewRecipe(recipe1);
 
             ingredient.setId(null);
             Recipe recipe2 = Recipe.builder()
@@ -49,7 +53,7 @@ public class RecipeMainTest implements CommandLineRunner {
                     .difficultyRating(10)
                     .minutesToMake(2)
                     .build();
-            recipeRepo.save(recipe2);
+            recipeService.createNewRecipe(recipe2);
 
 
             Recipe recipe3 = Recipe.builder()
@@ -60,7 +64,7 @@ public class RecipeMainTest implements CommandLineRunner {
                     .minutesToMake(2)
                     .build();
 
-            recipeRepo.save(recipe3);
+            recipeService.createNewRecipe(recipe3);
 
 
             Recipe recipe4 = Recipe.builder()
@@ -77,7 +81,7 @@ public class RecipeMainTest implements CommandLineRunner {
                     ))
                     .build();
 
-            recipeRepo.save(recipe4);
+            recipeService.createNewRecipe(recipe4);
         }
     }
 }
@@ -0,0 +1,151 @@
+package com.example.recipe.config;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.security.core.Authentication;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.annotation.PostConstruct;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.time.Duration;
+
+//remembers recently verified credentials so HTTP Basic does not pay for a database lookup and BCrypt on every request.
+//a change to a user evicts it on every node once the change commits. Changes made outside of JPA, or an invalidation
+//message that is lost, are only noticed when the entry expires, so the TTL is kept short
+@Component
+public class AuthenticationCache implements LocalCache {
+
+    public static final String NAME = "authentication";
+
+    private static final String HMAC_ALGORITHM = "HmacSHA256";
+
+    @Autowired
+    CacheInvalidationBus invalidationBus;
+
+    private final boolean enabled;
+    //passwords are never stored, only an HMAC under a key that lives and dies with this process
+    private final SecretKeySpec digestKey;
+    private final Cache<String, CachedAuthentication> entries;
+    //bumped by every eviction, guarded by this. A login that read the user before an eviction is not cached
+    private long generation;
+
+    public AuthenticationCache(@Value("${recipe.security.auth-cache.enabled:true}") boolean enabled,
+                               @Value("${recipe.security.auth-cache.max-size:10000}") int maxSize,
+                               @Value("${recipe.security.auth-cache.ttl:1m}") Duration ttl) {
+        this.enabled = enabled;
+
+        byte[] key = new byte[32];
+        new SecureRandom().nextBytes(key);
+        this.digestKey = new SecretKeySpec(key, HMAC_ALGORITHM);
+
+        this.entries = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(ttl)
+                .build();
+    }
+
+    @PostConstruct
+    public void registerForInvalidation() {
+        invalidationBus.register(this);
+    }
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    //read before looking the user up, and passed back to put()
+    public synchronized long currentGeneration() {
+        return generation;
+    }
+
+    public Authentication get(String username, String password) {
+        if (!enabled) {
+            return null;
+        }
+        CachedAuthentication cached = entries.getIfPresent(username);
+        if (cached == null || !MessageDigest.isEqual(cached.digest, digest(username, password))) {
+            return null;
+        }
+        return cached.authentication;
+    }
+
+    //skipped when anything was evicted since the generation was read, the user may have been read before that change
+    public void put(String username, String password, Authentication authentication, long readGeneration) {
+        if (!enabled) {
+            return;
+        }
+        CachedAuthentication cached = new CachedAuthentication(digest(username, password), authentication);
+        synchronized (this) {
+            if (generation == readGeneration) {
+                entries.put(username, cached);
+            }
+        }
+    }
+
+    //evicts the user on this node right away, and again on every node once the surrounding transaction commits,
+    //so a login that read the old row in between is not left in the cache
+    public void evict(String username) {
+        evictLocal(username);
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            invalidationBus.publishEvict(NAME, username);
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                evictLocal(username);
+                invalidationBus.publishEvict(NAME, username);
+            }
+        });
+    }
+
+    public void clear() {
+        clearLocal();
+        invalidationBus.publishClear(NAME);
+    }
+
+    @Override
+    public synchronized void evictLocal(String username) {
+        entries.invalidate(username);
+        generation++;
+    }
+
+    @Override
+    public synchronized void clearLocal() {
+        entries.invalidateAll();
+        generation++;
+    }
+
+    private byte[] digest(String username, String password) {
+        try {
+            Mac mac = Mac.getInstance(HMAC_ALGORITHM);
+            mac.init(digestKey);
+            mac.update(username.getBytes(StandardCharsets.UTF_8));
+            //separator keeps "ab" + "c" and "a" + "bc" from producing the same digest
+            mac.update((byte) 0);
+            return mac.doFinal(password.getBytes(StandardCharsets.UTF_8));
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Could not digest credentials", e);
+        }
+    }
+
+    private static class CachedAuthentication {
+        private final byte[] digest;
+        private final Authentication authentication;
+
+        private CachedAuthentication(byte[] digest, Authentication authentication) {
+            this.digest = digest;
+            this.authentication = authentication;
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package com.example.recipe.config;
+
+import com.example.recipe.models.CustomUserDetails;
+import org.springframework.beans.factory.annotation.Autowired;
+
+import javax.persistence.PostRemove;
+import javax.persistence.PostUpdate;
+
+//drops cached logins when a user's password, roles or account flags are changed or the user is removed.
+//CustomUserDetails is versioned, so adding or removing a role updates the user row and reaches @PostUpdate too
+public class AuthenticationCacheListener {
+
+    @Autowired
+    AuthenticationCache authenticationCache;
+
+    @PostUpdate
+    @PostRemove
+    public void evict(CustomUserDetails userDetails) {
+        authenticationCache.evict(userDetails.getUsername());
+    }
+}
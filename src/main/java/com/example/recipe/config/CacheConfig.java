@@ -0,0 +1,120 @@
+package com.example.recipe.config;
+
+import io.micrometer.core.instrument.Tag;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.metrics.cache.CacheMeterBinderProvider;
+import org.springframework.boot.actuate.metrics.cache.RedisCacheMetrics;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
+import org.springframework.cache.annotation.CachingConfigurerSupport;
+import org.springframework.cache.interceptor.CacheErrorHandler;
+import org.springframework.cache.interceptor.LoggingCacheErrorHandler;
+import org.springframework.cache.transaction.TransactionAwareCacheManagerProxy;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.data.redis.cache.BatchStrategies;
+import org.springframework.data.redis.cache.RedisCache;
+import org.springframework.data.redis.cache.RedisCacheConfiguration;
+import org.springframework.data.redis.cache.RedisCacheManager;
+import org.springframework.data.redis.cache.RedisCacheWriter;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.data.redis.serializer.RedisSerializationContext;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+import java.time.Duration;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+@Configuration
+public class CacheConfig extends CachingConfigurerSupport {
+
+    @Bean
+    public CacheManager cacheManager(RedisConnectionFactory connectionFactory,
+                                     CacheInvalidationBus invalidationBus,
+                                     RecipeCacheCodec recipeCacheCodec,
+                                     @Value("${recipe.cache.ttl.recipe:10m}") Duration recipeTtl,
+                                     @Value("${recipe.cache.ttl.recipe-search:2m}") Duration recipeSearchTtl,
+                                     @Value("${recipe.cache.ttl.recipe-rating-search:2m}") Duration recipeRatingSearchTtl,
+                                     @Value("${recipe.cache.ttl.review:10m}") Duration reviewTtl,
+                                     @Value("${recipe.cache.near.regions:recipe}") String[] nearRegions,
+                                     @Value("${recipe.cache.near.max-size:10000}") long nearMaxSize,
+                                     @Value("${recipe.cache.near.ttl:1m}") Duration nearTtl,
+                                     @Value("${recipe.cache.single-flight.lease:2s}") Duration leaseTime,
+                                     @Value("${recipe.cache.stale.ttl:30m}") Duration staleTtl,
+                                     @Value("${recipe.cache.stale.refresh-threads:2}") int refreshThreads) {
+        RedisCacheConfiguration defaults = RedisCacheConfiguration.defaultCacheConfig()
+                .serializeValuesWith(RedisSerializationContext.SerializationPair.fromSerializer(recipeCacheCodec));
+
+        //allEntries evictions use SCAN instead of KEYS so they do not block Redis
+        RedisCacheWriter cacheWriter = RedisCacheWriter.nonLockingRedisCacheWriter(connectionFactory, BatchStrategies.scan(1000));
+        RedisCacheManager redisCacheManager = RedisCacheManager
+                .builder(cacheWriter)
+                .cacheDefaults(defaults)
+                //hit, miss, put and removal counts per region, published as cache.* metrics
+                .enableStatistics()
+                .withCacheConfiguration(CacheNames.RECIPE, defaults.entryTtl(recipeTtl))
+                .withCacheConfiguration(CacheNames.RECIPE_SEARCH, defaults.entryTtl(recipeSearchTtl))
+                .withCacheConfiguration(CacheNames.RECIPE_RATING_SEARCH, defaults.entryTtl(recipeRatingSearchTtl))
+                .withCacheConfiguration(CacheNames.REVIEW, defaults.entryTtl(reviewTtl))
+                .build();
+        redisCacheManager.afterPropertiesSet();
+
+        TwoTierCacheManager twoTierCacheManager =
+                new TwoTierCacheManager(redisCacheManager, invalidationBus, recipeCacheCodec, Set.of(nearRegions),
+                        nearMaxSize, nearTtl);
+
+        //stale values are refreshed by a few daemon threads, refreshes that do not fit in the queue are dropped
+        CustomizableThreadFactory refreshThreadFactory = new CustomizableThreadFactory("cache-refresh-");
+        refreshThreadFactory.setDaemon(true);
+        ThreadPoolExecutor refreshExecutor = new ThreadPoolExecutor(refreshThreads, refreshThreads, 1, TimeUnit.MINUTES,
+                new ArrayBlockingQueue<>(1000), refreshThreadFactory);
+        refreshExecutor.allowCoreThreadTimeOut(true);
+
+        SingleFlightCacheManager singleFlightCacheManager =
+                new SingleFlightCacheManager(twoTierCacheManager, cacheWriter, recipeCacheCodec, leaseTime, staleTtl, refreshExecutor);
+
+        //puts, evictions and clears made inside a transaction wait for it to commit. Evicting before the commit would
+        //let a concurrent read cache the old row again until the entry expires
+        return new TransactionAwareCacheManagerProxy(singleFlightCacheManager);
+    }
+
+    @Bean
+    public RedisMessageListenerContainer cacheInvalidationListener(RedisConnectionFactory connectionFactory,
+                                                                   CacheInvalidationBus invalidationBus) {
+        RedisMessageListenerContainer container = new RedisMessageListenerContainer();
+        container.setConnectionFactory(connectionFactory);
+        container.addMessageListener(invalidationBus, new ChannelTopic(CacheInvalidationBus.CHANNEL));
+        return container;
+    }
+
+    //publishes the cache a SingleFlightCache wraps, the transaction aware decorator around it is unwrapped by the
+    //registrar. Both tiers of a TwoTierCache are published, told apart by the tier tag
+    @Bean
+    public CacheMeterBinderProvider<SingleFlightCache> singleFlightCacheMeterBinderProvider() {
+        return (singleFlightCache, tags) -> registry -> {
+            Cache cache = singleFlightCache.getDelegate();
+            if (cache instanceof TwoTierCache) {
+                TwoTierCache twoTierCache = (TwoTierCache) cache;
+                new CaffeineCacheMetrics<>(twoTierCache.getLocalCache(), cache.getName(), Tags.concat(tags, Tags.of(Tag.of("tier", "local"))))
+                        .bindTo(registry);
+                cache = twoTierCache.getRemoteCache();
+            }
+            if (cache instanceof RedisCache) {
+                new RedisCacheMetrics((RedisCache) cache, Tags.concat(tags, Tags.of(Tag.of("tier", "redis"))))
+                        .bindTo(registry);
+            }
+        };
+    }
+
+    //a Redis outage should turn into cache misses, not failed requests
+    @Override
+    public CacheErrorHandler errorHandler() {
+        return new LoggingCacheErrorHandler();
+    }
+}
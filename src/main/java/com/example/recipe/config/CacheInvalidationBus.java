@@ -0,0 +1,70 @@
+package com.example.recipe.config;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+//tells the other application nodes to drop entries from their in-process caches, over Redis pub/sub.
+//Messages are fire and forget, so every LocalCache still needs a TTL or a periodic refresh in case one is lost
+@Component
+public class CacheInvalidationBus implements MessageListener {
+
+    public static final String CHANNEL = "recipe:cache:invalidation";
+
+    private static final Logger log = LoggerFactory.getLogger(CacheInvalidationBus.class);
+
+    @Autowired
+    StringRedisTemplate redisTemplate;
+
+    //messages this node published come back to it through the subscription and are skipped
+    private final String nodeId = UUID.randomUUID().toString();
+    private final Map<String, LocalCache> caches = new ConcurrentHashMap<>();
+
+    public void register(LocalCache cache) {
+        caches.put(cache.getName(), cache);
+    }
+
+    public void publishEvict(String cacheName, String key) {
+        publish(nodeId + "\n" + cacheName + "\n" + key);
+    }
+
+    public void publishClear(String cacheName) {
+        publish(nodeId + "\n" + cacheName);
+    }
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        //nodeId, cache name and, unless the whole cache is cleared, the key
+        String[] parts = new String(message.getBody(), StandardCharsets.UTF_8).split("\n", 3);
+        if (parts.length < 2 || parts[0].equals(nodeId)) {
+            return;
+        }
+        LocalCache cache = caches.get(parts[1]);
+        if (cache == null) {
+            return;
+        }
+        if (parts.length == 3) {
+            cache.evictLocal(parts[2]);
+        } else {
+            cache.clearLocal();
+        }
+    }
+
+    private void publish(String message) {
+        try {
+            redisTemplate.convertAndSend(CHANNEL, message);
+        } catch (RuntimeException e) {
+            //the local TTL still bounds staleness on the other nodes
+            log.warn("Could not publish cache invalidation: {}", e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,20 @@
+package com.example.recipe.config;
+
+//every cache region used by the services, each one has its own TTL in CacheConfig
+public final class CacheNames {
+
+    //single recipes keyed by recipe id
+    public static final String RECIPE = "recipe";
+
+    //pages of name search results keyed by name:page:size
+    public static final String RECIPE_SEARCH = "recipeSearch";
+
+    //best rated name search results keyed by name:rating:limit
+    public static final String RECIPE_RATING_SEARCH = "recipeRatingSearch";
+
+    //single reviews keyed by review id
+    public static final String REVIEW = "review";
+
+    private CacheNames() {
+    }
+}
@@ -0,0 +1,63 @@
+package com.example.recipe.config;
+
+import com.example.recipe.services.CustomUserDetailsService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.security.authentication.AuthenticationProvider;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.authentication.dao.DaoAuthenticationProvider;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.AuthenticationException;
+import org.springframework.security.crypto.password.PasswordEncoder;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+
+//checks the AuthenticationCache before falling back to the usual database lookup and BCrypt verification
+@Component
+public class CachingAuthenticationProvider implements AuthenticationProvider {
+
+    @Autowired
+    CustomUserDetailsService userDetailsService;
+
+    @Autowired
+    PasswordEncoder passwordEncoder;
+
+    @Autowired
+    AuthenticationCache authenticationCache;
+
+    private final DaoAuthenticationProvider delegate = new DaoAuthenticationProvider();
+
+    @PostConstruct
+    public void init() {
+        delegate.setUserDetailsService(userDetailsService);
+        delegate.setPasswordEncoder(passwordEncoder);
+    }
+
+    @Override
+    public Authentication authenticate(Authentication authentication) throws AuthenticationException {
+        String username = authentication.getName();
+        Object credentials = authentication.getCredentials();
+        if (credentials == null) {
+            return delegate.authenticate(authentication);
+        }
+        String password = credentials.toString();
+
+        Authentication cached = authenticationCache.get(username, password);
+        if (cached != null) {
+            //hand out a copy, the caller erases credentials on whatever is returned
+            return new UsernamePasswordAuthenticationToken(cached.getPrincipal(), null, cached.getAuthorities());
+        }
+
+        //only successful logins are cached, failures always go through BCrypt
+        long generation = authenticationCache.currentGeneration();
+        Authentication result = delegate.authenticate(authentication);
+        authenticationCache.put(username, password,
+                new UsernamePasswordAuthenticationToken(result.getPrincipal(), null, result.getAuthorities()), generation);
+        return result;
+    }
+
+    @Override
+    public boolean supports(Class<?> authentication) {
+        return delegate.supports(authentication);
+    }
+}
@@ -1,8 +1,6 @@
 package com.example.recipe.config;
 
 import com.example.recipe.models.CustomUserDetails;
-import com.example.recipe.models.Recipe;
-import com.example.recipe.models.Review;
 import com.example.recipe.models.Role;
 import com.example.recipe.repositories.RecipeRepo;
 import com.example.recipe.repositories.ReviewRepo;
@@ -14,7 +12,6 @@ import org.springframework.stereotype.Component;
 import javax.persistence.EntityNotFoundException;
 import java.io.Serializable;
 import java.util.Collection;
-import java.util.Optional;
 
 @Component
 public class CustomPermissionEvaluator implements PermissionEvaluator {
@@ -25,6 +22,9 @@ public class CustomPermissionEvaluator implements PermissionEvaluator {
     @Autowired
     ReviewRepo reviewRepo;
 
+    @Autowired
+    OwnershipCache ownershipCache;
+
     @Override
     public boolean hasPermission(Authentication authentication, Object targetDomainObject, Object permission) {
         //this method will not be used. But if used by accident, should always block access for good measure.
@@ -45,23 +45,27 @@ public class CustomPermissionEvaluator implements PermissionEvaluator {
             CustomUserDetails userDetails = (CustomUserDetails) authentication.getPrincipal();
 
             if (targetType.equalsIgnoreCase("recipe")) {
-                Optional<Recipe> recipe = recipeRepo.findById(Long.parseLong(targetId.toString()));
-                if (recipe.isEmpty()) {
+                Long recipeId = Long.parseLong(targetId.toString());
+                Object authorId = ownershipCache.getOwner("recipe", recipeId,
+                        () -> recipeRepo.findAuthorIdById(recipeId).orElse(null));
+                if (authorId == null) {
                     // no recipe with id exists, return true so the method can continue ultimately throwing an exception
                     return true;
                 }
 
                 //if the author of the entity matches the current user they are the owner of the recipe and should be allowed access
-                return recipe.get().getAuthor().getId()==userDetails.getId();
+                return authorId.equals(userDetails.getId());
 
             } else if (targetType.equalsIgnoreCase("review")) {
-                Optional<Review> review = reviewRepo.findById(Long.parseLong(targetId.toString()));
-                if (review.isEmpty()) {
+                Long reviewId = Long.parseLong(targetId.toString());
+                Object authorId = ownershipCache.getOwner("review", reviewId,
+                        () -> reviewRepo.findAuthorIdById(reviewId).orElse(null));
+                if (authorId == null) {
                     throw new EntityNotFoundException("The review you are trying to access does not exist");
                 }
 
-                //if the author of the entity matches the current user they are the owner of the review and should be allowed access
-                return review.get().getAuthor().equals(userDetails.getUsername());
+                //the username on a review is whatever the reviewer typed, only the author's id says who wrote it
+                return authorId.equals(userDetails.getId());
             }
         }
         return true;
@@ -0,0 +1,13 @@
+package com.example.recipe.config;
+
+//state a node keeps in its own memory that writes on other nodes make stale. Those writes reach it through the
+//CacheInvalidationBus, keyed by the name it registered with
+public interface LocalCache {
+
+    String getName();
+
+    //called for invalidations published by other nodes, only this node's copy is touched
+    void evictLocal(String key);
+
+    void clearLocal();
+}
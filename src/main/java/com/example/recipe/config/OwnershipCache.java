@@ -0,0 +1,104 @@
+package com.example.recipe.config;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.annotation.PostConstruct;
+import java.time.Duration;
+import java.util.function.Supplier;
+
+//remembers who owns a recipe or review so permission checks do not go to the database every time.
+//a change of owner evicts the entry on every node once it commits. The TTL bounds how long a node can keep
+//authorizing the previous owner if an invalidation message is lost
+@Component
+public class OwnershipCache implements LocalCache {
+
+    public static final String NAME = "ownership";
+
+    @Autowired
+    CacheInvalidationBus invalidationBus;
+
+    private final Cache<String, Object> owners;
+    //bumped by every eviction, guarded by this. An owner looked up before an eviction is not cached
+    private long generation;
+
+    public OwnershipCache(@Value("${recipe.security.ownership-cache.max-size:50000}") int maxSize,
+                          @Value("${recipe.security.ownership-cache.ttl:5m}") Duration ttl) {
+        this.owners = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(ttl)
+                .build();
+    }
+
+    @PostConstruct
+    public void registerForInvalidation() {
+        invalidationBus.register(this);
+    }
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    //returns the cached owner, or looks it up and caches it. Missing entities (null owner) are not cached.
+    public Object getOwner(String targetType, Long id, Supplier<Object> lookup) {
+        String key = key(targetType, id);
+        Object owner = owners.getIfPresent(key);
+        if (owner != null) {
+            return owner;
+        }
+
+        long readGeneration;
+        synchronized (this) {
+            readGeneration = generation;
+        }
+        owner = lookup.get();
+        if (owner != null) {
+            synchronized (this) {
+                if (generation == readGeneration) {
+                    owners.put(key, owner);
+                }
+            }
+        }
+        return owner;
+    }
+
+    //evicts on this node right away, and again on every node once the surrounding transaction commits, so a
+    //permission check that read the old owner in between is not left in the cache
+    public void evict(String targetType, Long id) {
+        String key = key(targetType, id);
+        evictLocal(key);
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            invalidationBus.publishEvict(NAME, key);
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                evictLocal(key);
+                invalidationBus.publishEvict(NAME, key);
+            }
+        });
+    }
+
+    @Override
+    public synchronized void evictLocal(String key) {
+        owners.invalidate(key);
+        generation++;
+    }
+
+    @Override
+    public synchronized void clearLocal() {
+        owners.invalidateAll();
+        generation++;
+    }
+
+    private String key(String targetType, Long id) {
+        return targetType.toLowerCase() + ":" + id;
+    }
+}
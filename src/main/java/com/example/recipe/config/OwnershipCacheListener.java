@@ -0,0 +1,26 @@
+package com.example.recipe.config;
+
+import com.example.recipe.models.Recipe;
+import com.example.recipe.models.Review;
+import org.springframework.beans.factory.annotation.Autowired;
+
+import javax.persistence.PostRemove;
+import javax.persistence.PostUpdate;
+
+//keeps the OwnershipCache consistent when a recipe or review is edited (the author can be changed) or deleted,
+//on every node once the change commits, see OwnershipCache.evict
+public class OwnershipCacheListener {
+
+    @Autowired
+    OwnershipCache ownershipCache;
+
+    @PostUpdate
+    @PostRemove
+    public void evict(Object entity) {
+        if (entity instanceof Recipe) {
+            ownershipCache.evict("recipe", ((Recipe) entity).getId());
+        } else if (entity instanceof Review) {
+            ownershipCache.evict("review", ((Review) entity).getId());
+        }
+    }
+}
@@ -0,0 +1,364 @@
+package com.example.recipe.config;
+
+import com.example.recipe.models.*;
+import net.jpountz.lz4.LZ4Compressor;
+import net.jpountz.lz4.LZ4Factory;
+import net.jpountz.lz4.LZ4FastDecompressor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cache.support.NullValue;
+import org.springframework.data.redis.serializer.JdkSerializationRedisSerializer;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.data.redis.serializer.SerializationException;
+import org.springframework.stereotype.Component;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+//compact binary format for the values kept in Redis. Only the fields of the model classes are written, in a fixed
+//order, instead of the class descriptors the JDK serializer writes for every object in the recipe graph.
+//
+//layout: magic, format version, flags, [uncompressed length if compressed], payload
+@Component
+public class RecipeCacheCodec implements RedisSerializer<Object> {
+
+    private static final byte MAGIC = 'R';
+    //bump whenever the payload layout changes, entries written in any other version are read as cache misses
+    private static final byte VERSION = 3;
+    private static final byte FLAG_LZ4 = 1;
+    private static final int HEADER_SIZE = 3;
+
+    private static final byte TYPE_JDK = 0;
+    private static final byte TYPE_RECIPE = 1;
+    private static final byte TYPE_RECIPE_LIST = 2;
+    private static final byte TYPE_REVIEW = 3;
+    private static final byte TYPE_NULL_VALUE = 4;
+
+    private final boolean compression;
+    private final int compressionThreshold;
+    private final LZ4Compressor compressor = LZ4Factory.fastestInstance().fastCompressor();
+    private final LZ4FastDecompressor decompressor = LZ4Factory.fastestInstance().fastDecompressor();
+    //anything that is not part of the recipe model still works, it just is not compact
+    private final JdkSerializationRedisSerializer fallback = new JdkSerializationRedisSerializer();
+
+    public RecipeCacheCodec(@Value("${recipe.cache.codec.compression:true}") boolean compression,
+                            @Value("${recipe.cache.codec.compression-threshold:512}") int compressionThreshold) {
+        this.compression = compression;
+        this.compressionThreshold = compressionThreshold;
+    }
+
+    @Override
+    public byte[] serialize(Object value) throws SerializationException {
+        if (value == null) {
+            return new byte[0];
+        }
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+            writePayload(new DataOutputStream(bytes), value);
+            byte[] payload = bytes.toByteArray();
+
+            boolean compress = compression && payload.length >= compressionThreshold;
+            byte[] body = compress ? compressor.compress(payload) : payload;
+
+            ByteArrayOutputStream framed = new ByteArrayOutputStream(body.length + HEADER_SIZE + 4);
+            DataOutputStream out = new DataOutputStream(framed);
+            out.writeByte(MAGIC);
+            out.writeByte(VERSION);
+            out.writeByte(compress ? FLAG_LZ4 : 0);
+            if (compress) {
+                out.writeInt(payload.length);
+            }
+            out.write(body);
+            return framed.toByteArray();
+        } catch (IOException e) {
+            throw new SerializationException("Could not encode cache value", e);
+        }
+    }
+
+    @Override
+    public Object deserialize(byte[] bytes) throws SerializationException {
+        //entries from an older deploy (or the JDK serializer) are treated as misses and get reloaded
+        if (bytes == null || bytes.length < HEADER_SIZE || bytes[0] != MAGIC || bytes[1] != VERSION) {
+            return null;
+        }
+        try {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes, HEADER_SIZE, bytes.length - HEADER_SIZE));
+            if ((bytes[2] & FLAG_LZ4) != 0) {
+                int length = in.readInt();
+                byte[] payload = decompressor.decompress(bytes, HEADER_SIZE + 4, length);
+                in = new DataInputStream(new ByteArrayInputStream(payload));
+            }
+            return readPayload(in);
+        } catch (IOException | RuntimeException e) {
+            throw new SerializationException("Could not decode cache value", e);
+        }
+    }
+
+    private void writePayload(DataOutputStream out, Object value) throws IOException {
+        if (value instanceof Recipe) {
+            out.writeByte(TYPE_RECIPE);
+            writeRecipe(out, (Recipe) value);
+        } else if (value instanceof Review) {
+            out.writeByte(TYPE_REVIEW);
+            writeReview(out, (Review) value);
+        } else if (value instanceof NullValue) {
+            out.writeByte(TYPE_NULL_VALUE);
+        } else if (value instanceof List && ((List<?>) value).stream().allMatch(v -> v instanceof Recipe)) {
+            List<?> recipes = (List<?>) value;
+            out.writeByte(TYPE_RECIPE_LIST);
+            out.writeInt(recipes.size());
+            for (Object recipe : recipes) {
+                writeRecipe(out, (Recipe) recipe);
+            }
+        } else {
+            out.writeByte(TYPE_JDK);
+            byte[] serialized = fallback.serialize(value);
+            out.writeInt(serialized.length);
+            out.write(serialized);
+        }
+    }
+
+    private Object readPayload(DataInputStream in) throws IOException {
+        byte type = in.readByte();
+        switch (type) {
+            case TYPE_RECIPE:
+                return readRecipe(in);
+            case TYPE_REVIEW:
+                return readReview(in);
+            case TYPE_NULL_VALUE:
+                return NullValue.INSTANCE;
+            case TYPE_RECIPE_LIST:
+                int size = in.readInt();
+                ArrayList<Recipe> recipes = new ArrayList<>(size);
+                for (int i = 0; i < size; i++) {
+                    recipes.add(readRecipe(in));
+                }
+                return recipes;
+            case TYPE_JDK:
+                byte[] serialized = new byte[in.readInt()];
+                in.readFully(serialized);
+                return fallback.deserialize(serialized);
+            default:
+                throw new IOException("Unknown cache value type " + type);
+        }
+    }
+
+    private void writeRecipe(DataOutputStream out, Recipe recipe) throws IOException {
+        writeLong(out, recipe.getId());
+        writeString(out, recipe.getName());
+        writeInteger(out, recipe.getMinutesToMake());
+        writeInteger(out, recipe.getDifficultyRating());
+        out.writeLong(recipe.getAverageReviewScore());
+        out.writeLong(recipe.getReviewCount());
+        out.writeLong(recipe.getRatingSum());
+        writeLong(out, recipe.getVersion());
+        writeUser(out, recipe.getAuthor());
+        //the location URI is left out, it depends on the request, see Recipe.locationURI
+
+        writeSize(out, recipe.getIngredients());
+        if (recipe.getIngredients() != null) {
+            for (Ingredient ingredient : recipe.getIngredients()) {
+                writeLong(out, ingredient.getId());
+                writeString(out, ingredient.getName());
+                writeString(out, ingredient.getAmount());
+                writeString(out, ingredient.getState());
+            }
+        }
+
+        writeSize(out, recipe.getSteps());
+        if (recipe.getSteps() != null) {
+            for (Step step : recipe.getSteps()) {
+                out.writeLong(step.getId());
+                out.writeInt(step.getStepNumber());
+                writeString(out, step.getDescription());
+            }
+        }
+
+        writeSize(out, recipe.getReviews());
+        if (recipe.getReviews() != null) {
+            for (Review review : recipe.getReviews()) {
+                writeReview(out, review);
+            }
+        }
+    }
+
+    private Recipe readRecipe(DataInputStream in) throws IOException {
+        Recipe recipe = Recipe.builder()
+                .id(readLong(in))
+                .name(readString(in))
+                .minutesToMake(readInteger(in))
+                .difficultyRating(readInteger(in))
+                .averageReviewScore(in.readLong())
+                .reviewCount(in.readLong())
+                .ratingSum(in.readLong())
+                .version(readLong(in))
+                .author(readUser(in))
+                .build();
+
+        int ingredientCount = in.readInt();
+        if (ingredientCount >= 0) {
+            List<Ingredient> ingredients = new ArrayList<>(ingredientCount);
+            for (int i = 0; i < ingredientCount; i++) {
+                ingredients.add(Ingredient.builder()
+                        .id(readLong(in))
+                        .name(readString(in))
+                        .amount(readString(in))
+                        .state(readString(in))
+                        .build());
+            }
+            recipe.setIngredients(ingredients);
+        }
+
+        int stepCount = in.readInt();
+        if (stepCount >= 0) {
+            List<Step> steps = new ArrayList<>(stepCount);
+            for (int i = 0; i < stepCount; i++) {
+                steps.add(Step.builder()
+                        .id(in.readLong())
+                        .stepNumber(in.readInt())
+                        .description(readString(in))
+                        .build());
+            }
+            recipe.setSteps(steps);
+        }
+
+        int reviewCount = in.readInt();
+        if (reviewCount >= 0) {
+            List<Review> reviews = new ArrayList<>(reviewCount);
+            for (int i = 0; i < reviewCount; i++) {
+                reviews.add(readReview(in));
+            }
+            recipe.setReviews(reviews);
+        }
+        return recipe;
+    }
+
+    private void writeReview(DataOutputStream out, Review review) throws IOException {
+        writeLong(out, review.getId());
+        writeString(out, review.getUsername());
+        out.writeInt(review.getRating());
+        writeString(out, review.getDescription());
+        writeLong(out, review.getRecipeId());
+        writeUser(out, review.getAuthor());
+    }
+
+    private Review readReview(DataInputStream in) throws IOException {
+        return Review.builder()
+                .id(readLong(in))
+                .username(readString(in))
+                .rating(in.readInt())
+                .description(readString(in))
+                .recipeId(readLong(in))
+                .author(readUser(in))
+                .build();
+    }
+
+    //the password hash is never written to the cache, it is write only in the API anyway
+    private void writeUser(DataOutputStream out, CustomUserDetails user) throws IOException {
+        out.writeBoolean(user != null);
+        if (user == null) {
+            return;
+        }
+        writeLong(out, user.getId());
+        writeString(out, user.getUsername());
+        out.writeBoolean(user.isAccountNonExpired());
+        out.writeBoolean(user.isAccountNonLocked());
+        out.writeBoolean(user.isCredentialsNonExpired());
+        out.writeBoolean(user.isEnabled());
+
+        writeSize(out, user.getAuthorities());
+        if (user.getAuthorities() != null) {
+            for (Role role : user.getAuthorities()) {
+                writeLong(out, role.getId());
+                writeString(out, role.getRole() == null ? null : role.getRole().name());
+            }
+        }
+
+        UserMeta userMeta = user.getUserMeta();
+        out.writeBoolean(userMeta != null);
+        if (userMeta != null) {
+            writeLong(out, userMeta.getId());
+            writeString(out, userMeta.getEmail());
+            writeString(out, userMeta.getName());
+        }
+    }
+
+    private CustomUserDetails readUser(DataInputStream in) throws IOException {
+        if (!in.readBoolean()) {
+            return null;
+        }
+        CustomUserDetails user = CustomUserDetails.builder()
+                .id(readLong(in))
+                .username(readString(in))
+                .isAccountNonExpired(in.readBoolean())
+                .isAccountNonLocked(in.readBoolean())
+                .isCredentialsNonExpired(in.readBoolean())
+                .isEnabled(in.readBoolean())
+                .build();
+
+        int roleCount = in.readInt();
+        if (roleCount >= 0) {
+            List<Role> roles = new ArrayList<>(roleCount);
+            for (int i = 0; i < roleCount; i++) {
+                Long id = readLong(in);
+                String role = readString(in);
+                roles.add(new Role(id, role == null ? null : Role.Roles.valueOf(role)));
+            }
+            user.setAuthorities(roles);
+        }
+
+        if (in.readBoolean()) {
+            user.setUserMeta(new UserMeta(readLong(in), readString(in), readString(in)));
+        }
+        return user;
+    }
+
+    //-1 marks a null collection so it reads back as null rather than empty
+    private void writeSize(DataOutputStream out, Collection<?> collection) throws IOException {
+        out.writeInt(collection == null ? -1 : collection.size());
+    }
+
+    private void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] utf8 = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(utf8.length);
+        out.write(utf8);
+    }
+
+    private String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] utf8 = new byte[length];
+        in.readFully(utf8);
+        return new String(utf8, StandardCharsets.UTF_8);
+    }
+
+    private void writeLong(DataOutputStream out, Long value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeLong(value);
+        }
+    }
+
+    private Long readLong(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readLong() : null;
+    }
+
+    private void writeInteger(DataOutputStream out, Integer value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeInt(value);
+        }
+    }
+
+    private Integer readInteger(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readInt() : null;
+    }
+}
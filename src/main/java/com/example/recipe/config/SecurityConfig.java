@@ -23,10 +23,16 @@ public class SecurityConfig {
                 .authorizeRequests(auth -> auth
                         .antMatchers("/css", "/js").permitAll()
                         .antMatchers("/users").permitAll()
+                        //the full catalog export is for admins and batch jobs, not for clients
+                        .antMatchers(HttpMethod.GET, "/recipes/export").hasRole("ADMIN")
+                        //warming the caches loads hundreds of recipes, only admins may trigger it
+                        .antMatchers(HttpMethod.POST, "/recipes/cache/warmup").hasRole("ADMIN")
                         //allow all requests to read recipes and reviews
-                        .antMatchers(HttpMethod.GET, "/recipes/**", "/reviews").permitAll()
+                        .antMatchers(HttpMethod.GET, "/recipes/**", "/reviews", "/reactive/recipes/**").permitAll()
                         //allow creation of new recipes and reviews
                         .antMatchers(HttpMethod.POST, "/recipes", "reviews").permitAll()
+                        //cache statistics and other operational endpoints are for admins only
+                        .antMatchers("/actuator/**").hasRole("ADMIN")
                         //all other requests should be authenticated
                         .anyRequest().authenticated())
                 //users should log in with HTTP Basic.
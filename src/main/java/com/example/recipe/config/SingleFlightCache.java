@@ -0,0 +1,315 @@
+package com.example.recipe.config;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.cache.Cache;
+import org.springframework.cache.support.NullValue;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.redis.cache.RedisCacheWriter;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+//makes concurrent misses for the same key share one load, for @Cacheable(sync = true) methods.
+//  - within the JVM, the first miss loads and every other caller for that key waits for its result
+//  - across nodes, the loading node holds a short lease key in Redis; other nodes poll the cache until the lease
+//    runs out instead of loading the same value themselves
+//  - every loaded value is also kept as a stale copy that outlives the entry's TTL. Once the entry expires, the stale
+//    copy is returned right away and the value is reloaded in the background. Evictions remove the stale copy too,
+//    so a value that was changed is never served stale.
+//  - a load that an eviction overtook is returned to its callers but not cached, see loadAndPut
+//  - with Redis down, sync = true bypasses the CacheErrorHandler, so failures are caught here and the value is
+//    loaded without the cache
+public class SingleFlightCache implements Cache {
+
+    private static final Logger log = LoggerFactory.getLogger(SingleFlightCache.class);
+    private static final long LEASE_POLL_MILLIS = 25;
+    private static final int GENERATION_STRIPES = 64;
+
+    private final Cache delegate;
+    private final RedisCacheWriter cacheWriter;
+    private final RecipeCacheCodec codec;
+    private final byte[] nodeId;
+    private final Duration leaseTime;
+    private final Duration staleTtl;
+    private final Executor refreshExecutor;
+    private final ConcurrentMap<String, CompletableFuture<Object>> inFlight = new ConcurrentHashMap<>();
+    //bumped by every eviction of a key in the stripe, by every clear for all stripes
+    private final AtomicLongArray generations = new AtomicLongArray(GENERATION_STRIPES);
+
+    public SingleFlightCache(Cache delegate, RedisCacheWriter cacheWriter, RecipeCacheCodec codec, String nodeId,
+                             Duration leaseTime, Duration staleTtl, Executor refreshExecutor) {
+        this.delegate = delegate;
+        this.cacheWriter = cacheWriter;
+        this.codec = codec;
+        this.nodeId = nodeId.getBytes(StandardCharsets.UTF_8);
+        this.leaseTime = leaseTime;
+        this.staleTtl = staleTtl;
+        this.refreshExecutor = refreshExecutor;
+    }
+
+    public Cache getDelegate() {
+        return delegate;
+    }
+
+    @Override
+    public String getName() {
+        return delegate.getName();
+    }
+
+    @Override
+    public Object getNativeCache() {
+        return delegate.getNativeCache();
+    }
+
+    @Override
+    public ValueWrapper get(Object key) {
+        return delegate.get(key);
+    }
+
+    @Override
+    public <T> T get(Object key, Class<T> type) {
+        return delegate.get(key, type);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> T get(Object key, Callable<T> valueLoader) {
+        ValueWrapper cached;
+        try {
+            cached = delegate.get(key);
+        } catch (DataAccessException e) {
+            log.debug("Could not read {}::{}, loading it without the cache: {}", getName(), key, e.getMessage());
+            return loadWithoutCache(key, valueLoader);
+        }
+        if (cached != null) {
+            return (T) cached.get();
+        }
+
+        if (!staleTtl.isZero()) {
+            Object stale = readStale(key);
+            if (stale != null) {
+                refreshInBackground(key, valueLoader);
+                return stale instanceof NullValue ? null : (T) stale;
+            }
+        }
+
+        try {
+            return (T) load(key, valueLoader);
+        } catch (Throwable e) {
+            throw new ValueRetrievalException(key, valueLoader, e);
+        }
+    }
+
+    @Override
+    public void put(Object key, Object value) {
+        delegate.put(key, value);
+        writeStale(key, value);
+    }
+
+    @Override
+    public ValueWrapper putIfAbsent(Object key, Object value) {
+        ValueWrapper existing = delegate.putIfAbsent(key, value);
+        removeStale(key);
+        return existing;
+    }
+
+    //evictions inside a transaction run after its commit (see CacheConfig), where the CacheErrorHandler does not see
+    //them. A failure there would fail a request whose changes are already committed, so it is only logged
+    @Override
+    public void evict(Object key) {
+        bumpGeneration(key);
+        try {
+            delegate.evict(key);
+            removeStale(key);
+        } catch (DataAccessException e) {
+            log.warn("Could not evict {}::{}: {}", getName(), key, e.getMessage());
+        }
+    }
+
+    @Override
+    public boolean evictIfPresent(Object key) {
+        bumpGeneration(key);
+        try {
+            boolean evicted = delegate.evictIfPresent(key);
+            removeStale(key);
+            return evicted;
+        } catch (DataAccessException e) {
+            log.warn("Could not evict {}::{}: {}", getName(), key, e.getMessage());
+            return false;
+        }
+    }
+
+    //stale copies and leases share the region's key prefix, so clearing the region removes them as well
+    @Override
+    public void clear() {
+        for (int stripe = 0; stripe < GENERATION_STRIPES; stripe++) {
+            generations.incrementAndGet(stripe);
+        }
+        try {
+            delegate.clear();
+        } catch (DataAccessException e) {
+            log.warn("Could not clear {}: {}", getName(), e.getMessage());
+        }
+    }
+
+    @Override
+    public boolean invalidate() {
+        return delegate.invalidate();
+    }
+
+    //the caller that registers the future does the load, everyone else waits on it
+    private Object load(Object key, Callable<?> valueLoader) throws Throwable {
+        String flightKey = String.valueOf(key);
+        CompletableFuture<Object> flight = new CompletableFuture<>();
+        CompletableFuture<Object> leader = inFlight.putIfAbsent(flightKey, flight);
+        if (leader != null) {
+            try {
+                return leader.get();
+            } catch (ExecutionException e) {
+                throw e.getCause();
+            }
+        }
+
+        try {
+            Object value = loadUnderLease(key, valueLoader);
+            flight.complete(value);
+            return value;
+        } catch (Throwable e) {
+            flight.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(flightKey, flight);
+        }
+    }
+
+    private Object loadUnderLease(Object key, Callable<?> valueLoader) throws Exception {
+        if (leaseTime.isZero()) {
+            return loadAndPut(key, valueLoader);
+        }
+
+        byte[] leaseKey = redisKey("lease::", key);
+        byte[] holder;
+        try {
+            holder = cacheWriter.putIfAbsent(getName(), leaseKey, nodeId, leaseTime);
+        } catch (DataAccessException e) {
+            log.debug("Could not take the lease for {}::{}, loading it without the cache: {}", getName(), key, e.getMessage());
+            return valueLoader.call();
+        }
+        if (holder == null) {
+            try {
+                return loadAndPut(key, valueLoader);
+            } finally {
+                try {
+                    cacheWriter.remove(getName(), leaseKey);
+                } catch (DataAccessException e) {
+                    //the lease runs out on its own
+                    log.debug("Could not release the lease for {}::{}: {}", getName(), key, e.getMessage());
+                }
+            }
+        }
+
+        //another node is loading this key, wait for its result but never longer than the lease
+        long deadline = System.nanoTime() + leaseTime.toNanos();
+        try {
+            while (System.nanoTime() < deadline) {
+                TimeUnit.MILLISECONDS.sleep(LEASE_POLL_MILLIS);
+                ValueWrapper loaded = delegate.get(key);
+                if (loaded != null) {
+                    return loaded.get();
+                }
+            }
+        } catch (DataAccessException e) {
+            return valueLoader.call();
+        }
+        return loadAndPut(key, valueLoader);
+    }
+
+    //the value is only cached when no eviction of its key ran since the load started, an evicted key may have been
+    //changed after the loader read it. An eviction between the check and the put is caught by checking again after
+    private Object loadAndPut(Object key, Callable<?> valueLoader) throws Exception {
+        long generation = generations.get(stripe(key));
+        Object value = valueLoader.call();
+        if (generations.get(stripe(key)) != generation) {
+            return value;
+        }
+        try {
+            put(key, value);
+            if (generations.get(stripe(key)) != generation) {
+                delegate.evict(key);
+                removeStale(key);
+            }
+        } catch (DataAccessException e) {
+            log.debug("Could not cache {}::{}: {}", getName(), key, e.getMessage());
+        }
+        return value;
+    }
+
+    private <T> T loadWithoutCache(Object key, Callable<T> valueLoader) {
+        try {
+            return valueLoader.call();
+        } catch (Exception e) {
+            throw new ValueRetrievalException(key, valueLoader, e);
+        }
+    }
+
+    private void bumpGeneration(Object key) {
+        generations.incrementAndGet(stripe(key));
+    }
+
+    private static int stripe(Object key) {
+        return Math.floorMod(String.valueOf(key).hashCode(), GENERATION_STRIPES);
+    }
+
+    //a full refresh queue just means the stale value is served a little longer. The loader runs on a refresh thread
+    //without the request or security context of the read that found the stale copy, so what cached methods return
+    //must not depend on either
+    private void refreshInBackground(Object key, Callable<?> valueLoader) {
+        if (inFlight.containsKey(String.valueOf(key))) {
+            return;
+        }
+        try {
+            refreshExecutor.execute(() -> {
+                try {
+                    load(key, valueLoader);
+                } catch (Throwable e) {
+                    log.debug("Background refresh of {}::{} failed: {}", getName(), key, e.getMessage());
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            log.debug("Background refresh of {}::{} skipped, the refresh queue is full", getName(), key);
+        }
+    }
+
+    private Object readStale(Object key) {
+        try {
+            byte[] stale = cacheWriter.get(getName(), redisKey("stale::", key));
+            return stale == null ? null : codec.deserialize(stale);
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+
+    private void writeStale(Object key, Object value) {
+        if (staleTtl.isZero()) {
+            return;
+        }
+        try {
+            cacheWriter.put(getName(), redisKey("stale::", key), codec.serialize(value == null ? NullValue.INSTANCE : value), staleTtl);
+        } catch (RuntimeException e) {
+            log.debug("Could not write stale copy of {}::{}: {}", getName(), key, e.getMessage());
+        }
+    }
+
+    private void removeStale(Object key) {
+        if (!staleTtl.isZero()) {
+            cacheWriter.remove(getName(), redisKey("stale::", key));
+        }
+    }
+
+    private byte[] redisKey(String kind, Object key) {
+        return (getName() + "::" + kind + key).getBytes(StandardCharsets.UTF_8);
+    }
+}
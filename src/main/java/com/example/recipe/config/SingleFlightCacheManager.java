@@ -0,0 +1,49 @@
+package com.example.recipe.config;
+
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
+import org.springframework.data.redis.cache.RedisCacheWriter;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+
+//wraps every cache of another manager in a SingleFlightCache
+public class SingleFlightCacheManager implements CacheManager {
+
+    private final CacheManager delegate;
+    private final RedisCacheWriter cacheWriter;
+    private final RecipeCacheCodec codec;
+    private final Duration leaseTime;
+    private final Duration staleTtl;
+    private final Executor refreshExecutor;
+    private final String nodeId = UUID.randomUUID().toString();
+    private final ConcurrentMap<String, Cache> caches = new ConcurrentHashMap<>();
+
+    public SingleFlightCacheManager(CacheManager delegate, RedisCacheWriter cacheWriter, RecipeCacheCodec codec,
+                                    Duration leaseTime, Duration staleTtl, Executor refreshExecutor) {
+        this.delegate = delegate;
+        this.cacheWriter = cacheWriter;
+        this.codec = codec;
+        this.leaseTime = leaseTime;
+        this.staleTtl = staleTtl;
+        this.refreshExecutor = refreshExecutor;
+    }
+
+    @Override
+    public Cache getCache(String name) {
+        return caches.computeIfAbsent(name, cacheName -> {
+            Cache cache = delegate.getCache(cacheName);
+            return cache == null ? null
+                    : new SingleFlightCache(cache, cacheWriter, codec, nodeId, leaseTime, staleTtl, refreshExecutor);
+        });
+    }
+
+    @Override
+    public Collection<String> getCacheNames() {
+        return delegate.getCacheNames();
+    }
+}
@@ -0,0 +1,221 @@
+package com.example.recipe.config;
+
+import org.springframework.cache.Cache;
+import org.springframework.cache.support.NullValue;
+import org.springframework.cache.support.SimpleValueWrapper;
+import org.springframework.cache.transaction.TransactionAwareCacheDecorator;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+//an in-process Caffeine cache (L1) in front of a Redis cache region (L2).
+//local hits never leave the JVM, every write is passed on to the other nodes through the CacheInvalidationBus.
+//  - L1 keeps the codec's bytes, the same ones Redis keeps, and every hit decodes its own copy. Cached recipes are
+//    mutable entities, a caller that changed a shared instance would change what every other caller reads
+//  - a value read from L2 or loaded is only copied into L1 when no write or eviction of its key ran in between,
+//    otherwise a slow fill could put back the value an eviction just removed, see fillLocal
+public class TwoTierCache implements Cache, LocalCache {
+
+    private static final int GENERATION_STRIPES = 64;
+
+    private final String name;
+    private final Cache remote;
+    //keys are stored as strings so invalidation messages from other nodes can find them
+    private final com.github.benmanes.caffeine.cache.Cache<String, byte[]> local;
+    private final RecipeCacheCodec codec;
+    private final CacheInvalidationBus invalidationBus;
+    //bumped by every write or eviction of a key in the stripe, by every clear for all stripes
+    private final AtomicLongArray generations = new AtomicLongArray(GENERATION_STRIPES);
+
+    public TwoTierCache(String name, Cache remote, com.github.benmanes.caffeine.cache.Cache<String, byte[]> local,
+                        RecipeCacheCodec codec, CacheInvalidationBus invalidationBus) {
+        this.name = name;
+        this.remote = remote;
+        this.local = local;
+        this.codec = codec;
+        this.invalidationBus = invalidationBus;
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public Object getNativeCache() {
+        return this;
+    }
+
+    public Cache getRemoteCache() {
+        return remote;
+    }
+
+    //for the cache metrics only, anything that reads or fills L1 goes through getLocal and fillLocal
+    com.github.benmanes.caffeine.cache.Cache<String, byte[]> getLocalCache() {
+        return local;
+    }
+
+    //the near cache behind a cache the cache manager hands out, or null when its region has none. Callers that read
+    //around the Spring cache abstraction, like the reactive reads, use this rather than unwrapping it themselves
+    public static TwoTierCache of(Cache cache) {
+        if (cache instanceof TransactionAwareCacheDecorator) {
+            cache = ((TransactionAwareCacheDecorator) cache).getTargetCache();
+        }
+        if (cache instanceof SingleFlightCache) {
+            cache = ((SingleFlightCache) cache).getDelegate();
+        }
+        return cache instanceof TwoTierCache ? (TwoTierCache) cache : null;
+    }
+
+    //L1 only, a copy of the cached value or null on a miss
+    public ValueWrapper getLocal(Object key) {
+        byte[] bytes = local.getIfPresent(localKey(key));
+        if (bytes == null) {
+            return null;
+        }
+        Object value = codec.deserialize(bytes);
+        return new SimpleValueWrapper(value instanceof NullValue ? null : value);
+    }
+
+    //read before the value that is to be put into L1 is read from anywhere else, and passed back to fillLocal()
+    public long localGeneration(Object key) {
+        return generations.get(stripe(key));
+    }
+
+    //copies a value read from L2 into L1, unless the key was written or evicted since the generation was read. An
+    //eviction between the check and the put is caught by checking again after
+    public void fillLocal(Object key, Object value, long readGeneration) {
+        if (generations.get(stripe(key)) != readGeneration) {
+            return;
+        }
+        local.put(localKey(key), encode(value));
+        if (generations.get(stripe(key)) != readGeneration) {
+            local.invalidate(localKey(key));
+        }
+    }
+
+    @Override
+    public ValueWrapper get(Object key) {
+        ValueWrapper value = getLocal(key);
+        if (value == null) {
+            long generation = localGeneration(key);
+            value = remote.get(key);
+            if (value != null) {
+                fillLocal(key, value.get(), generation);
+            }
+        }
+        return value;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> T get(Object key, Class<T> type) {
+        ValueWrapper wrapper = get(key);
+        Object value = wrapper == null ? null : wrapper.get();
+        if (value != null && type != null && !type.isInstance(value)) {
+            throw new IllegalStateException("Cached value is not of required type [" + type.getName() + "]: " + value);
+        }
+        return (T) value;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> T get(Object key, Callable<T> valueLoader) {
+        ValueWrapper wrapper = getLocal(key);
+        if (wrapper != null) {
+            return (T) wrapper.get();
+        }
+        long generation = localGeneration(key);
+        T value = remote.get(key, valueLoader);
+        fillLocal(key, value, generation);
+        return value;
+    }
+
+    //the generation is bumped first, so a fill that read the old value cannot overwrite this one in L1
+    @Override
+    public void put(Object key, Object value) {
+        bumpGeneration(key);
+        remote.put(key, value);
+        local.put(localKey(key), encode(value));
+        invalidationBus.publishEvict(name, localKey(key));
+    }
+
+    @Override
+    public ValueWrapper putIfAbsent(Object key, Object value) {
+        bumpGeneration(key);
+        ValueWrapper existing = remote.putIfAbsent(key, value);
+        local.invalidate(localKey(key));
+        invalidationBus.publishEvict(name, localKey(key));
+        return existing;
+    }
+
+    @Override
+    public void evict(Object key) {
+        bumpGeneration(key);
+        remote.evict(key);
+        local.invalidate(localKey(key));
+        invalidationBus.publishEvict(name, localKey(key));
+    }
+
+    @Override
+    public boolean evictIfPresent(Object key) {
+        bumpGeneration(key);
+        boolean evicted = remote.evictIfPresent(key);
+        local.invalidate(localKey(key));
+        invalidationBus.publishEvict(name, localKey(key));
+        return evicted;
+    }
+
+    @Override
+    public void clear() {
+        bumpAllGenerations();
+        remote.clear();
+        local.invalidateAll();
+        invalidationBus.publishClear(name);
+    }
+
+    @Override
+    public boolean invalidate() {
+        bumpAllGenerations();
+        boolean invalidated = remote.invalidate();
+        local.invalidateAll();
+        invalidationBus.publishClear(name);
+        return invalidated;
+    }
+
+    //called for invalidations published by other nodes, only this node's L1 is touched
+    @Override
+    public void evictLocal(String key) {
+        bumpGeneration(key);
+        local.invalidate(key);
+    }
+
+    @Override
+    public void clearLocal() {
+        bumpAllGenerations();
+        local.invalidateAll();
+    }
+
+    private byte[] encode(Object value) {
+        return codec.serialize(value == null ? NullValue.INSTANCE : value);
+    }
+
+    private void bumpGeneration(Object key) {
+        generations.incrementAndGet(stripe(key));
+    }
+
+    private void bumpAllGenerations() {
+        for (int stripe = 0; stripe < GENERATION_STRIPES; stripe++) {
+            generations.incrementAndGet(stripe);
+        }
+    }
+
+    //keys are striped by their L1 form, so an invalidation message from another node bumps the same stripe
+    private static int stripe(Object key) {
+        return Math.floorMod(String.valueOf(key).hashCode(), GENERATION_STRIPES);
+    }
+
+    private String localKey(Object key) {
+        return String.valueOf(key);
+    }
+}
@@ -0,0 +1,63 @@
+package com.example.recipe.config;
+
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
+import org.springframework.data.redis.cache.RedisCacheManager;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+//hands out Redis caches, wrapped in a TwoTierCache for the regions that are hot enough to keep in process
+public class TwoTierCacheManager implements CacheManager {
+
+    private final RedisCacheManager remoteCacheManager;
+    private final CacheInvalidationBus invalidationBus;
+    private final RecipeCacheCodec codec;
+    private final Set<String> nearCacheNames;
+    private final long nearMaxSize;
+    private final Duration nearTtl;
+    private final ConcurrentMap<String, Cache> caches = new ConcurrentHashMap<>();
+
+    public TwoTierCacheManager(RedisCacheManager remoteCacheManager, CacheInvalidationBus invalidationBus,
+                               RecipeCacheCodec codec, Set<String> nearCacheNames, long nearMaxSize, Duration nearTtl) {
+        this.remoteCacheManager = remoteCacheManager;
+        this.invalidationBus = invalidationBus;
+        this.codec = codec;
+        this.nearCacheNames = nearCacheNames;
+        this.nearMaxSize = nearMaxSize;
+        this.nearTtl = nearTtl;
+    }
+
+    @Override
+    public Cache getCache(String name) {
+        return caches.computeIfAbsent(name, this::createCache);
+    }
+
+    @Override
+    public Collection<String> getCacheNames() {
+        return remoteCacheManager.getCacheNames();
+    }
+
+    private Cache createCache(String name) {
+        Cache remote = remoteCacheManager.getCache(name);
+        if (remote == null || !nearCacheNames.contains(name)) {
+            return remote;
+        }
+
+        //Caffeine evicts with W-TinyLFU, so the few very popular recipes stay local while one-off reads pass through.
+        //the TTL bounds how stale an entry can get if an invalidation message is ever lost
+        TwoTierCache cache = new TwoTierCache(name, remote,
+                Caffeine.newBuilder()
+                        .maximumSize(nearMaxSize)
+                        .expireAfterWrite(nearTtl)
+                        .recordStats()
+                        .build(),
+                codec, invalidationBus);
+        invalidationBus.register(cache);
+        return cache;
+    }
+}
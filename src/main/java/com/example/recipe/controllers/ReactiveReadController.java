@@ -0,0 +1,57 @@
+package com.example.recipe.controllers;
+
+import com.example.recipe.exceptions.NoSuchRecipeException;
+import com.example.recipe.exceptions.NoSuchReviewException;
+import com.example.recipe.services.AccessStatistics;
+import com.example.recipe.services.ReactiveRecipeReader;
+import com.example.recipe.services.RecipeService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import reactor.core.publisher.Mono;
+
+//reactive versions of the hot read endpoints. The request thread is released while the value is looked up, and
+//the status codes match the blocking endpoints in RecipeController and ReviewController.
+@RestController
+@RequestMapping("/reactive")
+public class ReactiveReadController {
+
+    @Autowired
+    ReactiveRecipeReader reactiveRecipeReader;
+
+    @Autowired
+    AccessStatistics accessStatistics;
+
+    @GetMapping("/recipes/{id}")
+    public Mono<ResponseEntity<?>> getRecipeById(@PathVariable("id") Long id) {
+        accessStatistics.recordRecipe(id);
+        return reactiveRecipeReader.getRecipeById(id)
+                .<ResponseEntity<?>>map(ResponseEntity::ok)
+                .onErrorResume(NoSuchRecipeException.class,
+                        e -> Mono.just(ResponseEntity.status(HttpStatus.NOT_FOUND).body(e.getMessage())));
+    }
+
+    @GetMapping("/recipes/search/{name}")
+    public Mono<ResponseEntity<?>> getRecipesByName(@PathVariable("name") String name,
+                                                    @RequestParam(value = "page", defaultValue = "0") int page,
+                                                    @RequestParam(value = "size", defaultValue = "" + RecipeService.DEFAULT_PAGE_SIZE) int size) {
+        accessStatistics.recordSearch(name);
+        return reactiveRecipeReader.getRecipesByName(name, page, size)
+                .collectList()
+                .<ResponseEntity<?>>map(ResponseEntity::ok)
+                .onErrorResume(NoSuchRecipeException.class,
+                        e -> Mono.just(ResponseEntity.status(HttpStatus.NOT_FOUND).body(e.getMessage())));
+    }
+
+    @GetMapping("/review/recipe/{recipeId}")
+    public Mono<ResponseEntity<?>> getReviewsByRecipeId(@PathVariable("recipeId") Long recipeId) {
+        return reactiveRecipeReader.getReviewsByRecipeId(recipeId)
+                .collectList()
+                .<ResponseEntity<?>>map(ResponseEntity::ok)
+                .onErrorResume(NoSuchRecipeException.class,
+                        e -> Mono.just(ResponseEntity.status(HttpStatus.NOT_FOUND).body(e.getMessage())))
+                .onErrorResume(NoSuchReviewException.class,
+                        e -> Mono.just(ResponseEntity.badRequest().body(e.getMessage())));
+    }
+}
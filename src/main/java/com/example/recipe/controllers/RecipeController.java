@@ -2,14 +2,35 @@ package com.example.recipe.controllers;
 
 import com.example.recipe.exceptions.NoSuchRecipeException;
 import com.example.recipe.exceptions.RecipeIllegalStateException;
+import com.example.recipe.exceptions.RecipeVersionRequiredException;
+import com.example.recipe.models.CustomUserDetails;
 import com.example.recipe.models.Recipe;
+import com.example.recipe.models.RecipeFetchPlan;
+import com.example.recipe.models.RecipeImportResult;
+import com.example.recipe.models.RecipePage;
+import com.example.recipe.models.RecipeSummary;
+import com.example.recipe.services.AccessStatistics;
+import com.example.recipe.services.CacheWarmer;
+import com.example.recipe.services.RecipeExportService;
+import com.example.recipe.services.RecipeImportService;
+import com.example.recipe.services.RecipeLeaderboard;
 import com.example.recipe.services.RecipeService;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.access.prepost.PreAuthorize;
+import org.springframework.security.core.Authentication;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+import org.springframework.web.servlet.support.ServletUriComponentsBuilder;
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
 
 @RestController
 @RequestMapping("/recipes")
@@ -18,16 +39,44 @@ public class RecipeController {
     @Autowired
     RecipeService recipeService;
 
+    @Autowired
+    RecipeExportService recipeExportService;
+
+    @Autowired
+    RecipeImportService recipeImportService;
+
+    @Autowired
+    AccessStatistics accessStatistics;
+
+    @Autowired
+    CacheWarmer cacheWarmer;
+
+    @Autowired
+    RecipeLeaderboard recipeLeaderboard;
+
     @PostMapping
     public ResponseEntity<?> createNewRecipe(@RequestBody Recipe recipe) {
         try {
             Recipe insertedRecipe = recipeService.createNewRecipe(recipe);
+            insertedRecipe.generateLocationURI();
             return ResponseEntity.created(insertedRecipe.getLocationURI()).body(insertedRecipe);
         } catch (RecipeIllegalStateException e) {
             return ResponseEntity.badRequest().body(e.getMessage());
         }
     }
 
+    //takes a JSON array or NDJSON and reports on every recipe, so one bad recipe does not fail the others
+    @PostMapping(value = "/import", consumes = {MediaType.APPLICATION_JSON_VALUE, "application/x-ndjson"})
+    public ResponseEntity<?> importRecipes(InputStream body, Authentication authentication) {
+        try {
+            List<RecipeImportResult> results =
+                    recipeImportService.importRecipes(body, (CustomUserDetails) authentication.getPrincipal());
+            return ResponseEntity.ok(results);
+        } catch (IOException e) {
+            return ResponseEntity.badRequest().body("Could not read the recipes: " + e.getMessage());
+        }
+    }
+
     @PostMapping("/v2")
     public Recipe createNewRecipeV2(@RequestBody Recipe recipe) {
             return recipeService.createNewRecipe(recipe);
@@ -35,6 +84,7 @@ public class RecipeController {
 
     @GetMapping("/{id}")
     public ResponseEntity<?> getRecipeById(@PathVariable("id") Long id) {
+        accessStatistics.recordRecipe(id);
         try {
             Recipe recipe = recipeService.getRecipeById(id);
             return ResponseEntity.ok(recipe);
@@ -44,35 +94,134 @@ public class RecipeController {
     }
 
     @GetMapping
-    public ResponseEntity<?> getAllRecipes() {
+    public ResponseEntity<?> getAllRecipes(@RequestParam(value = "after", required = false) Long after,
+                                           @RequestParam(value = "page", required = false) Integer page,
+                                           @RequestParam(value = "size", defaultValue = "" + RecipeService.DEFAULT_PAGE_SIZE) int size,
+                                           @RequestParam(value = "fetch", defaultValue = "withReviews") String fetch) {
         try {
-            return ResponseEntity.ok(recipeService.getAllRecipes());
+            RecipePage<Recipe> recipePage = recipeService.getRecipesPage(after, page, size, RecipeFetchPlan.fromName(fetch));
+            return pageResponse(recipePage);
         } catch (NoSuchRecipeException e) {
             return ResponseEntity.status(HttpStatus.NOT_FOUND).body(e.getMessage());
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
+        }
+    }
+
+    //id, name, minutes to make, difficulty and average rating only, for list views
+    @GetMapping("/summary")
+    public ResponseEntity<?> getRecipeSummaries(@RequestParam(value = "after", required = false) Long after,
+                                                @RequestParam(value = "page", required = false) Integer page,
+                                                @RequestParam(value = "size", defaultValue = "" + RecipeService.DEFAULT_PAGE_SIZE) int size) {
+        try {
+            RecipePage<RecipeSummary> summaryPage = recipeService.getRecipeSummariesPage(after, page, size);
+            return pageResponse(summaryPage);
+        } catch (NoSuchRecipeException e) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).body(e.getMessage());
+        }
+    }
+
+    //best average rating first, averages from only a few reviews are pulled towards the middle
+    @GetMapping("/top-rated")
+    public ResponseEntity<?> getTopRatedRecipes(@RequestParam(value = "limit", defaultValue = "" + RecipeService.DEFAULT_PAGE_SIZE) int limit) {
+        return ResponseEntity.ok(recipeLeaderboard.getTopRated(limit));
+    }
+
+    //recipes with the most well rated new reviews lately, a review counts half as much after every half-life
+    @GetMapping("/trending")
+    public ResponseEntity<?> getTrendingRecipes(@RequestParam(value = "limit", defaultValue = "" + RecipeService.DEFAULT_PAGE_SIZE) int limit) {
+        return ResponseEntity.ok(recipeLeaderboard.getTrending(limit));
+    }
+
+    //the whole catalog as NDJSON, written while it is read instead of being collected into one response
+    @GetMapping("/export")
+    public ResponseEntity<?> exportRecipes(@RequestParam(value = "fetch", defaultValue = "withReviews") String fetch,
+                                           @RequestParam(value = "gzip", defaultValue = "false") boolean gzip) {
+        RecipeFetchPlan fetchPlan;
+        try {
+            fetchPlan = RecipeFetchPlan.fromName(fetch);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
+        }
+
+        StreamingResponseBody body = out -> {
+            if (gzip) {
+                GZIPOutputStream gzipOut = new GZIPOutputStream(out, 64 * 1024);
+                recipeExportService.exportRecipes(gzipOut, fetchPlan);
+                gzipOut.finish();
+            } else {
+                recipeExportService.exportRecipes(out, fetchPlan);
+            }
+        };
+
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok()
+                .contentType(MediaType.parseMediaType("application/x-ndjson"))
+                .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"recipes.ndjson\"");
+        if (gzip) {
+            response.header(HttpHeaders.CONTENT_ENCODING, "gzip");
         }
+        return response.body(body);
     }
 
     @GetMapping("/search/{name}")
-    public ResponseEntity<?> getRecipesByName(@PathVariable("name") String name) {
+    public ResponseEntity<?> getRecipesByName(@PathVariable("name") String name,
+                                              @RequestParam(value = "page", defaultValue = "0") int page,
+                                              @RequestParam(value = "size", defaultValue = "" + RecipeService.DEFAULT_PAGE_SIZE) int size,
+                                              @RequestParam(value = "fetch", defaultValue = "withReviews") String fetch) {
+        accessStatistics.recordSearch(name);
         try {
-            Long rating = null;
-            ArrayList<Recipe> matchingRecipes = recipeService.getRecipesByName(name, rating);
+            ArrayList<Recipe> matchingRecipes = recipeService.getRecipesByName(name, page, size, RecipeFetchPlan.fromName(fetch));
             return ResponseEntity.ok(matchingRecipes);
         } catch (NoSuchRecipeException e) {
             return ResponseEntity.status(HttpStatus.NOT_FOUND).body(e.getMessage());
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
         }
     }
 
     @GetMapping("/search/{name}/rating/{minimum}")
-    public ResponseEntity<?> getRecipesByNameAndRating(@PathVariable("name") String name, @PathVariable("minimum") Long rating) {
+    public ResponseEntity<?> getRecipesByNameAndRating(@PathVariable("name") String name, @PathVariable("minimum") Long rating,
+                                                       @RequestParam(value = "limit", defaultValue = "" + RecipeService.DEFAULT_PAGE_SIZE) int limit,
+                                                       @RequestParam(value = "fetch", defaultValue = "withReviews") String fetch) {
         try {
-            ArrayList<Recipe> matchingRecipes = recipeService.getRecipesByName(name, rating);
+            ArrayList<Recipe> matchingRecipes = recipeService.getRecipesByNameAndRating(name, rating, limit, RecipeFetchPlan.fromName(fetch));
             return ResponseEntity.ok(matchingRecipes);
         } catch (NoSuchRecipeException e) {
             return ResponseEntity.status(HttpStatus.NOT_FOUND).body(e.getMessage());
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
+        }
+    }
+
+    @GetMapping("/search/{name}/summary")
+    public ResponseEntity<?> getRecipeSummariesByName(@PathVariable("name") String name,
+                                                      @RequestParam(value = "page", defaultValue = "0") int page,
+                                                      @RequestParam(value = "size", defaultValue = "" + RecipeService.DEFAULT_PAGE_SIZE) int size) {
+        try {
+            ArrayList<RecipeSummary> matchingSummaries = recipeService.getRecipeSummariesByName(name, page, size);
+            return ResponseEntity.ok(matchingSummaries);
+        } catch (NoSuchRecipeException e) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).body(e.getMessage());
         }
     }
 
+    @GetMapping("/search/{name}/rating/{minimum}/summary")
+    public ResponseEntity<?> getRecipeSummariesByNameAndRating(@PathVariable("name") String name, @PathVariable("minimum") Long rating,
+                                                               @RequestParam(value = "limit", defaultValue = "" + RecipeService.DEFAULT_PAGE_SIZE) int limit) {
+        try {
+            ArrayList<RecipeSummary> matchingSummaries = recipeService.getRecipeSummariesByNameAndRating(name, rating, limit);
+            return ResponseEntity.ok(matchingSummaries);
+        } catch (NoSuchRecipeException e) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).body(e.getMessage());
+        }
+    }
+
+    //preloads the most requested recipes and searches again, e.g. after the caches were cleared
+    @PostMapping("/cache/warmup")
+    public ResponseEntity<?> warmUpCaches() {
+        return ResponseEntity.ok(cacheWarmer.warmUp());
+    }
+
     @DeleteMapping("/{id}")
     @PreAuthorize("hasPermission(#id, 'Recipe', 'delete')")
     public ResponseEntity<?> deleteRecipeById(@PathVariable("id") Long id) {
@@ -93,6 +242,25 @@ public class RecipeController {
             return ResponseEntity.ok(returnedUpdatedRecipe);
         } catch (NoSuchRecipeException | IllegalStateException e) {
             return ResponseEntity.badRequest().body(e.getMessage());
+        } catch (RecipeVersionRequiredException e) {
+            return ResponseEntity.status(HttpStatus.PRECONDITION_REQUIRED).body(e.getMessage());
+        } catch (OptimisticLockingFailureException e) {
+            return ResponseEntity.status(HttpStatus.CONFLICT)
+                    .body("The recipe was changed by someone else, fetch it again and reapply your edit.");
+        }
+    }
+
+    //the body stays a plain array, the cursor for the next page is sent in the headers
+    private ResponseEntity<?> pageResponse(RecipePage<?> recipePage) {
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok();
+        if (recipePage.getNextCursor() != null) {
+            String nextPage = ServletUriComponentsBuilder.fromCurrentRequest()
+                    .replaceQueryParam("page")
+                    .replaceQueryParam("after", recipePage.getNextCursor())
+                    .toUriString();
+            response.header("X-Next-Cursor", String.valueOf(recipePage.getNextCursor()))
+                    .header(HttpHeaders.LINK, "<" + nextPage + ">; rel=\"next\"");
         }
+        return response.body(recipePage.getRecipes());
     }
 }
\ No newline at end of file
@@ -2,13 +2,23 @@ package com.example.recipe.controllers;
 
 import com.example.recipe.exceptions.NoSuchRecipeException;
 import com.example.recipe.exceptions.NoSuchReviewException;
+import com.example.recipe.models.CustomUserDetails;
+import com.example.recipe.models.PendingReview;
 import com.example.recipe.models.Recipe;
 import com.example.recipe.models.Review;
+import com.example.recipe.models.ReviewPage;
+import com.example.recipe.models.ReviewSort;
+import com.example.recipe.services.RecipeService;
+import com.example.recipe.services.ReviewIngestService;
 import com.example.recipe.services.ReviewService;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.access.prepost.PreAuthorize;
+import org.springframework.security.core.Authentication;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.support.ServletUriComponentsBuilder;
 import java.util.ArrayList;
 
 @RestController
@@ -18,6 +28,12 @@ public class ReviewController {
     @Autowired
     ReviewService reviewService;
 
+    @Autowired
+    ReviewIngestService reviewIngestService;
+
+    @Autowired
+    RecipeService recipeService;
+
     @GetMapping("/{id}")
     public ResponseEntity<?> getReviewById(@PathVariable("id") Long id) {
         try {
@@ -38,26 +54,75 @@ public class ReviewController {
         }
     }
 
+    //one page of the recipe's reviews, newest or best rated first. The cursor for the next page is sent in the headers
+    @GetMapping("/recipe/{recipeId}/page")
+    public ResponseEntity<?> getReviewsPageByRecipeId(@PathVariable("recipeId") Long recipeId,
+                                                      @RequestParam(value = "sort", defaultValue = "newest") String sort,
+                                                      @RequestParam(value = "after", required = false) String after,
+                                                      @RequestParam(value = "size", defaultValue = "" + RecipeService.DEFAULT_PAGE_SIZE) int size) {
+        try {
+            ReviewPage<Review> reviewPage = reviewService.getReviewsPageByRecipeId(recipeId, ReviewSort.fromName(sort), after, size);
+            return pageResponse(reviewPage);
+        } catch (NoSuchRecipeException e) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).body(e.getMessage());
+        } catch (NoSuchReviewException | IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
+        }
+    }
+
+    //the user's reviews newest first, one page at a time. view=summary leaves out the description and author
     @GetMapping("/user/{username}")
-    public ResponseEntity<?> getReviewByUsername(@PathVariable("username") String username) {
+    public ResponseEntity<?> getReviewByUsername(@PathVariable("username") String username,
+                                                 @RequestParam(value = "after", required = false) String after,
+                                                 @RequestParam(value = "size", defaultValue = "" + RecipeService.DEFAULT_PAGE_SIZE) int size,
+                                                 @RequestParam(value = "view", defaultValue = "full") String view) {
         try {
-            ArrayList<Review> reviews = reviewService.getReviewByUsername(username);
-            return ResponseEntity.ok(reviews);
-        } catch (NoSuchReviewException e) {
+            if ("summary".equalsIgnoreCase(view)) {
+                return pageResponse(reviewService.getReviewSummariesPageByUsername(username, after, size));
+            }
+            if (!"full".equalsIgnoreCase(view)) {
+                return ResponseEntity.badRequest().body("Unknown view " + view + ", use full or summary.");
+            }
+            return pageResponse(reviewService.getReviewsPageByUsername(username, after, size));
+        } catch (NoSuchReviewException | IllegalArgumentException e) {
             return ResponseEntity.badRequest().body(e.getMessage());
         }
     }
 
+    //answers with the recipe and its updated aggregates. It is read after the review's transaction commits, through
+    //the recipe cache, so a recipe that transaction had not committed yet is never cached
     @PostMapping("/{recipeId}")
-    public ResponseEntity<?> postNewReview(@RequestBody Review review, @PathVariable("recipeId") Long recipeId) {
+    public ResponseEntity<?> postNewReview(@RequestBody Review review, @PathVariable("recipeId") Long recipeId,
+                                           Authentication authentication) {
         try {
-            Recipe insertedRecipe = reviewService.postNewReview(review, recipeId);
-            return ResponseEntity.created(insertedRecipe.getLocationURI()).body(insertedRecipe);
+            //the review belongs to whoever posts it, like in submitReview
+            CustomUserDetails author = (CustomUserDetails) authentication.getPrincipal();
+            review.setAuthor(author);
+            if (review.getUsername() == null) {
+                review.setUsername(author.getUsername());
+            }
+            reviewService.postNewReview(review, recipeId);
+            Recipe recipe = recipeService.getRecipeById(recipeId);
+            recipe.generateLocationURI();
+            return ResponseEntity.created(recipe.getLocationURI()).body(recipe);
         } catch (NoSuchRecipeException e) {
             return ResponseEntity.badRequest().body(e.getMessage());
         }
     }
 
+    //queues the review and returns right away, the recipe's rating is updated by a background worker shortly after
+    @PostMapping("/{recipeId}/async")
+    public ResponseEntity<?> submitReview(@RequestBody Review review, @PathVariable("recipeId") Long recipeId,
+                                          Authentication authentication) {
+        try {
+            PendingReview pendingReview = reviewIngestService.submitReview(review, recipeId,
+                    (CustomUserDetails) authentication.getPrincipal());
+            return ResponseEntity.accepted().body(pendingReview);
+        } catch (NoSuchRecipeException | IllegalStateException e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
+        }
+    }
+
     @DeleteMapping("/{id}")
     @PreAuthorize("hasPermission(#id, 'Review', 'delete')")
     public ResponseEntity<?> deleteReviewById(@PathVariable("id") Long id) {
@@ -79,4 +144,17 @@ public class ReviewController {
             return ResponseEntity.badRequest().body(e.getMessage());
         }
     }
-}
\ No newline at end of file
+
+    //the body stays a plain array, like the recipe pages in RecipeController
+    private ResponseEntity<?> pageResponse(ReviewPage<?> reviewPage) {
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok();
+        if (reviewPage.getNextCursor() != null) {
+            String nextPage = ServletUriComponentsBuilder.fromCurrentRequest()
+                    .replaceQueryParam("after", reviewPage.getNextCursor())
+                    .toUriString();
+            response.header("X-Next-Cursor", reviewPage.getNextCursor())
+                    .header(HttpHeaders.LINK, "<" + nextPage + ">; rel=\"next\"");
+        }
+        return response.body(reviewPage.getReviews());
+    }
+}
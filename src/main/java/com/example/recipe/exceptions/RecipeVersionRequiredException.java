@@ -0,0 +1,11 @@
+package com.example.recipe.exceptions;
+
+public class RecipeVersionRequiredException extends Exception {
+
+    public RecipeVersionRequiredException(String message) {
+        super(message);
+    }
+
+    public RecipeVersionRequiredException() {
+    }
+}
@@ -0,0 +1,20 @@
+package com.example.recipe.models;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+//what one cache warm-up run loaded. Skipped keys were not started before the time budget ran out
+@Getter
+@AllArgsConstructor
+public class CacheWarmupResult {
+
+    private int recipesWarmed;
+
+    private int searchesWarmed;
+
+    private int failed;
+
+    private int skipped;
+
+    private long elapsedMillis;
+}
@@ -1,8 +1,11 @@
 package com.example.recipe.models;
 
 
+import com.example.recipe.config.AuthenticationCacheListener;
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import lombok.*;
+import org.hibernate.annotations.BatchSize;
 import org.springframework.security.core.userdetails.UserDetails;
 import javax.persistence.*;
 import java.util.ArrayList;
@@ -15,6 +18,8 @@ import java.util.Collection;
 @AllArgsConstructor
 @NoArgsConstructor
 @Table(name = "user_details")
+@EntityListeners(AuthenticationCacheListener.class)
+@BatchSize(size = 100)
 public class CustomUserDetails implements UserDetails {
 
     @Id
@@ -52,10 +57,19 @@ public class CustomUserDetails implements UserDetails {
         this.userMeta = userMeta;
     }
 
+    //eager, so batch it: the authors of a page of recipes or reviews get their roles in one query
     @OneToMany(cascade = javax.persistence.CascadeType.ALL, fetch = FetchType.EAGER)
     @JoinColumn(name = "userId", nullable = false)
+    @BatchSize(size = 100)
     private Collection<Role> authorities = new ArrayList<>();
 
     @OneToOne(cascade = CascadeType.PERSIST, optional = false)
     private UserMeta userMeta;
+
+    //a change to the authorities collection bumps the version, which is what makes it an update of this entity
+    //and lets AuthenticationCacheListener see it
+    @Version
+    @JsonIgnore
+    @Column(nullable = false, columnDefinition = "bigint default 0")
+    private Long version;
 }
\ No newline at end of file
@@ -4,7 +4,10 @@ import javax.validation.constraints.NotNull;
 import lombok.*;
 import javax.persistence.Entity;
 import javax.persistence.GeneratedValue;
+import javax.persistence.GenerationType;
 import javax.persistence.Id;
+import javax.persistence.SequenceGenerator;
+import java.io.Serializable;
 
 @Entity
 @Getter
@@ -12,10 +15,11 @@ import javax.persistence.Id;
 @Builder
 @NoArgsConstructor
 @AllArgsConstructor
-public class Ingredient {
+public class Ingredient implements Serializable {
 
     @Id
-    @GeneratedValue
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "ingredient_id")
+    @SequenceGenerator(name = "ingredient_id", sequenceName = "hibernate_sequence", allocationSize = 50)
     private Long id;
 
     @NotNull
@@ -0,0 +1,40 @@
+package com.example.recipe.models;
+
+import lombok.*;
+
+import javax.persistence.*;
+import java.time.Instant;
+
+//a review accepted by the async endpoint but not yet applied to its recipe. The row is deleted in the same
+//transaction that inserts the review and updates the recipe's aggregates, so a review is applied exactly once.
+@Entity
+@Getter
+@Setter
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@Table(name = "review_outbox")
+public class PendingReview {
+
+    //each batch is applied in id order. Batches claimed by workers on different nodes can commit in either order
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(nullable = false)
+    private Long recipeId;
+
+    @Column(nullable = false)
+    private String username;
+
+    @Column(nullable = false)
+    private int rating;
+
+    private String description;
+
+    @Column(name = "userId", nullable = false)
+    private Long authorId;
+
+    @Column(nullable = false)
+    private Instant acceptedAt;
+}
@@ -0,0 +1,22 @@
+package com.example.recipe.models;
+
+import lombok.*;
+
+import javax.persistence.*;
+
+//the last rating delta log segment of one node whose recipes have been recounted. It is written in the same
+//transaction as the recount, so after a crash only the segments after it are read again.
+@Entity
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+@Table(name = "rating_checkpoint")
+public class RatingCheckpoint {
+
+    @Id
+    private String nodeId;
+
+    @Column(nullable = false)
+    private long lastSegment;
+}
@@ -1,8 +1,12 @@
 package com.example.recipe.models;
 
+import com.example.recipe.config.OwnershipCacheListener;
 import com.example.recipe.exceptions.RecipeIllegalStateException;
 import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
 import lombok.*;
+import org.hibernate.annotations.BatchSize;
 import org.springframework.web.servlet.support.ServletUriComponentsBuilder;
 
 import javax.persistence.*;
@@ -10,6 +14,7 @@ import java.net.URI;
 import java.net.URISyntaxException;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.io.Serializable;
 
 @Entity
 @Getter
@@ -17,7 +22,16 @@ import java.util.Collection;
 @Builder
 @NoArgsConstructor
 @AllArgsConstructor
-public class Recipe {
+//lets rating searches walk recipes from the best rated down and stop after the requested number of matches
+@Table(indexes = @Index(name = "idx_recipe_rating_name", columnList = "averageReviewScore, name"))
+@EntityListeners(OwnershipCacheListener.class)
+//joins the author into every list query. Collections are never join fetched, that would break paging.
+@NamedEntityGraph(name = Recipe.AUTHOR_GRAPH,
+        attributeNodes = @NamedAttributeNode(value = "author", subgraph = "author"),
+        subgraphs = @NamedSubgraph(name = "author", attributeNodes = @NamedAttributeNode("userMeta")))
+public class Recipe implements Serializable {
+
+    public static final String AUTHOR_GRAPH = "Recipe.author";
 
     @Id
     @GeneratedValue(strategy = GenerationType.IDENTITY)
@@ -36,24 +50,51 @@ public class Recipe {
     @JoinColumn(name = "userId", nullable = false, foreignKey = @ForeignKey)
     private CustomUserDetails author;
 
+    //collections are loaded for up to a full page of recipes in one query, see RecipeFetchPlan.
+    //a collection the fetch plan did not load is null and left out of the JSON
     @OneToMany(cascade = CascadeType.ALL)
     @JoinColumn(name = "recipeId", nullable = false, foreignKey = @ForeignKey)
+    @BatchSize(size = 100)
+    @JsonInclude(JsonInclude.Include.NON_NULL)
     private Collection<Ingredient> ingredients = new ArrayList<>();
 
     @OneToMany(cascade = CascadeType.ALL)
     @JoinColumn(name = "recipeId", nullable = false, foreignKey = @ForeignKey)
+    @BatchSize(size = 100)
+    @JsonInclude(JsonInclude.Include.NON_NULL)
     private Collection<Step> steps = new ArrayList<>();
 
+    //the review owns the recipeId column so reviews can be inserted without loading this collection
     @OneToMany(cascade = CascadeType.ALL)
-    @JoinColumn(name = "recipeId", nullable = false, foreignKey = @ForeignKey)
+    @JoinColumn(name = "recipeId", insertable = false, updatable = false, foreignKey = @ForeignKey)
+    @BatchSize(size = 100)
+    @JsonInclude(JsonInclude.Include.NON_NULL)
     private Collection<Review> reviews;
 
-    @Column(nullable = false)
+    //the review aggregates are only ever changed through RecipeRepo.applyReviewDelta(), never by saving the entity
+    @Column(nullable = false, updatable = false)
+    @JsonProperty(access = JsonProperty.Access.READ_ONLY)
     private long averageReviewScore;
 
+    @Column(nullable = false, updatable = false)
+    @JsonProperty(access = JsonProperty.Access.READ_ONLY)
+    private long reviewCount;
+
+    @Column(nullable = false, updatable = false)
+    @JsonProperty(access = JsonProperty.Access.READ_ONLY)
+    private long ratingSum;
+
+    //bumped by every edit. A PATCH carrying an older version is refused instead of overwriting the newer edit.
+    //review writes leave it alone, they only change the aggregates above
+    @Version
+    @Column(nullable = false, columnDefinition = "bigint default 0")
+    private Long version;
+
+    //depends on the request being answered, so the services never set it and it is never cached. The controllers
+    //that send a Location header generate it themselves
     @Transient
     @JsonIgnore
-    private URI locationURI;
+    private transient URI locationURI;
 
     public void setDifficultyRating(int difficultyRating) {
         if (difficultyRating < 0 || difficultyRating > 10) {
@@ -70,6 +111,18 @@ public class Recipe {
         }
     }
 
+    public void initializeReviewAggregates() {
+        reviewCount = 0;
+        ratingSum = 0;
+        if (reviews != null) {
+            for (Review review : reviews) {
+                reviewCount++;
+                ratingSum += review.getRating();
+            }
+        }
+        averageReviewScore = reviewCount == 0 ? 0 : ratingSum / reviewCount;
+    }
+
     public void generateLocationURI() {
         try {
             locationURI = new URI(
@@ -0,0 +1,43 @@
+package com.example.recipe.models;
+
+//how much of a recipe's object graph a read loads. Whatever a plan does not load is left out of the response.
+public enum RecipeFetchPlan {
+
+    //the recipe row and its author
+    SUMMARY("summary", false, false),
+    //adds the ingredients and steps
+    DETAIL("detail", true, false),
+    //adds the reviews and their authors
+    WITH_REVIEWS("withReviews", true, true);
+
+    private final String planName;
+    private final boolean loadsDetail;
+    private final boolean loadsReviews;
+
+    RecipeFetchPlan(String planName, boolean loadsDetail, boolean loadsReviews) {
+        this.planName = planName;
+        this.loadsDetail = loadsDetail;
+        this.loadsReviews = loadsReviews;
+    }
+
+    public String getPlanName() {
+        return planName;
+    }
+
+    public boolean loadsDetail() {
+        return loadsDetail;
+    }
+
+    public boolean loadsReviews() {
+        return loadsReviews;
+    }
+
+    public static RecipeFetchPlan fromName(String planName) {
+        for (RecipeFetchPlan plan : values()) {
+            if (plan.planName.equalsIgnoreCase(planName)) {
+                return plan;
+            }
+        }
+        throw new IllegalArgumentException("Unknown fetch plan " + planName + ", use summary, detail or withReviews.");
+    }
+}
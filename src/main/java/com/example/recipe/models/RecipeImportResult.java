@@ -0,0 +1,31 @@
+package com.example.recipe.models;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+//outcome of one recipe in a bulk import, index is the recipe's position in the request body
+@Getter
+@AllArgsConstructor
+public class RecipeImportResult {
+
+    private int index;
+
+    private Status status;
+
+    private Long id;
+
+    private String error;
+
+    public enum Status {
+        CREATED,
+        FAILED
+    }
+
+    public static RecipeImportResult created(int index, Long id) {
+        return new RecipeImportResult(index, Status.CREATED, id, null);
+    }
+
+    public static RecipeImportResult failed(int index, String error) {
+        return new RecipeImportResult(index, Status.FAILED, null, error);
+    }
+}
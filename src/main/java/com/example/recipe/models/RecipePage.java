@@ -0,0 +1,17 @@
+package com.example.recipe.models;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.util.List;
+
+//one page of full recipes or of recipe summaries
+@Getter
+@AllArgsConstructor
+public class RecipePage<T> {
+
+    private List<T> recipes;
+
+    //id of the last recipe on this page, null when there are no more pages
+    private Long nextCursor;
+}
@@ -0,0 +1,24 @@
+package com.example.recipe.models;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+
+import java.io.Serializable;
+
+//the columns a recipe list view needs, selected directly by the summary queries in RecipeRepo
+@Getter
+@NoArgsConstructor
+@AllArgsConstructor
+public class RecipeSummary implements Serializable {
+
+    private Long id;
+
+    private String name;
+
+    private Integer minutesToMake;
+
+    private Integer difficultyRating;
+
+    private long averageReviewScore;
+}
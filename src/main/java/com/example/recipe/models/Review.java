@@ -1,8 +1,10 @@
 package com.example.recipe.models;
 
+import com.example.recipe.config.OwnershipCacheListener;
 import lombok.*;
 import javax.persistence.*;
 import javax.validation.constraints.NotNull;
+import java.io.Serializable;
 
 @Entity
 @Getter
@@ -10,10 +12,18 @@ import javax.validation.constraints.NotNull;
 @Builder
 @NoArgsConstructor
 @AllArgsConstructor
-public class Review {
+//keyset pages of a recipe's or a user's reviews read these indexes from the cursor on, never the recipe itself
+@Table(indexes = {
+        @Index(name = "idx_review_recipe_id", columnList = "recipeId, id"),
+        @Index(name = "idx_review_recipe_rating", columnList = "recipeId, rating, id"),
+        @Index(name = "idx_review_username", columnList = "username, id")
+})
+@EntityListeners(OwnershipCacheListener.class)
+public class Review implements Serializable {
 
     @Id
-    @GeneratedValue
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "review_id")
+    @SequenceGenerator(name = "review_id", sequenceName = "hibernate_sequence", allocationSize = 50)
     private Long id;
 
     @NotNull
@@ -31,7 +41,7 @@ public class Review {
 //    @ManyToOne (cascade = CascadeType.ALL, optional = false)
 //    private Recipe recipe;
 
-    @Column(name = "recipeId", insertable = false, updatable = false)
+    @Column(name = "recipeId", nullable = false)
     private Long recipeId;
 
     public void setRating(int rating) {
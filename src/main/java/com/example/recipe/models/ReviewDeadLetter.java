@@ -0,0 +1,55 @@
+package com.example.recipe.models;
+
+import lombok.*;
+
+import javax.persistence.*;
+import java.time.Instant;
+
+//an accepted async review that could not be applied, with the error it failed with. It is moved here so the reviews
+//queued behind it are not held up; nothing reads the table, it is for someone to look at and fix or drop by hand.
+@Entity
+@Getter
+@Setter
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@Table(name = "review_dead_letter")
+public class ReviewDeadLetter {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    private Long recipeId;
+
+    private String username;
+
+    private int rating;
+
+    @Column(length = 4000)
+    private String description;
+
+    @Column(name = "userId")
+    private Long authorId;
+
+    private Instant acceptedAt;
+
+    @Column(length = 1000)
+    private String error;
+
+    @Column(nullable = false)
+    private Instant failedAt;
+
+    public static ReviewDeadLetter of(PendingReview pendingReview, String error) {
+        return ReviewDeadLetter.builder()
+                .recipeId(pendingReview.getRecipeId())
+                .username(pendingReview.getUsername())
+                .rating(pendingReview.getRating())
+                .description(pendingReview.getDescription())
+                .authorId(pendingReview.getAuthorId())
+                .acceptedAt(pendingReview.getAcceptedAt())
+                .error(error == null || error.length() <= 1000 ? error : error.substring(0, 1000))
+                .failedAt(Instant.now())
+                .build();
+    }
+}
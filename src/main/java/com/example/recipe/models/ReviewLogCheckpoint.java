@@ -0,0 +1,25 @@
+package com.example.recipe.models;
+
+import lombok.*;
+
+import javax.persistence.*;
+
+//how far one node's review ingest log has been applied. It is written in the same transaction as the reviews it
+//covers, so after a crash replay resumes exactly behind the last review that made it into the database.
+@Entity
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+@Table(name = "review_log_checkpoint")
+public class ReviewLogCheckpoint {
+
+    @Id
+    private String nodeId;
+
+    @Column(nullable = false)
+    private long segment;
+
+    @Column(nullable = false)
+    private int position;
+}
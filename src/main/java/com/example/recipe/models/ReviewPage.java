@@ -0,0 +1,17 @@
+package com.example.recipe.models;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.util.List;
+
+//one page of reviews, read straight from the review table
+@Getter
+@AllArgsConstructor
+public class ReviewPage<T> {
+
+    private List<T> reviews;
+
+    //position of the last review on this page, passed back as after to get the next one. Null on the last page
+    private String nextCursor;
+}
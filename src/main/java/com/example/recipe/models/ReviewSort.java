@@ -0,0 +1,29 @@
+package com.example.recipe.models;
+
+//orders a recipe's reviews can be paged in. Both end with the id, so every review has a unique position for a cursor
+public enum ReviewSort {
+
+    //highest id first. Ids come from a sequence, so this is the order the reviews were written in
+    NEWEST("newest"),
+    //highest rating first, newest first within a rating
+    RATING("rating");
+
+    private final String sortName;
+
+    ReviewSort(String sortName) {
+        this.sortName = sortName;
+    }
+
+    public String getSortName() {
+        return sortName;
+    }
+
+    public static ReviewSort fromName(String sortName) {
+        for (ReviewSort sort : values()) {
+            if (sort.sortName.equalsIgnoreCase(sortName)) {
+                return sort;
+            }
+        }
+        throw new IllegalArgumentException("Unknown review sort " + sortName + ", use newest or rating.");
+    }
+}
@@ -0,0 +1,22 @@
+package com.example.recipe.models;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+
+import java.io.Serializable;
+
+//a review without its description and author, selected directly by the summary queries in ReviewRepo
+@Getter
+@NoArgsConstructor
+@AllArgsConstructor
+public class ReviewSummary implements Serializable {
+
+    private Long id;
+
+    private Long recipeId;
+
+    private String username;
+
+    private int rating;
+}
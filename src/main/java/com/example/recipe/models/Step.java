@@ -4,6 +4,7 @@ package com.example.recipe.models;
 import lombok.*;
 import javax.persistence.*;
 import javax.validation.constraints.NotNull;
+import java.io.Serializable;
 
 @Entity
 @Getter
@@ -11,10 +12,11 @@ import javax.validation.constraints.NotNull;
 @Builder
 @NoArgsConstructor
 @AllArgsConstructor
-public class Step {
+public class Step implements Serializable {
 
     @Id
-    @GeneratedValue
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "step_id")
+    @SequenceGenerator(name = "step_id", sequenceName = "hibernate_sequence", allocationSize = 50)
     private long id;
 
     @NotNull
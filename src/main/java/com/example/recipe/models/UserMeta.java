@@ -3,6 +3,7 @@ package com.example.recipe.models;
 import lombok.*;
 
 import javax.persistence.*;
+import java.io.Serializable;
 
 @Entity
 @Getter
@@ -11,7 +12,7 @@ import javax.persistence.*;
 @NoArgsConstructor
 @Builder
 @Table(name = "user_meta")
-public class UserMeta {
+public class UserMeta implements Serializable {
 
     @Id
     @GeneratedValue(strategy = GenerationType.IDENTITY)
@@ -0,0 +1,23 @@
+package com.example.recipe.repositories;
+
+import com.example.recipe.models.PendingReview;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.util.List;
+import java.util.Optional;
+
+@Repository
+public interface PendingReviewRepo extends JpaRepository<PendingReview, Long> {
+
+    //locks the oldest pending reviews no other worker holds, workers on other nodes skip them and take the next ones.
+    //Run it at READ COMMITTED: at REPEATABLE READ the scan also locks the gap after the last row, and with that every
+    //insert of a new pending review would wait for the batch to commit
+    @Query(value = "select * from review_outbox order by id limit :limit for update skip locked", nativeQuery = true)
+    List<PendingReview> claimOldest(@Param("limit") int limit);
+
+    @Query(value = "select * from review_outbox where id = :id for update skip locked", nativeQuery = true)
+    Optional<PendingReview> claimById(@Param("id") Long id);
+}
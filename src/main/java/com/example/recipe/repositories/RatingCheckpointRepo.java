@@ -0,0 +1,9 @@
+package com.example.recipe.repositories;
+
+import com.example.recipe.models.RatingCheckpoint;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+
+@Repository
+public interface RatingCheckpointRepo extends JpaRepository<RatingCheckpoint, String> {
+}
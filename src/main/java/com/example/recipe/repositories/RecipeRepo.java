@@ -1,17 +1,113 @@
 package com.example.recipe.repositories;
 
 import com.example.recipe.models.Recipe;
+import com.example.recipe.models.RecipeSummary;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.jpa.repository.EntityGraph;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
 
 @Repository
 public interface RecipeRepo extends JpaRepository<Recipe, Long> {
 
     ArrayList<Recipe> findByNameContaining(String name);
 
+    //rating searches: the candidates come from RecipeSearchIndex, the database keeps the ones rated high enough
+    @EntityGraph(Recipe.AUTHOR_GRAPH)
+    List<Recipe> findByIdInAndAverageReviewScoreGreaterThanEqual(Collection<Long> ids, Long rating, Pageable pageable);
 
+    //keyset paging walks the primary key index, so the cost does not grow with how deep the page is
+    @EntityGraph(Recipe.AUTHOR_GRAPH)
+    List<Recipe> findByIdGreaterThanOrderByIdAsc(Long id, Pageable pageable);
 
-//    ArrayList<Recipe> findByNameContainingAndAverageReviewScoreGreaterThan(String name, Long rating);
+    @EntityGraph(Recipe.AUTHOR_GRAPH)
+    Slice<Recipe> findAllBy(Pageable pageable);
 
-}
\ No newline at end of file
+    @EntityGraph(Recipe.AUTHOR_GRAPH)
+    List<Recipe> findByIdIn(Collection<Long> ids);
+
+    //summary queries select five columns into RecipeSummary and never touch the author or any collection
+    String SUMMARY_SELECT = "select new com.example.recipe.models.RecipeSummary(" +
+            "r.id, r.name, r.minutesToMake, r.difficultyRating, r.averageReviewScore) from Recipe r ";
+
+    @Query(SUMMARY_SELECT + "where r.id > :id order by r.id")
+    List<RecipeSummary> findSummariesByIdGreaterThan(@Param("id") Long id, Pageable pageable);
+
+    @Query(SUMMARY_SELECT)
+    Slice<RecipeSummary> findAllSummaries(Pageable pageable);
+
+    @Query(SUMMARY_SELECT + "where r.id in :ids")
+    List<RecipeSummary> findSummariesByIdIn(@Param("ids") Collection<Long> ids);
+
+    @Query(SUMMARY_SELECT + "where r.id in :ids and r.averageReviewScore >= :rating")
+    List<RecipeSummary> findSummariesByIdInAndAverageReviewScoreGreaterThanEqual(
+            @Param("ids") Collection<Long> ids, @Param("rating") Long rating, Pageable pageable);
+
+    //an entry of idx_recipe_rating_name, which rating searches with many candidates walk
+    interface RatingIndexEntry {
+        Long getId();
+
+        String getName();
+    }
+
+    //the best score of at least rating and below below, null if there is none. Read off the index without a scan
+    @Query("select max(r.averageReviewScore) from Recipe r " +
+            "where r.averageReviewScore >= :rating and r.averageReviewScore < :below")
+    Long findMaxAverageReviewScoreBetween(@Param("rating") Long rating, @Param("below") Long below);
+
+    //the recipes with one score in name, id order after the keyset cursor. The name >= condition keeps this a range
+    //of the index, the or only filters within it
+    @Query("select r.id as id, r.name as name from Recipe r where r.averageReviewScore = :score " +
+            "and r.name >= :name and (r.name > :name or r.id > :id) order by r.name, r.id")
+    List<RatingIndexEntry> findRatingIndexEntries(@Param("score") Long score, @Param("name") String name,
+                                                  @Param("id") Long id, Pageable pageable);
+
+    //review count and rating sum only, what the leaderboards score recipes by
+    interface ReviewAggregates {
+        Long getId();
+
+        long getReviewCount();
+
+        long getRatingSum();
+    }
+
+    @Query("select r.id as id, r.reviewCount as reviewCount, r.ratingSum as ratingSum from Recipe r where r.id = :id")
+    Optional<ReviewAggregates> findReviewAggregatesById(@Param("id") Long id);
+
+    @Query("select r.id as id, r.reviewCount as reviewCount, r.ratingSum as ratingSum from Recipe r " +
+            "where r.id > :id and r.reviewCount > 0 order by r.id")
+    List<ReviewAggregates> findReviewAggregatesByIdGreaterThan(@Param("id") Long id, Pageable pageable);
+
+    //recipes with reviews but no counted ones, the rows the aggregate columns were added to with 0s
+    @Query("select distinct v.recipeId from Review v where v.recipeId in " +
+            "(select r.id from Recipe r where r.reviewCount = 0) order by v.recipeId")
+    List<Long> findIdsWithUncountedReviews();
+
+    //locks the recipe rows in id order until the transaction ends, used by ReviewAggregateRecounter
+    @Query(value = "select id as id, review_count as reviewCount, rating_sum as ratingSum from recipe " +
+            "where id in :ids order by id for update", nativeQuery = true)
+    List<ReviewAggregates> lockReviewAggregatesByIdIn(@Param("ids") Collection<Long> ids);
+
+    //reads only the author's foreign key, used for permission checks
+    @Query("select r.author.id from Recipe r where r.id = :id")
+    Optional<Long> findAuthorIdById(@Param("id") Long id);
+
+    //the average is assigned first so it is computed from the old values on MySQL, which evaluates SET left to right
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("update Recipe r set " +
+            "r.averageReviewScore = case when r.reviewCount + :countDelta > 0 " +
+            "then floor((r.ratingSum + :ratingDelta) / (r.reviewCount + :countDelta)) else 0 end, " +
+            "r.reviewCount = r.reviewCount + :countDelta, " +
+            "r.ratingSum = r.ratingSum + :ratingDelta " +
+            "where r.id = :id")
+    int applyReviewDelta(@Param("id") Long id, @Param("countDelta") long countDelta, @Param("ratingDelta") long ratingDelta);
+
+}
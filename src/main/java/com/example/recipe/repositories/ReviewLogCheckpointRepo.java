@@ -0,0 +1,9 @@
+package com.example.recipe.repositories;
+
+import com.example.recipe.models.ReviewLogCheckpoint;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+
+@Repository
+public interface ReviewLogCheckpointRepo extends JpaRepository<ReviewLogCheckpoint, String> {
+}
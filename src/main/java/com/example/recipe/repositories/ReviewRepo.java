@@ -1,12 +1,59 @@
 package com.example.recipe.repositories;
 
 import com.example.recipe.models.Review;
+import com.example.recipe.models.ReviewSummary;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
-import java.util.ArrayList;
+
+import javax.persistence.LockModeType;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
 
 @Repository
 public interface ReviewRepo extends JpaRepository<Review, Long> {
 
-    ArrayList<Review> findByUsername(String username);
+    String SUMMARY_SELECT = "select new com.example.recipe.models.ReviewSummary(" +
+            "r.id, r.recipeId, r.username, r.rating) from Review r ";
+
+    //keyset pages of one user's reviews, newest first, read from idx_review_username
+    List<Review> findByUsernameOrderByIdDesc(String username, Pageable pageable);
+
+    List<Review> findByUsernameAndIdLessThanOrderByIdDesc(String username, Long id, Pageable pageable);
+
+    //summary queries select four columns into ReviewSummary, the author is not joined
+    @Query(SUMMARY_SELECT + "where r.username = :username and r.id < :id order by r.id desc")
+    List<ReviewSummary> findSummariesByUsernameAndIdLessThan(@Param("username") String username, @Param("id") Long id,
+                                                             Pageable pageable);
+
+    //keyset pages of one recipe's reviews. Each query reads one of the recipeId indexes on Review from the cursor on
+    List<Review> findByRecipeIdOrderByIdDesc(Long recipeId, Pageable pageable);
+
+    List<Review> findByRecipeIdAndIdLessThanOrderByIdDesc(Long recipeId, Long id, Pageable pageable);
+
+    List<Review> findByRecipeIdOrderByRatingDescIdDesc(Long recipeId, Pageable pageable);
+
+    @Query("select r from Review r where r.recipeId = :recipeId " +
+            "and (r.rating < :rating or (r.rating = :rating and r.id < :id)) order by r.rating desc, r.id desc")
+    List<Review> findByRecipeIdAfterRating(@Param("recipeId") Long recipeId, @Param("rating") int rating,
+                                           @Param("id") Long id, Pageable pageable);
+
+    //locks the review row until the transaction ends, so concurrent edits of one review compute their rating change
+    //from each other's result instead of from the same old rating
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("select r from Review r where r.id = :id")
+    Optional<Review> findByIdForUpdate(@Param("id") Long id);
+
+    //the review count and rating sum of each recipe that has reviews, counted from the reviews themselves
+    @Query("select r.recipeId as id, count(r) as reviewCount, sum(r.rating) as ratingSum from Review r " +
+            "where r.recipeId in :recipeIds group by r.recipeId")
+    List<RecipeRepo.ReviewAggregates> countReviewAggregatesByRecipeIdIn(@Param("recipeIds") Collection<Long> recipeIds);
+
+    //reads only the author's foreign key, used for permission checks
+    @Query("select r.author.id from Review r where r.id = :id")
+    Optional<Long> findAuthorIdById(@Param("id") Long id);
 }
\ No newline at end of file
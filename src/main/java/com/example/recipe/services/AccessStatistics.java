@@ -0,0 +1,188 @@
+package com.example.recipe.services;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.RedisZSetCommands;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+
+//tracks the most requested recipe ids and search terms so CacheWarmer knows what to preload after a restart.
+//Accesses are counted in process with a count-min sketch, and only the heaviest keys are kept as candidates.
+//Every flush adds the candidates' counts to a sorted set in Redis that all nodes share, after decaying the older
+//scores, so the sets follow what is hot now and survive deploys.
+@Component
+public class AccessStatistics {
+
+    public static final String RECIPE_IDS_KEY = "recipe:warmup:recipe-ids";
+    public static final String SEARCH_TERMS_KEY = "recipe:warmup:search-terms";
+
+    private static final Logger log = LoggerFactory.getLogger(AccessStatistics.class);
+    private static final int SKETCH_DEPTH = 4;
+    private static final int SKETCH_WIDTH = 4096;
+
+    @Autowired
+    StringRedisTemplate redisTemplate;
+
+    private final boolean enabled;
+    private final int candidates;
+    private final double decay;
+    private final Duration retention;
+    private final AtomicReference<TopKeys> recipeIds;
+    private final AtomicReference<TopKeys> searchTerms;
+
+    public AccessStatistics(@Value("${recipe.cache.warmup.enabled:true}") boolean enabled,
+                            @Value("${recipe.cache.warmup.candidates:1000}") int candidates,
+                            @Value("${recipe.cache.warmup.decay:0.8}") double decay,
+                            @Value("${recipe.cache.warmup.retention:7d}") Duration retention) {
+        this.enabled = enabled;
+        this.candidates = candidates;
+        this.decay = decay;
+        this.retention = retention;
+        this.recipeIds = new AtomicReference<>(new TopKeys(candidates));
+        this.searchTerms = new AtomicReference<>(new TopKeys(candidates));
+    }
+
+    public void recordRecipe(Long id) {
+        if (enabled && id != null) {
+            recipeIds.get().record(String.valueOf(id));
+        }
+    }
+
+    //terms are stored normalized like the search cache keys, so "Pasta" and "pasta " warm up the one entry both use
+    public void recordSearch(String name) {
+        if (enabled && name != null && !name.isBlank()) {
+            searchTerms.get().record(RecipeSearchIndex.normalize(name));
+        }
+    }
+
+    public List<Long> topRecipeIds(int limit) {
+        List<Long> ids = new ArrayList<>();
+        for (String id : top(RECIPE_IDS_KEY, limit)) {
+            try {
+                ids.add(Long.valueOf(id));
+            } catch (NumberFormatException e) {
+                //not written by this class, skip it
+            }
+        }
+        return ids;
+    }
+
+    public List<String> topSearchTerms(int limit) {
+        return top(SEARCH_TERMS_KEY, limit);
+    }
+
+    @Scheduled(fixedDelayString = "${recipe.cache.warmup.flush-interval:60000}")
+    public void flush() {
+        if (!enabled) {
+            return;
+        }
+        //new accesses go to a fresh window while the finished one is written out
+        flush(RECIPE_IDS_KEY, recipeIds.getAndSet(new TopKeys(candidates)));
+        flush(SEARCH_TERMS_KEY, searchTerms.getAndSet(new TopKeys(candidates)));
+    }
+
+    //counts since the last flush would otherwise be lost on every deploy
+    @PreDestroy
+    public void flushOnShutdown() {
+        flush();
+    }
+
+    private void flush(String key, TopKeys window) {
+        Map<String, Long> counts = window.counts();
+        if (counts.isEmpty()) {
+            return;
+        }
+        byte[] rawKey = key.getBytes(StandardCharsets.UTF_8);
+        try {
+            redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                decayAndIncrement(connection, rawKey, counts);
+                return null;
+            });
+        } catch (RuntimeException e) {
+            //the statistics only make warm-up better, losing one window is fine
+            log.warn("Could not store access statistics in {}: {}", key, e.getMessage());
+        }
+    }
+
+    private void decayAndIncrement(RedisConnection connection, byte[] rawKey, Map<String, Long> counts) {
+        if (decay < 1) {
+            //ZUNIONSTORE of the set onto itself with one weight multiplies every score by it
+            connection.zSetCommands().zUnionStore(rawKey, RedisZSetCommands.Aggregate.SUM,
+                    RedisZSetCommands.Weights.of(decay), rawKey);
+        }
+        for (Map.Entry<String, Long> count : counts.entrySet()) {
+            connection.zSetCommands().zIncrBy(rawKey, count.getValue(), count.getKey().getBytes(StandardCharsets.UTF_8));
+        }
+        //keep only the heaviest keys, the ones below them are never warmed up anyway
+        connection.zSetCommands().zRemRange(rawKey, 0, -(candidates + 1L));
+        connection.keyCommands().expire(rawKey, retention.getSeconds());
+    }
+
+    private List<String> top(String key, int limit) {
+        if (!enabled || limit <= 0) {
+            return List.of();
+        }
+        try {
+            Set<String> top = redisTemplate.opsForZSet().reverseRange(key, 0, limit - 1L);
+            return top == null ? List.of() : new ArrayList<>(top);
+        } catch (RuntimeException e) {
+            log.warn("Could not read access statistics from {}: {}", key, e.getMessage());
+            return List.of();
+        }
+    }
+
+    //the accesses of one flush window: a sketch over every key and the exact estimates of the heaviest ones.
+    //A key that is not a candidate yet replaces the lightest candidate once its estimate is above it.
+    static class TopKeys {
+
+        private final CountMinSketch sketch = new CountMinSketch(SKETCH_DEPTH, SKETCH_WIDTH);
+        private final Map<String, Long> candidates = new ConcurrentHashMap<>();
+        private final int capacity;
+        private volatile long admissionThreshold;
+
+        TopKeys(int capacity) {
+            this.capacity = capacity;
+        }
+
+        void record(String key) {
+            long estimate = sketch.add(key);
+            if (candidates.containsKey(key) || candidates.size() < capacity) {
+                candidates.put(key, estimate);
+            } else if (estimate > admissionThreshold) {
+                admit(key, estimate);
+            }
+        }
+
+        private synchronized void admit(String key, long estimate) {
+            Map.Entry<String, Long> lightest = null;
+            for (Map.Entry<String, Long> candidate : candidates.entrySet()) {
+                if (lightest == null || candidate.getValue() < lightest.getValue()) {
+                    lightest = candidate;
+                }
+            }
+            if (lightest != null && lightest.getValue() < estimate) {
+                candidates.remove(lightest.getKey());
+                candidates.put(key, estimate);
+                admissionThreshold = lightest.getValue();
+            } else if (lightest != null) {
+                admissionThreshold = lightest.getValue();
+            }
+        }
+
+        Map<String, Long> counts() {
+            return new HashMap<>(candidates);
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package com.example.recipe.services;
+
+import com.example.recipe.models.CacheWarmupResult;
+import com.example.recipe.models.RecipeFetchPlan;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+
+//preloads the recipes and searches AccessStatistics saw most often, so a freshly started node does not send all
+//of its first requests to MySQL. Loads go through RecipeService, which fills the caches like any other request.
+@Component
+public class CacheWarmer {
+
+    private static final Logger log = LoggerFactory.getLogger(CacheWarmer.class);
+
+    @Autowired
+    RecipeService recipeService;
+
+    @Autowired
+    AccessStatistics accessStatistics;
+
+    private final boolean onStartup;
+    private final int recipeLimit;
+    private final int searchLimit;
+    private final int concurrency;
+    private final Duration budget;
+
+    public CacheWarmer(@Value("${recipe.cache.warmup.on-startup:true}") boolean onStartup,
+                       @Value("${recipe.cache.warmup.recipes:500}") int recipeLimit,
+                       @Value("${recipe.cache.warmup.searches:100}") int searchLimit,
+                       @Value("${recipe.cache.warmup.concurrency:8}") int concurrency,
+                       @Value("${recipe.cache.warmup.budget:30s}") Duration budget) {
+        this.onStartup = onStartup;
+        this.recipeLimit = recipeLimit;
+        this.searchLimit = searchLimit;
+        this.concurrency = concurrency;
+        this.budget = budget;
+    }
+
+    //runs after the search index is built. The node only reports ready for traffic once every ApplicationReadyEvent
+    //listener has returned, so the warm-up happens before the load balancer sends requests here
+    @EventListener(ApplicationReadyEvent.class)
+    @Order(Ordered.LOWEST_PRECEDENCE)
+    public void warmUpOnStartup() {
+        if (!onStartup) {
+            return;
+        }
+        CacheWarmupResult result = warmUp();
+        log.info("Cache warm-up loaded {} recipes and {} searches in {} ms, {} failed, {} skipped",
+                result.getRecipesWarmed(), result.getSearchesWarmed(), result.getElapsedMillis(),
+                result.getFailed(), result.getSkipped());
+    }
+
+    //hottest keys first, at most concurrency loads at a time. Whatever has not finished when the budget runs out is
+    //cancelled and left to the first request that needs it
+    public CacheWarmupResult warmUp() {
+        long started = System.nanoTime();
+        List<Callable<Boolean>> loads = new ArrayList<>();
+        for (Long id : accessStatistics.topRecipeIds(recipeLimit)) {
+            loads.add(() -> {
+                recipeService.getRecipeById(id);
+                return true;
+            });
+        }
+        //the first page with the default size and fetch plan, which is what GET /recipes/search/{name} asks for
+        for (String term : accessStatistics.topSearchTerms(searchLimit)) {
+            loads.add(() -> {
+                recipeService.getRecipesByName(term, 0, RecipeService.DEFAULT_PAGE_SIZE, RecipeFetchPlan.WITH_REVIEWS);
+                return false;
+            });
+        }
+
+        int recipesWarmed = 0;
+        int searchesWarmed = 0;
+        int failed = 0;
+        int skipped = 0;
+        if (!loads.isEmpty()) {
+            CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("cache-warmup-");
+            threadFactory.setDaemon(true);
+            ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, concurrency), threadFactory);
+            try {
+                for (Future<Boolean> load : executor.invokeAll(loads, budget.toMillis(), TimeUnit.MILLISECONDS)) {
+                    if (load.isCancelled()) {
+                        skipped++;
+                        continue;
+                    }
+                    try {
+                        if (load.get()) {
+                            recipesWarmed++;
+                        } else {
+                            searchesWarmed++;
+                        }
+                    } catch (ExecutionException e) {
+                        //usually a recipe deleted since it was counted
+                        failed++;
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                executor.shutdownNow();
+            }
+        }
+        return new CacheWarmupResult(recipesWarmed, searchesWarmed, failed, skipped,
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started));
+    }
+}
@@ -0,0 +1,329 @@
+package com.example.recipe.services;
+
+import com.example.recipe.config.CacheNames;
+import com.example.recipe.models.RatingCheckpoint;
+import com.example.recipe.repositories.RatingCheckpointRepo;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+//buffers review count and rating sum changes instead of updating the recipe row on every review, so a hot recipe's
+//row lock is taken once per flush rather than once per review. Off by default: with it on, the aggregates a recipe
+//shows lag its reviews by up to one flush interval.
+//
+//each change is appended to a local RatingDeltaLog before its transaction commits, and added to the recipe's counters
+//once the transaction committed. A flush starts a new log segment, adds up every recipe's counters in one batched
+//UPDATE of increments and records the closed segment in rating_checkpoint in the same transaction.
+//
+//deltas cannot be trusted where a commit's outcome is unknown: a transaction that completed with STATUS_UNKNOWN, a
+//flush that failed, and on startup the segments after the checkpoint. Those recipes are recounted from their
+//reviews instead, see ReviewAggregateRecounter, so a crash loses no change and counts none twice. Each node needs
+//its own log directory.
+@Component
+public class RatingAccumulator {
+
+    private static final Logger log = LoggerFactory.getLogger(RatingAccumulator.class);
+
+    //the average is assigned first so it is computed from the old values on MySQL, like RecipeRepo.applyReviewDelta
+    private static final String APPLY_DELTAS = "update recipe set " +
+            "average_review_score = case when review_count + ? > 0 " +
+            "then floor((rating_sum + ?) / (review_count + ?)) else 0 end, " +
+            "review_count = review_count + ?, rating_sum = rating_sum + ? where id = ?";
+
+    @Autowired
+    JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    ReviewAggregateRecounter reviewAggregateRecounter;
+
+    @Autowired
+    RatingCheckpointRepo ratingCheckpointRepo;
+
+    @Autowired
+    CacheManager cacheManager;
+
+    @Autowired
+    RecipeLeaderboard recipeLeaderboard;
+
+    private final boolean enabled;
+    private final Path logDirectory;
+    private final boolean logSync;
+    private final TransactionTemplate transactionTemplate;
+
+    //committed changes not applied yet, per recipe. LongAdders, so commits for the same hot recipe do not contend
+    private Map<Long, Delta> deltas = new ConcurrentHashMap<>();
+    //recipes with a change whose commit outcome is unknown, recounted by the next flush
+    private Set<Long> uncertain = ConcurrentHashMap.newKeySet();
+    //a transaction holds the read lock from logging its change until it completed and added it to deltas or
+    //uncertain. A flush takes the write lock to cut the log and take both, so every change in the closed segment is
+    //in what it took. Both fields are only replaced under the write lock
+    private final ReadWriteLock cutLock = new ReentrantReadWriteLock();
+    private RatingDeltaLog deltaLog;
+    private String nodeId;
+    //last closed segment not applied yet, after a failed flush or a restart
+    private long unappliedSegment = -1;
+
+    public RatingAccumulator(PlatformTransactionManager transactionManager,
+                             @Value("${recipe.reviews.rating-buffer.enabled:false}") boolean enabled,
+                             @Value("${recipe.reviews.rating-buffer.log-directory:data/rating-log}") String logDirectory,
+                             @Value("${recipe.reviews.rating-buffer.log-sync:true}") boolean logSync) {
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        //the recount has to see reviews committed after the recipe rows were locked
+        this.transactionTemplate.setIsolationLevel(TransactionDefinition.ISOLATION_READ_COMMITTED);
+        this.enabled = enabled;
+        this.logDirectory = Paths.get(logDirectory);
+        this.logSync = logSync;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    //whether the changes in segments after the checkpoint were applied is unknown, so their recipes are recounted.
+    //A failed recount does not stop startup, the next flush tries again
+    @PostConstruct
+    public void recover() throws IOException {
+        if (!enabled) {
+            return;
+        }
+        nodeId = readOrCreateNodeId();
+        long applied = ratingCheckpointRepo.findById(nodeId).map(RatingCheckpoint::getLastSegment).orElse(0L);
+        deltaLog = new RatingDeltaLog(logDirectory, logSync, applied);
+
+        long lastSegment = applied;
+        for (long segment : deltaLog.segments()) {
+            if (segment == deltaLog.currentSegment()) {
+                continue;
+            }
+            if (segment > applied) {
+                uncertain.addAll(deltaLog.read(segment).keySet());
+            }
+            lastSegment = Math.max(lastSegment, segment);
+        }
+        if (lastSegment > applied) {
+            log.info("Recounting the ratings of {} recipes logged in segments up to {}", uncertain.size(), lastSegment);
+            unappliedSegment = lastSegment;
+            flush();
+        } else {
+            deltaLog.deleteThrough(lastSegment);
+        }
+    }
+
+    //the change is logged right before the surrounding transaction commits, and only counted once it committed. A
+    //rolled back change is dropped, one with an unknown outcome is left to a recount
+    public void add(Long recipeId, long countDelta, long ratingDelta) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            cutLock.readLock().lock();
+            try {
+                append(recipeId, countDelta, ratingDelta);
+                deltas.computeIfAbsent(recipeId, id -> new Delta()).add(countDelta, ratingDelta);
+            } finally {
+                cutLock.readLock().unlock();
+            }
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            private boolean logged;
+
+            @Override
+            public void beforeCommit(boolean readOnly) {
+                cutLock.readLock().lock();
+                try {
+                    append(recipeId, countDelta, ratingDelta);
+                } catch (RuntimeException e) {
+                    cutLock.readLock().unlock();
+                    throw e;
+                }
+                logged = true;
+            }
+
+            @Override
+            public void afterCompletion(int status) {
+                if (!logged) {
+                    return;
+                }
+                try {
+                    if (status == STATUS_COMMITTED) {
+                        deltas.computeIfAbsent(recipeId, id -> new Delta()).add(countDelta, ratingDelta);
+                    } else if (status == STATUS_UNKNOWN) {
+                        uncertain.add(recipeId);
+                    }
+                } finally {
+                    cutLock.readLock().unlock();
+                }
+            }
+        });
+    }
+
+    @Scheduled(fixedDelayString = "${recipe.reviews.rating-buffer.flush-interval:200}")
+    public synchronized void flush() {
+        if (!enabled) {
+            return;
+        }
+        Map<Long, Delta> pending;
+        Set<Long> recount;
+        long closedSegment;
+        cutLock.writeLock().lock();
+        try {
+            if (deltaLog.isCurrentSegmentEmpty()) {
+                if (unappliedSegment < 0) {
+                    return;
+                }
+                closedSegment = unappliedSegment;
+            } else {
+                closedSegment = deltaLog.rotate();
+            }
+            pending = deltas;
+            recount = uncertain;
+            deltas = new ConcurrentHashMap<>();
+            uncertain = ConcurrentHashMap.newKeySet();
+            //a recount reads the reviews as they are when it runs. A change committing meanwhile would be counted by
+            //it and then added again by the next flush, so buffered changes wait until it is done. Recounts only
+            //follow an unknown outcome, the write lock is normally held just long enough to cut the log
+            if (!recount.isEmpty()) {
+                apply(closedSegment, pending, recount);
+                return;
+            }
+        } catch (IOException e) {
+            log.warn("Could not start a new rating delta log segment: {}", e.getMessage());
+            return;
+        } finally {
+            cutLock.writeLock().unlock();
+        }
+        apply(closedSegment, pending, recount);
+    }
+
+    @PreDestroy
+    public void shutdown() throws IOException {
+        if (!enabled) {
+            return;
+        }
+        flush();
+        deltaLog.close();
+    }
+
+    private void append(long recipeId, long countDelta, long ratingDelta) {
+        try {
+            deltaLog.append(recipeId, countDelta, ratingDelta);
+        } catch (IOException e) {
+            //failing before the commit keeps the review out of the database as well
+            throw new UncheckedIOException("Could not write the rating delta log", e);
+        }
+    }
+
+    //recounts the recipes in recount, adds up the pending deltas of every other recipe and checkpoints the closed
+    //segment, all in one transaction. A recounted recipe's pending deltas are already in its reviews, so they are
+    //dropped. Whether a transaction that failed committed is unknown, so its recipes are recounted next time rather
+    //than having their deltas added again
+    private void apply(long closedSegment, Map<Long, Delta> pending, Set<Long> recount) {
+        //updated in id order, so two flushes of overlapping recipes cannot deadlock
+        SortedMap<Long, Delta> increments = new TreeMap<>(pending);
+        increments.keySet().removeAll(recount);
+
+        Map<Long, long[]> changes;
+        try {
+            changes = transactionTemplate.execute(status -> {
+                Map<Long, long[]> applied = new HashMap<>();
+                if (!recount.isEmpty()) {
+                    applied.putAll(reviewAggregateRecounter.recount(recount));
+                }
+                List<Object[]> updates = new ArrayList<>(increments.size());
+                increments.forEach((recipeId, delta) -> {
+                    long countDelta = delta.count.sum();
+                    long ratingDelta = delta.rating.sum();
+                    if (countDelta != 0 || ratingDelta != 0) {
+                        updates.add(new Object[]{countDelta, ratingDelta, countDelta, countDelta, ratingDelta, recipeId});
+                        applied.put(recipeId, new long[]{countDelta, ratingDelta});
+                    }
+                });
+                if (!updates.isEmpty()) {
+                    jdbcTemplate.batchUpdate(APPLY_DELTAS, updates);
+                }
+                ratingCheckpointRepo.save(new RatingCheckpoint(nodeId, closedSegment));
+                return applied;
+            });
+        } catch (RuntimeException e) {
+            //the segments stay on disk, and the next flush recounts the recipes
+            uncertain.addAll(recount);
+            uncertain.addAll(pending.keySet());
+            unappliedSegment = closedSegment;
+            log.warn("Could not apply the rating changes of {} recipes: {}", recount.size() + increments.size(),
+                    e.getMessage());
+            return;
+        }
+        unappliedSegment = -1;
+        try {
+            deltaLog.deleteThrough(closedSegment);
+        } catch (IOException e) {
+            //already checkpointed, so they are skipped on replay and deleted then
+            log.warn("Could not delete applied rating delta log segments: {}", e.getMessage());
+        }
+        afterApply(changes);
+    }
+
+    //the same cache eviction RecipeService.applyReviewDelta does, now that the database has the new aggregates
+    private void afterApply(Map<Long, long[]> deltas) {
+        if (deltas.isEmpty()) {
+            return;
+        }
+        try {
+            Cache recipes = cacheManager.getCache(CacheNames.RECIPE);
+            for (Long recipeId : deltas.keySet()) {
+                if (recipes != null) {
+                    recipes.evict(recipeId);
+                }
+            }
+        } catch (RuntimeException e) {
+            log.warn("Could not evict recipes after a rating flush: {}", e.getMessage());
+        }
+        deltas.forEach((recipeId, delta) -> recipeLeaderboard.reviewsChanged(recipeId, delta[0], delta[1]));
+    }
+
+    //the node id names this log directory's row in rating_checkpoint, so it has to survive restarts
+    private String readOrCreateNodeId() throws IOException {
+        Files.createDirectories(logDirectory);
+        Path file = logDirectory.resolve("node-id");
+        if (Files.exists(file)) {
+            return Files.readString(file, StandardCharsets.UTF_8).trim();
+        }
+        String id = UUID.randomUUID().toString();
+        Files.writeString(file, id, StandardCharsets.UTF_8);
+        return id;
+    }
+
+    //a recipe's committed count and rating changes since the last flush
+    private static class Delta {
+        private final LongAdder count = new LongAdder();
+        private final LongAdder rating = new LongAdder();
+
+        private void add(long countDelta, long ratingDelta) {
+            count.add(countDelta);
+            rating.add(ratingDelta);
+        }
+    }
+}
@@ -0,0 +1,204 @@
+package com.example.recipe.services;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.*;
+import java.util.zip.CRC32;
+
+//append-only log of rating deltas on local disk, split into numbered segments rating-<sequence>.log.
+//A record is recipe id, count delta, rating delta and a CRC32 of the three. A torn write at the end of a segment
+//fails its checksum, and reading stops there. RatingAccumulator only reads a segment back to recover, and then only
+//needs the recipe ids, it recounts those recipes from their reviews; the deltas make a segment readable on its own.
+//
+//with sync on, appends are group committed like ReviewIngestLog's: the fsync runs outside the monitor, one writer
+//forces the segment for every record written so far and the writers arriving meanwhile wait for that sync or the next
+class RatingDeltaLog {
+
+    static final int RECORD_SIZE = 3 * Long.BYTES + Integer.BYTES;
+
+    private static final String PREFIX = "rating-";
+    private static final String SUFFIX = ".log";
+
+    private final Path directory;
+    private final boolean sync;
+    private final ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE);
+
+    //writer state, guarded by this
+    private FileChannel channel;
+    private long sequence;
+    private long segmentSize;
+    //records appended since the log was opened, across segments
+    private long written;
+
+    //group commit state, guarded by syncLock, counted in records like written
+    private final Object syncLock = new Object();
+    private boolean syncing;
+    private long synced;
+
+    //starts a new segment after every existing one and after the last segment already applied to the database
+    RatingDeltaLog(Path directory, boolean sync, long appliedSequence) throws IOException {
+        this.directory = directory;
+        this.sync = sync;
+        Files.createDirectories(directory);
+        long last = appliedSequence;
+        for (long existing : segments()) {
+            last = Math.max(last, existing);
+        }
+        open(last + 1);
+    }
+
+    //the delta is written when this returns, and fsynced when sync is on
+    void append(long recipeId, long countDelta, long ratingDelta) throws IOException {
+        long end;
+        synchronized (this) {
+            record.clear();
+            record.putLong(recipeId).putLong(countDelta).putLong(ratingDelta);
+            CRC32 crc = new CRC32();
+            crc.update(record.array(), 0, 3 * Long.BYTES);
+            record.putInt((int) crc.getValue());
+            record.flip();
+            while (record.hasRemaining()) {
+                channel.write(record);
+            }
+            segmentSize += RECORD_SIZE;
+            end = ++written;
+        }
+        if (sync) {
+            awaitSynced(end);
+        }
+    }
+
+    synchronized long currentSegment() {
+        return sequence;
+    }
+
+    synchronized boolean isCurrentSegmentEmpty() {
+        return segmentSize == 0;
+    }
+
+    //closes the current segment and starts the next one, returning the sequence of the closed segment
+    synchronized long rotate() throws IOException {
+        long closed = sequence;
+        channel.force(false);
+        markSynced(written);
+        channel.close();
+        open(closed + 1);
+        return closed;
+    }
+
+    //sequences of the segments on disk, oldest first
+    List<Long> segments() throws IOException {
+        List<Long> sequences = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, PREFIX + "*" + SUFFIX)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                try {
+                    sequences.add(Long.parseLong(name.substring(PREFIX.length(), name.length() - SUFFIX.length())));
+                } catch (NumberFormatException e) {
+                    //not a segment
+                }
+            }
+        }
+        Collections.sort(sequences);
+        return sequences;
+    }
+
+    //adds up the deltas per recipe in one closed segment, [count, rating] per recipe id
+    Map<Long, long[]> read(long segment) throws IOException {
+        Map<Long, long[]> deltas = new HashMap<>();
+        ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(segmentPath(segment)));
+        while (buffer.remaining() >= RECORD_SIZE) {
+            long recipeId = buffer.getLong();
+            long countDelta = buffer.getLong();
+            long ratingDelta = buffer.getLong();
+            int checksum = buffer.getInt();
+            CRC32 crc = new CRC32();
+            crc.update(buffer.array(), buffer.position() - RECORD_SIZE, 3 * Long.BYTES);
+            if ((int) crc.getValue() != checksum) {
+                break;
+            }
+            long[] delta = deltas.computeIfAbsent(recipeId, id -> new long[2]);
+            delta[0] += countDelta;
+            delta[1] += ratingDelta;
+        }
+        return deltas;
+    }
+
+    //deletes every closed segment up to and including the given sequence
+    synchronized void deleteThrough(long segment) throws IOException {
+        for (long existing : segments()) {
+            if (existing <= segment && existing != sequence) {
+                Files.deleteIfExists(segmentPath(existing));
+            }
+        }
+    }
+
+    synchronized void close() throws IOException {
+        channel.force(false);
+        markSynced(written);
+        channel.close();
+    }
+
+    private void awaitSynced(long end) throws IOException {
+        synchronized (syncLock) {
+            while (synced < end) {
+                if (!syncing) {
+                    syncing = true;
+                    break;
+                }
+                try {
+                    syncLock.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while waiting for the rating delta log to sync");
+                }
+            }
+            if (synced >= end) {
+                return;
+            }
+        }
+
+        //this writer leads the sync, for its own record and everything written before the force starts
+        FileChannel toForce;
+        long target;
+        synchronized (this) {
+            toForce = channel;
+            target = written;
+        }
+        try {
+            try {
+                toForce.force(false);
+            } catch (ClosedChannelException e) {
+                //rotate() or close() forced the segment before closing it, and marked everything in it synced
+            }
+            markSynced(target);
+        } finally {
+            synchronized (syncLock) {
+                syncing = false;
+                syncLock.notifyAll();
+            }
+        }
+    }
+
+    private void markSynced(long records) {
+        synchronized (syncLock) {
+            synced = Math.max(synced, records);
+            syncLock.notifyAll();
+        }
+    }
+
+    private void open(long newSequence) throws IOException {
+        sequence = newSequence;
+        channel = FileChannel.open(segmentPath(newSequence),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        segmentSize = channel.size();
+    }
+
+    private Path segmentPath(long segment) {
+        return directory.resolve(PREFIX + segment + SUFFIX);
+    }
+}
@@ -0,0 +1,115 @@
+package com.example.recipe.services;
+
+import com.example.recipe.config.CacheNames;
+import com.example.recipe.config.RecipeCacheCodec;
+import com.example.recipe.config.TwoTierCache;
+import com.example.recipe.exceptions.NoSuchReviewException;
+import com.example.recipe.models.Recipe;
+import com.example.recipe.models.RecipeFetchPlan;
+import com.example.recipe.models.Review;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
+import org.springframework.data.redis.connection.ReactiveRedisConnectionFactory;
+import org.springframework.data.redis.core.ReactiveRedisTemplate;
+import org.springframework.data.redis.serializer.RedisSerializationContext;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+
+//non-blocking reads over the same caches RecipeService fills. A read is answered from the in-process tier, then
+//from Redis through the reactive client, and only a miss falls through to RecipeService on the bounded elastic
+//scheduler. That load goes through @Cacheable as usual, so both read paths see the same entries and evictions.
+@Service
+public class ReactiveRecipeReader {
+
+    private static final Logger log = LoggerFactory.getLogger(ReactiveRecipeReader.class);
+
+    @Autowired
+    RecipeService recipeService;
+
+    @Autowired
+    CacheManager cacheManager;
+
+    @Autowired
+    RecipeCacheCodec recipeCacheCodec;
+
+    //null when Redis is used through Jedis, which has no reactive client. Misses then go straight to RecipeService.
+    private final ReactiveRedisTemplate<String, byte[]> redisTemplate;
+
+    public ReactiveRecipeReader(ObjectProvider<ReactiveRedisConnectionFactory> connectionFactory) {
+        ReactiveRedisConnectionFactory factory = connectionFactory.getIfAvailable();
+        if (factory == null) {
+            //not an error, /reactive still answers, but every miss in the near cache now costs a blocking load
+            log.warn("No reactive Redis connection factory (spring.redis.client-type=jedis?): /reactive reads skip Redis " +
+                    "and load every near cache miss from the database on the bounded elastic scheduler");
+        }
+        this.redisTemplate = factory == null ? null : new ReactiveRedisTemplate<>(factory,
+                RedisSerializationContext.<String, byte[]>newSerializationContext(RedisSerializer.string())
+                        .value(RedisSerializer.byteArray())
+                        .build());
+    }
+
+    public Mono<Recipe> getRecipeById(Long id) {
+        return cached(CacheNames.RECIPE, String.valueOf(id), Recipe.class, () -> recipeService.getRecipeById(id));
+    }
+
+    //same key as RecipeService.getRecipesByName, so cached results are shared
+    @SuppressWarnings("unchecked")
+    public Flux<Recipe> getRecipesByName(String name, int page, int size) {
+        String key = RecipeSearchIndex.normalize(name) + ":" + page + ":" + size + ":" + RecipeFetchPlan.WITH_REVIEWS;
+        return cached(CacheNames.RECIPE_SEARCH, key, List.class,
+                () -> recipeService.getRecipesByName(name, page, size, RecipeFetchPlan.WITH_REVIEWS))
+                .flatMapIterable(recipes -> (List<Recipe>) recipes);
+    }
+
+    public Flux<Review> getReviewsByRecipeId(Long recipeId) {
+        return getRecipeById(recipeId).flatMapMany(recipe -> {
+            if (recipe.getReviews() == null || recipe.getReviews().isEmpty()) {
+                return Flux.error(new NoSuchReviewException("There are no reviews for this recipe."));
+            }
+            return Flux.fromIterable(recipe.getReviews());
+        });
+    }
+
+    private <T> Mono<T> cached(String cacheName, String key, Class<T> type, Callable<T> loader) {
+        Mono<T> load = Mono.fromCallable(loader).subscribeOn(Schedulers.boundedElastic());
+
+        TwoTierCache twoTierCache = TwoTierCache.of(cacheManager.getCache(cacheName));
+        long generation = 0;
+        if (twoTierCache != null) {
+            Cache.ValueWrapper near = twoTierCache.getLocal(key);
+            if (near != null && type.isInstance(near.get())) {
+                return Mono.just(type.cast(near.get()));
+            }
+            generation = twoTierCache.localGeneration(key);
+        }
+        if (redisTemplate == null) {
+            return load;
+        }
+        //the generation is read before Redis is, so a value an eviction overtook is not copied into the near cache
+        long readGeneration = generation;
+
+        //RedisCache keys are the region name, "::" and the key. Cached nulls and unreadable entries count as misses.
+        return redisTemplate.opsForValue().get(cacheName + "::" + key)
+                .mapNotNull(recipeCacheCodec::deserialize)
+                .filter(type::isInstance)
+                .map(type::cast)
+                .doOnNext(value -> {
+                    if (twoTierCache != null) {
+                        twoTierCache.fillLocal(key, value, readGeneration);
+                    }
+                })
+                //a Redis outage turns into a load through RecipeService, like on the blocking path
+                .onErrorResume(e -> Mono.empty())
+                .switchIfEmpty(load);
+    }
+}
@@ -0,0 +1,84 @@
+package com.example.recipe.services;
+
+import com.example.recipe.models.Recipe;
+import com.example.recipe.models.RecipeFetchPlan;
+import com.example.recipe.repositories.RecipeRepo;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SequenceWriter;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+
+//writes every recipe as one JSON document per line (NDJSON). Recipes are read in keyset batches, each in its own
+//short read only transaction, so the export runs in constant memory and never holds locks for its whole length.
+//the export is not a snapshot: a recipe changed while the export runs may appear either way.
+@Service
+public class RecipeExportService {
+
+    @Autowired
+    RecipeRepo recipeRepo;
+
+    @Autowired
+    RecipeService recipeService;
+
+    @Autowired
+    ObjectMapper objectMapper;
+
+    @PersistenceContext
+    EntityManager entityManager;
+
+    private final TransactionTemplate readOnlyTransaction;
+    private final int batchSize;
+
+    public RecipeExportService(PlatformTransactionManager transactionManager,
+                               @Value("${recipe.export.batch-size:500}") int batchSize) {
+        this.readOnlyTransaction = new TransactionTemplate(transactionManager);
+        this.readOnlyTransaction.setReadOnly(true);
+        this.batchSize = batchSize;
+    }
+
+    public long exportRecipes(OutputStream out, RecipeFetchPlan fetchPlan) throws IOException {
+        long exported = 0;
+        long lastId = 0;
+        //the caller owns the stream, the writer must not close it
+        try (SequenceWriter writer = objectMapper.writer()
+                .without(JsonGenerator.Feature.AUTO_CLOSE_TARGET)
+                .withRootValueSeparator("\n")
+                .writeValues(out)) {
+            List<Recipe> batch;
+            do {
+                long after = lastId;
+                batch = readOnlyTransaction.execute(status -> loadBatch(after, fetchPlan));
+                for (Recipe recipe : batch) {
+                    writer.write(recipe);
+                    lastId = recipe.getId();
+                }
+                exported += batch.size();
+                writer.flush();
+            } while (batch.size() == batchSize);
+            if (exported > 0) {
+                out.write('\n');
+            }
+        }
+        return exported;
+    }
+
+    //everything the plan needs is loaded before the persistence context is cleared, so the batch can be written
+    //after the transaction has ended and is garbage once it has been written
+    private List<Recipe> loadBatch(long after, RecipeFetchPlan fetchPlan) {
+        List<Recipe> batch = recipeRepo.findByIdGreaterThanOrderByIdAsc(after, PageRequest.of(0, batchSize));
+        recipeService.applyFetchPlan(batch, fetchPlan);
+        entityManager.clear();
+        return batch;
+    }
+}
@@ -0,0 +1,236 @@
+package com.example.recipe.services;
+
+import com.example.recipe.config.CacheNames;
+import com.example.recipe.exceptions.RecipeIllegalStateException;
+import com.example.recipe.models.*;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.hibernate.engine.spi.SharedSessionContractImplementor;
+import org.hibernate.id.IdentifierGenerator;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cache.annotation.CacheEvict;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import java.io.IOException;
+import java.io.InputStream;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.List;
+
+//imports recipes from a JSON array or NDJSON body with JDBC batches instead of one Hibernate insert per row.
+//recipe ids still come from the identity column, read back from the batch as generated keys. Ingredient, step and
+//review ids come from their pooled id generators, so a batch needs only a couple of id allocations.
+@Service
+public class RecipeImportService {
+
+    private static final String INSERT_RECIPE = "insert into recipe " +
+            "(name, minutes_to_make, difficulty_rating, user_id, average_review_score, review_count, rating_sum) " +
+            "values (?, ?, ?, ?, ?, ?, ?)";
+    private static final String INSERT_INGREDIENT = "insert into ingredient (id, name, amount, state, recipe_id) values (?, ?, ?, ?, ?)";
+    private static final String INSERT_STEP = "insert into step (id, step_number, description, recipe_id) values (?, ?, ?, ?)";
+    private static final String INSERT_REVIEW = "insert into review " +
+            "(id, username, rating, description, recipe_id, user_id) values (?, ?, ?, ?, ?, ?)";
+
+    @Autowired
+    JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    ObjectMapper objectMapper;
+
+    @Autowired
+    RecipeSearchIndex recipeSearchIndex;
+
+    @Autowired
+    RecipeLeaderboard recipeLeaderboard;
+
+    @PersistenceContext
+    EntityManager entityManager;
+
+    private final TransactionTemplate transactionTemplate;
+    private final int batchSize;
+
+    public RecipeImportService(PlatformTransactionManager transactionManager,
+                               @Value("${recipe.import.batch-size:500}") int batchSize) {
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.batchSize = batchSize;
+    }
+
+    //each batch commits on its own, so a failed batch does not undo the batches before it.
+    //recipes are attributed to the importing user, as are reviews that do not name an author.
+    @CacheEvict(value = {CacheNames.RECIPE_SEARCH, CacheNames.RECIPE_RATING_SEARCH}, allEntries = true)
+    public List<RecipeImportResult> importRecipes(InputStream body, CustomUserDetails importer) throws IOException {
+        List<RecipeImportResult> results = new ArrayList<>();
+        List<Integer> pendingIndexes = new ArrayList<>();
+        List<Recipe> pending = new ArrayList<>();
+        int index = 0;
+
+        //a JSON array is unwrapped by the iterator, NDJSON is read as a sequence of root values
+        try (MappingIterator<Recipe> recipes = objectMapper.readerFor(Recipe.class).readValues(body)) {
+            while (true) {
+                Recipe recipe;
+                try {
+                    if (!recipes.hasNextValue()) {
+                        break;
+                    }
+                    recipe = recipes.nextValue();
+                } catch (JsonProcessingException e) {
+                    //the parser cannot reliably find the start of the next recipe, so stop here
+                    results.add(RecipeImportResult.failed(index, "Could not read recipe: " + e.getOriginalMessage()));
+                    break;
+                }
+
+                String problem = prepare(recipe, importer);
+                if (problem != null) {
+                    results.add(RecipeImportResult.failed(index, problem));
+                } else {
+                    pendingIndexes.add(index);
+                    pending.add(recipe);
+                    if (pending.size() == batchSize) {
+                        flush(pendingIndexes, pending, results);
+                    }
+                }
+                index++;
+            }
+        }
+        flush(pendingIndexes, pending, results);
+
+        results.sort((a, b) -> Integer.compare(a.getIndex(), b.getIndex()));
+        return results;
+    }
+
+    //returns why the recipe cannot be imported, or null when it can
+    private String prepare(Recipe recipe, CustomUserDetails importer) {
+        if (recipe == null) {
+            return "Expected a recipe but got null.";
+        }
+        if (recipe.getName() == null || recipe.getMinutesToMake() == null || recipe.getDifficultyRating() == null) {
+            return "A recipe needs a name, minutesToMake and difficultyRating.";
+        }
+        if (recipe.getIngredients() == null) {
+            recipe.setIngredients(new ArrayList<>());
+        }
+        if (recipe.getSteps() == null) {
+            recipe.setSteps(new ArrayList<>());
+        }
+        try {
+            recipe.validate();
+        } catch (RecipeIllegalStateException e) {
+            return e.getMessage();
+        }
+
+        recipe.setId(null);
+        recipe.setAuthor(importer);
+        //an import is not a way to post reviews in other users' names, whatever the file says they are the importer's
+        if (recipe.getReviews() != null) {
+            for (Review review : recipe.getReviews()) {
+                review.setAuthor(importer);
+                review.setUsername(importer.getUsername());
+            }
+        }
+        recipe.initializeReviewAggregates();
+        return null;
+    }
+
+    private void flush(List<Integer> pendingIndexes, List<Recipe> pending, List<RecipeImportResult> results) {
+        if (pending.isEmpty()) {
+            return;
+        }
+        try {
+            transactionTemplate.executeWithoutResult(status -> insertBatch(pending));
+            for (int i = 0; i < pending.size(); i++) {
+                results.add(RecipeImportResult.created(pendingIndexes.get(i), pending.get(i).getId()));
+            }
+        } catch (RuntimeException e) {
+            for (Integer failedIndex : pendingIndexes) {
+                results.add(RecipeImportResult.failed(failedIndex, "The batch this recipe was in could not be saved: "
+                        + e.getMessage()));
+            }
+        }
+        pendingIndexes.clear();
+        pending.clear();
+    }
+
+    private void insertBatch(List<Recipe> recipes) {
+        jdbcTemplate.execute((ConnectionCallback<Void>) connection -> {
+            try (PreparedStatement statement = connection.prepareStatement(INSERT_RECIPE, Statement.RETURN_GENERATED_KEYS)) {
+                for (Recipe recipe : recipes) {
+                    statement.setString(1, recipe.getName());
+                    statement.setInt(2, recipe.getMinutesToMake());
+                    statement.setInt(3, recipe.getDifficultyRating());
+                    statement.setLong(4, recipe.getAuthor().getId());
+                    statement.setLong(5, recipe.getAverageReviewScore());
+                    statement.setLong(6, recipe.getReviewCount());
+                    statement.setLong(7, recipe.getRatingSum());
+                    statement.addBatch();
+                }
+                statement.executeBatch();
+
+                //keys come back in the order the rows were added to the batch
+                try (ResultSet keys = statement.getGeneratedKeys()) {
+                    for (Recipe recipe : recipes) {
+                        if (!keys.next()) {
+                            throw new IllegalStateException("The database returned fewer ids than recipes inserted.");
+                        }
+                        recipe.setId(keys.getLong(1));
+                    }
+                }
+            }
+            return null;
+        });
+
+        SharedSessionContractImplementor session = entityManager.unwrap(SharedSessionContractImplementor.class);
+        IdentifierGenerator ingredientIds = identifierGenerator(session, Ingredient.class);
+        IdentifierGenerator stepIds = identifierGenerator(session, Step.class);
+        IdentifierGenerator reviewIds = identifierGenerator(session, Review.class);
+
+        List<Object[]> ingredientRows = new ArrayList<>();
+        List<Object[]> stepRows = new ArrayList<>();
+        List<Object[]> reviewRows = new ArrayList<>();
+        for (Recipe recipe : recipes) {
+            for (Ingredient ingredient : recipe.getIngredients()) {
+                ingredient.setId((Long) ingredientIds.generate(session, ingredient));
+                ingredientRows.add(new Object[]{ingredient.getId(), ingredient.getName(), ingredient.getAmount(),
+                        ingredient.getState(), recipe.getId()});
+            }
+            for (Step step : recipe.getSteps()) {
+                step.setId((Long) stepIds.generate(session, step));
+                stepRows.add(new Object[]{step.getId(), step.getStepNumber(), step.getDescription(), recipe.getId()});
+            }
+            if (recipe.getReviews() != null) {
+                for (Review review : recipe.getReviews()) {
+                    review.setId((Long) reviewIds.generate(session, review));
+                    review.setRecipeId(recipe.getId());
+                    reviewRows.add(new Object[]{review.getId(), review.getUsername(), review.getRating(),
+                            review.getDescription(), recipe.getId(), review.getAuthor().getId()});
+                }
+            }
+        }
+
+        jdbcTemplate.batchUpdate(INSERT_INGREDIENT, ingredientRows,
+                new int[]{Types.BIGINT, Types.VARCHAR, Types.VARCHAR, Types.VARCHAR, Types.BIGINT});
+        jdbcTemplate.batchUpdate(INSERT_STEP, stepRows,
+                new int[]{Types.BIGINT, Types.INTEGER, Types.VARCHAR, Types.BIGINT});
+        jdbcTemplate.batchUpdate(INSERT_REVIEW, reviewRows,
+                new int[]{Types.BIGINT, Types.VARCHAR, Types.INTEGER, Types.VARCHAR, Types.BIGINT, Types.BIGINT});
+
+        for (Recipe recipe : recipes) {
+            recipeSearchIndex.index(recipe);
+        }
+        recipeLeaderboard.recipesImported(recipes);
+    }
+
+    private IdentifierGenerator identifierGenerator(SharedSessionContractImplementor session, Class<?> entity) {
+        return session.getFactory().getMetamodel().entityPersister(entity).getIdentifierGenerator();
+    }
+}
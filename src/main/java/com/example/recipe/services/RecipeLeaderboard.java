@@ -0,0 +1,239 @@
+package com.example.recipe.services;
+
+import com.example.recipe.models.Recipe;
+import com.example.recipe.models.RecipeSummary;
+import com.example.recipe.repositories.RecipeRepo;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.redis.core.DefaultTypedTuple;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ZSetOperations;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.*;
+
+//top rated and trending recipes, kept in two Redis sorted sets that are updated on every review write.
+//Reading the top k is a ZREVRANGE, O(log n + k), plus one primary key lookup for the k summaries.
+//  - top rated: the average rating pulled towards a prior, so one 5 star review does not beat a hundred 4.8s
+//  - trending: every new review adds its rating, scaled by 2^(age of the epoch / half-life). Older additions are
+//    worth less and less relative to new ones, which decays the ranking without ever rescanning the set
+@Component
+public class RecipeLeaderboard {
+
+    public static final String TOP_RATED_KEY = "recipe:leaderboard:top-rated";
+    public static final String TRENDING_KEY = "recipe:leaderboard:trending";
+    public static final String TRENDING_EPOCH_KEY = "recipe:leaderboard:trending:epoch";
+
+    private static final Logger log = LoggerFactory.getLogger(RecipeLeaderboard.class);
+    private static final int REBUILD_BATCH_SIZE = 1000;
+    private static final Duration REBUILD_KEY_TTL = Duration.ofMinutes(10);
+
+    //adds a review to the trending set. Once the multiplier reaches 2^64 every score is scaled back down and the
+    //epoch moves to now, so scores stay far from overflowing; recipes whose score decayed to nothing are dropped
+    private static final RedisScript<Long> TRENDING_SCRIPT = new DefaultRedisScript<>(
+            "local now = tonumber(ARGV[2])\n" +
+            "local halfLife = tonumber(ARGV[3])\n" +
+            "local epoch = tonumber(redis.call('GET', KEYS[2]))\n" +
+            "if not epoch then\n" +
+            "  epoch = now\n" +
+            "  redis.call('SET', KEYS[2], epoch)\n" +
+            "end\n" +
+            "local halvings = (now - epoch) / halfLife\n" +
+            "if halvings > 64 then\n" +
+            "  redis.call('ZUNIONSTORE', KEYS[1], 1, KEYS[1], 'WEIGHTS', string.format('%.17g', 2 ^ -halvings))\n" +
+            "  redis.call('ZREMRANGEBYSCORE', KEYS[1], '-inf', '(0.000001')\n" +
+            "  redis.call('SET', KEYS[2], now)\n" +
+            "  halvings = 0\n" +
+            "end\n" +
+            "redis.call('ZINCRBY', KEYS[1], string.format('%.17g', tonumber(ARGV[1]) * 2 ^ halvings), ARGV[4])\n" +
+            "return 1", Long.class);
+
+    @Autowired
+    StringRedisTemplate redisTemplate;
+
+    @Autowired
+    RecipeRepo recipeRepo;
+
+    private final double priorRating;
+    private final double priorWeight;
+    private final Duration trendingHalfLife;
+
+    public RecipeLeaderboard(@Value("${recipe.leaderboard.prior-rating:3}") double priorRating,
+                             @Value("${recipe.leaderboard.prior-weight:5}") double priorWeight,
+                             @Value("${recipe.leaderboard.trending.half-life:3d}") Duration trendingHalfLife) {
+        this.priorRating = priorRating;
+        this.priorWeight = priorWeight;
+        this.trendingHalfLife = trendingHalfLife;
+    }
+
+    //review writes keep the top rated set current, but an update lost after its commit (Redis unreachable, the node
+    //stopping) would stay lost, so the set is also rebuilt from the recipe table on startup and every
+    //reconcile-interval. The rebuild fills a key of its own and renames it over the live one, readers never see a
+    //half built set. A review written while a rebuild runs can be missing from it until the next one, so drift is
+    //bounded by the interval. Trending has no history to rebuild from, it fills up as reviews come in
+    @EventListener(ApplicationReadyEvent.class)
+    @Scheduled(initialDelayString = "${recipe.leaderboard.reconcile-interval:3600000}",
+            fixedDelayString = "${recipe.leaderboard.reconcile-interval:3600000}")
+    public void rebuild() {
+        //unique per run, and expiring, so a rebuild that dies halfway leaves nothing behind
+        String rebuildKey = TOP_RATED_KEY + ":rebuild:" + UUID.randomUUID();
+        try {
+            long lastId = 0;
+            boolean empty = true;
+            List<RecipeRepo.ReviewAggregates> batch;
+            do {
+                batch = recipeRepo.findReviewAggregatesByIdGreaterThan(lastId, PageRequest.of(0, REBUILD_BATCH_SIZE));
+                List<RecipeRepo.ReviewAggregates> aggregates = batch;
+                redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                    for (RecipeRepo.ReviewAggregates recipe : aggregates) {
+                        //recipes without reviews are not ranked, like reviewsChanged removes them
+                        if (recipe.getReviewCount() > 0) {
+                            connection.zSetCommands().zAdd(bytes(rebuildKey),
+                                    topRatedScore(recipe.getReviewCount(), recipe.getRatingSum()), bytes(String.valueOf(recipe.getId())));
+                        }
+                    }
+                    connection.keyCommands().pExpire(bytes(rebuildKey), REBUILD_KEY_TTL.toMillis());
+                    return null;
+                });
+                if (!batch.isEmpty()) {
+                    empty = false;
+                    lastId = batch.get(batch.size() - 1).getId();
+                }
+            } while (batch.size() == REBUILD_BATCH_SIZE);
+
+            if (empty) {
+                redisTemplate.delete(TOP_RATED_KEY);
+            } else {
+                redisTemplate.rename(rebuildKey, TOP_RATED_KEY);
+                redisTemplate.persist(TOP_RATED_KEY);
+            }
+        } catch (RuntimeException e) {
+            log.warn("Could not rebuild the top rated leaderboard: {}", e.getMessage());
+            try {
+                redisTemplate.delete(rebuildKey);
+            } catch (RuntimeException ignored) {
+                //it expires on its own
+            }
+        }
+    }
+
+    //called inside the transaction that changed the recipe's review count and rating sum. The new values are read
+    //back so the score is absolute, a lost update is corrected by the recipe's next review or the next rebuild
+    public void reviewsChanged(Long recipeId, long countDelta, long ratingDelta) {
+        Optional<RecipeRepo.ReviewAggregates> aggregates = recipeRepo.findReviewAggregatesById(recipeId);
+        long now = System.currentTimeMillis();
+        afterCommit(() -> {
+            if (aggregates.isPresent() && aggregates.get().getReviewCount() > 0) {
+                redisTemplate.opsForZSet().add(TOP_RATED_KEY, String.valueOf(recipeId),
+                        topRatedScore(aggregates.get().getReviewCount(), aggregates.get().getRatingSum()));
+            } else {
+                redisTemplate.opsForZSet().remove(TOP_RATED_KEY, String.valueOf(recipeId));
+            }
+            //only new reviews make a recipe trend, edits and deletions leave it where it is
+            if (countDelta > 0 && ratingDelta > 0) {
+                redisTemplate.execute(TRENDING_SCRIPT, List.of(TRENDING_KEY, TRENDING_EPOCH_KEY),
+                        String.valueOf(ratingDelta), String.valueOf(now),
+                        String.valueOf(trendingHalfLife.toMillis()), String.valueOf(recipeId));
+            }
+        });
+    }
+
+    //called inside the import transaction. Imported recipes bring their reviews, so their scores are known without
+    //reading them back; an import is not a burst of new reviews, so trending is left alone
+    public void recipesImported(Collection<Recipe> recipes) {
+        Set<ZSetOperations.TypedTuple<String>> scores = new HashSet<>();
+        for (Recipe recipe : recipes) {
+            if (recipe.getReviewCount() > 0) {
+                scores.add(new DefaultTypedTuple<>(String.valueOf(recipe.getId()),
+                        topRatedScore(recipe.getReviewCount(), recipe.getRatingSum())));
+            }
+        }
+        if (!scores.isEmpty()) {
+            afterCommit(() -> redisTemplate.opsForZSet().add(TOP_RATED_KEY, scores));
+        }
+    }
+
+    public void remove(Long recipeId) {
+        afterCommit(() -> {
+            redisTemplate.opsForZSet().remove(TOP_RATED_KEY, String.valueOf(recipeId));
+            redisTemplate.opsForZSet().remove(TRENDING_KEY, String.valueOf(recipeId));
+        });
+    }
+
+    public ArrayList<RecipeSummary> getTopRated(int limit) {
+        return summaries(TOP_RATED_KEY, limit);
+    }
+
+    public ArrayList<RecipeSummary> getTrending(int limit) {
+        return summaries(TRENDING_KEY, limit);
+    }
+
+    double topRatedScore(long reviewCount, long ratingSum) {
+        return (ratingSum + priorRating * priorWeight) / (reviewCount + priorWeight);
+    }
+
+    private ArrayList<RecipeSummary> summaries(String key, int limit) {
+        int size = Math.max(1, Math.min(limit, RecipeService.MAX_PAGE_SIZE));
+        Set<String> ranked = redisTemplate.opsForZSet().reverseRange(key, 0, size - 1L);
+        if (ranked == null || ranked.isEmpty()) {
+            return new ArrayList<>();
+        }
+
+        List<Long> ids = new ArrayList<>();
+        for (String id : ranked) {
+            ids.add(Long.valueOf(id));
+        }
+        Map<Long, RecipeSummary> summariesById = new HashMap<>();
+        for (RecipeSummary summary : recipeRepo.findSummariesByIdIn(ids)) {
+            summariesById.put(summary.getId(), summary);
+        }
+
+        //keep the leaderboard's order, skipping recipes deleted in the meantime
+        ArrayList<RecipeSummary> summaries = new ArrayList<>();
+        for (Long id : ids) {
+            RecipeSummary summary = summariesById.get(id);
+            if (summary != null) {
+                summaries.add(summary);
+            }
+        }
+        return summaries;
+    }
+
+    //a leaderboard that is briefly behind is fine, a review write that fails because Redis is down is not
+    private void afterCommit(Runnable update) {
+        Runnable guarded = () -> {
+            try {
+                update.run();
+            } catch (RuntimeException e) {
+                log.warn("Could not update the recipe leaderboards: {}", e.getMessage());
+            }
+        };
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    guarded.run();
+                }
+            });
+        } else {
+            guarded.run();
+        }
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,382 @@
+package com.example.recipe.services;
+
+import com.example.recipe.config.CacheInvalidationBus;
+import com.example.recipe.config.LocalCache;
+import com.example.recipe.models.Ingredient;
+import com.example.recipe.models.Recipe;
+import com.example.recipe.models.Step;
+import com.example.recipe.repositories.RecipeRepo;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PostConstruct;
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import java.util.*;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+//in-process inverted index over recipe names, ingredient names and step descriptions.
+//every node keeps its own copy: a change committed on one node is published on the CacheInvalidationBus, and the
+//other nodes read that recipe again. A full rebuild every rebuild-interval catches up on messages that were lost
+@Component
+public class RecipeSearchIndex implements LocalCache {
+
+    public static final String NAME = "recipe-search-index";
+
+    private static final Logger log = LoggerFactory.getLogger(RecipeSearchIndex.class);
+
+    private static final float NAME_BOOST = 3f;
+    private static final float INGREDIENT_BOOST = 2f;
+    private static final float STEP_BOOST = 1f;
+    //a term that only matches as a prefix counts for less than an exact match
+    private static final float PREFIX_PENALTY = 0.5f;
+    //a short prefix can match thousands of terms. Only this many are scored, the ones found in the most recipes,
+    //so matches that only have rarer terms with that prefix are left out of the results
+    private static final int MAX_PREFIX_EXPANSIONS = 50;
+    private static final int REBUILD_BATCH_SIZE = 500;
+
+    @Autowired
+    RecipeRepo recipeRepo;
+
+    @Autowired
+    CacheInvalidationBus invalidationBus;
+
+    @PersistenceContext
+    EntityManager entityManager;
+
+    private final TransactionTemplate readOnlyTransaction;
+
+    //term -> (recipe id -> weight of the term in that recipe). Both maps are replaced as a whole by a rebuild
+    private NavigableMap<String, Map<Long, Float>> postings = new TreeMap<>();
+    //recipe id -> terms indexed for it, so a recipe can be removed without scanning every posting
+    private Map<Long, Set<String>> documentTerms = new HashMap<>();
+    //recipes changed while a rebuild reads the database, read again once the rebuilt index is in place
+    private Set<Long> changedDuringRebuild;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    public RecipeSearchIndex(PlatformTransactionManager transactionManager) {
+        this.readOnlyTransaction = new TransactionTemplate(transactionManager);
+        this.readOnlyTransaction.setReadOnly(true);
+    }
+
+    @PostConstruct
+    public void registerForInvalidation() {
+        invalidationBus.register(this);
+    }
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    //before CacheWarmer, which runs searches against the index. The index is built next to the one being searched
+    //and swapped in when complete, so searches keep working while it runs
+    @EventListener(ApplicationReadyEvent.class)
+    @Order(Ordered.HIGHEST_PRECEDENCE)
+    @Scheduled(initialDelayString = "${recipe.search.index.rebuild-interval:3600000}",
+            fixedDelayString = "${recipe.search.index.rebuild-interval:3600000}")
+    public synchronized void rebuild() {
+        NavigableMap<String, Map<Long, Float>> newPostings = new TreeMap<>();
+        Map<Long, Set<String>> newDocumentTerms = new HashMap<>();
+        lock.writeLock().lock();
+        try {
+            changedDuringRebuild = new HashSet<>();
+        } finally {
+            lock.writeLock().unlock();
+        }
+
+        try {
+            readOnlyTransaction.executeWithoutResult(status -> {
+                long lastId = 0;
+                List<Recipe> batch;
+                do {
+                    batch = recipeRepo.findByIdGreaterThanOrderByIdAsc(lastId, PageRequest.of(0, REBUILD_BATCH_SIZE));
+                    for (Recipe recipe : batch) {
+                        putTerms(newPostings, newDocumentTerms, recipe.getId(), extractTerms(recipe));
+                        lastId = recipe.getId();
+                    }
+                    //drop the batch from the persistence context so the rebuild runs in constant memory
+                    entityManager.clear();
+                } while (batch.size() == REBUILD_BATCH_SIZE);
+            });
+        } catch (RuntimeException e) {
+            //the index in use stays as it is
+            lock.writeLock().lock();
+            try {
+                changedDuringRebuild = null;
+            } finally {
+                lock.writeLock().unlock();
+            }
+            throw e;
+        }
+
+        Set<Long> changed;
+        lock.writeLock().lock();
+        try {
+            postings = newPostings;
+            documentTerms = newDocumentTerms;
+            changed = changedDuringRebuild;
+            changedDuringRebuild = null;
+        } finally {
+            lock.writeLock().unlock();
+        }
+        for (Long recipeId : changed) {
+            reindex(recipeId);
+        }
+    }
+
+    //terms are read right away while the entity is attached, but only published once the transaction commits
+    public void index(Recipe recipe) {
+        Long id = recipe.getId();
+        Map<String, Float> terms = extractTerms(recipe);
+        afterCommit(() -> {
+            put(id, terms);
+            invalidationBus.publishEvict(NAME, String.valueOf(id));
+        });
+    }
+
+    public void remove(Long recipeId) {
+        afterCommit(() -> {
+            delete(recipeId);
+            invalidationBus.publishEvict(NAME, String.valueOf(recipeId));
+        });
+    }
+
+    //another node changed, created or deleted this recipe
+    @Override
+    public void evictLocal(String key) {
+        try {
+            reindex(Long.valueOf(key));
+        } catch (RuntimeException e) {
+            //the next rebuild picks the change up
+            log.warn("Could not index recipe {} again: {}", key, e.getMessage());
+        }
+    }
+
+    @Override
+    public void clearLocal() {
+        rebuild();
+    }
+
+    //returns the ids of the matching recipes on the requested page, best match first
+    public List<Long> search(String query, int page, int size) {
+        Map<Long, Float> scores = score(query);
+        if (scores.isEmpty()) {
+            return Collections.emptyList();
+        }
+
+        List<Map.Entry<Long, Float>> ranked = new ArrayList<>(scores.entrySet());
+        ranked.sort(Map.Entry.<Long, Float>comparingByValue().reversed().thenComparing(Map.Entry.<Long, Float>comparingByKey()));
+
+        int from = Math.max(page, 0) * size;
+        if (from >= ranked.size()) {
+            return Collections.emptyList();
+        }
+        List<Long> ids = new ArrayList<>();
+        for (Map.Entry<Long, Float> entry : ranked.subList(from, Math.min(from + size, ranked.size()))) {
+            ids.add(entry.getKey());
+        }
+        return ids;
+    }
+
+    //every recipe the query matches, in no particular order
+    public Set<Long> matchingIds(String query) {
+        return score(query).keySet();
+    }
+
+    //recipe id -> score, for the recipes that match every term of the query
+    private Map<Long, Float> score(String query) {
+        List<String> queryTerms = new ArrayList<>(new LinkedHashSet<>(tokenize(query)));
+        if (queryTerms.isEmpty()) {
+            return Collections.emptyMap();
+        }
+
+        Map<Long, Float> scores = null;
+        lock.readLock().lock();
+        try {
+            int documentCount = Math.max(documentTerms.size(), 1);
+            for (String queryTerm : queryTerms) {
+                Map<Long, Float> termScores = new HashMap<>();
+                for (Map.Entry<String, Map<Long, Float>> posting : expand(queryTerm)) {
+                    float idf = (float) Math.log(1 + (double) documentCount / posting.getValue().size());
+                    float boost = posting.getKey().equals(queryTerm) ? 1f : PREFIX_PENALTY;
+                    for (Map.Entry<Long, Float> hit : posting.getValue().entrySet()) {
+                        termScores.merge(hit.getKey(), hit.getValue() * idf * boost, Math::max);
+                    }
+                }
+
+                //every query term has to match, so keep only recipes matched by all terms so far
+                if (scores == null) {
+                    scores = termScores;
+                } else {
+                    scores.keySet().retainAll(termScores.keySet());
+                    scores.replaceAll((id, score) -> score + termScores.get(id));
+                }
+                if (scores.isEmpty()) {
+                    return scores;
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return scores;
+    }
+
+    //the terms starting with the query term, at most MAX_PREFIX_EXPANSIONS of them. The exact term always counts,
+    //the other places go to the terms with the most recipes. Caller must hold the read lock
+    private Collection<Map.Entry<String, Map<Long, Float>>> expand(String queryTerm) {
+        Collection<Map.Entry<String, Map<Long, Float>>> expansions =
+                postings.subMap(queryTerm, true, queryTerm + Character.MAX_VALUE, false).entrySet();
+        if (expansions.size() <= MAX_PREFIX_EXPANSIONS) {
+            return expansions;
+        }
+
+        Map<Long, Float> exact = postings.get(queryTerm);
+        int prefixLimit = exact == null ? MAX_PREFIX_EXPANSIONS : MAX_PREFIX_EXPANSIONS - 1;
+        PriorityQueue<Map.Entry<String, Map<Long, Float>>> mostRecipes =
+                new PriorityQueue<>(Comparator.comparingInt(posting -> posting.getValue().size()));
+        for (Map.Entry<String, Map<Long, Float>> posting : expansions) {
+            if (posting.getValue() == exact) {
+                continue;
+            }
+            mostRecipes.add(posting);
+            if (mostRecipes.size() > prefixLimit) {
+                mostRecipes.poll();
+            }
+        }
+        List<Map.Entry<String, Map<Long, Float>>> kept = new ArrayList<>(mostRecipes);
+        if (exact != null) {
+            kept.add(Map.entry(queryTerm, exact));
+        }
+        return kept;
+    }
+
+    //reads one recipe from the database and replaces its terms, or drops it if it no longer exists
+    private void reindex(Long recipeId) {
+        Map<String, Float> terms = readOnlyTransaction.execute(status ->
+                recipeRepo.findById(recipeId).map(this::extractTerms).orElse(null));
+        if (terms == null) {
+            delete(recipeId);
+        } else {
+            put(recipeId, terms);
+        }
+    }
+
+    private void put(Long recipeId, Map<String, Float> terms) {
+        lock.writeLock().lock();
+        try {
+            putTerms(postings, documentTerms, recipeId, terms);
+            if (changedDuringRebuild != null) {
+                changedDuringRebuild.add(recipeId);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void delete(Long recipeId) {
+        lock.writeLock().lock();
+        try {
+            removeTerms(postings, documentTerms, recipeId);
+            if (changedDuringRebuild != null) {
+                changedDuringRebuild.add(recipeId);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    //caller must hold the write lock when these are the live maps
+    private static void putTerms(NavigableMap<String, Map<Long, Float>> postings, Map<Long, Set<String>> documentTerms,
+                                 Long recipeId, Map<String, Float> terms) {
+        removeTerms(postings, documentTerms, recipeId);
+        for (Map.Entry<String, Float> term : terms.entrySet()) {
+            postings.computeIfAbsent(term.getKey(), t -> new HashMap<>()).put(recipeId, term.getValue());
+        }
+        documentTerms.put(recipeId, new HashSet<>(terms.keySet()));
+    }
+
+    private static void removeTerms(NavigableMap<String, Map<Long, Float>> postings, Map<Long, Set<String>> documentTerms,
+                                    Long recipeId) {
+        Set<String> terms = documentTerms.remove(recipeId);
+        if (terms == null) {
+            return;
+        }
+        for (String term : terms) {
+            Map<Long, Float> posting = postings.get(term);
+            if (posting != null) {
+                posting.remove(recipeId);
+                if (posting.isEmpty()) {
+                    postings.remove(term);
+                }
+            }
+        }
+    }
+
+    private Map<String, Float> extractTerms(Recipe recipe) {
+        Map<String, Float> terms = new HashMap<>();
+        addTerms(terms, recipe.getName(), NAME_BOOST);
+        if (recipe.getIngredients() != null) {
+            for (Ingredient ingredient : recipe.getIngredients()) {
+                addTerms(terms, ingredient.getName(), INGREDIENT_BOOST);
+            }
+        }
+        if (recipe.getSteps() != null) {
+            for (Step step : recipe.getSteps()) {
+                addTerms(terms, step.getDescription(), STEP_BOOST);
+            }
+        }
+        return terms;
+    }
+
+    private void addTerms(Map<String, Float> terms, String text, float boost) {
+        for (String token : tokenize(text)) {
+            terms.merge(token, boost, Float::sum);
+        }
+    }
+
+    //matching only looks at lowercased tokens, so queries that differ in case or surrounding blanks find the same
+    //recipes. Search cache keys and the warm-up statistics use this form, so they share one entry
+    public static String normalize(String query) {
+        return query == null ? null : query.trim().toLowerCase(Locale.ROOT);
+    }
+
+    static List<String> tokenize(String text) {
+        List<String> tokens = new ArrayList<>();
+        if (text == null) {
+            return tokens;
+        }
+        for (String token : text.toLowerCase(Locale.ROOT).split("[^\\p{L}\\p{N}]+")) {
+            if (!token.isEmpty()) {
+                tokens.add(token);
+            }
+        }
+        return tokens;
+    }
+
+    private void afterCommit(Runnable action) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            action.run();
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                action.run();
+            }
+        });
+    }
+}
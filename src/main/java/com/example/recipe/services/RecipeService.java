@@ -1,28 +1,79 @@
 package com.example.recipe.services;
 
 
+import com.example.recipe.config.CacheNames;
 import com.example.recipe.exceptions.NoSuchRecipeException;
+import com.example.recipe.exceptions.RecipeVersionRequiredException;
 import com.example.recipe.models.Recipe;
+import com.example.recipe.models.RecipeFetchPlan;
+import com.example.recipe.models.RecipePage;
+import com.example.recipe.models.RecipeSummary;
 import com.example.recipe.models.Review;
 import com.example.recipe.repositories.RecipeRepo;
+import com.example.recipe.repositories.ReviewRepo;
+import org.hibernate.Hibernate;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.cache.annotation.CacheEvict;
-import org.springframework.cache.annotation.CachePut;
 import org.springframework.cache.annotation.Cacheable;
+import org.springframework.cache.annotation.Caching;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.domain.Sort;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
 
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
 import javax.transaction.Transactional;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.function.BiFunction;
+import java.util.function.Function;
 
 @Service
 public class RecipeService {
 
+    public static final int DEFAULT_PAGE_SIZE = 20;
+    public static final int MAX_PAGE_SIZE = 100;
+
+    //rating searches with up to this many candidates look them up by id, larger ones walk the rating index
+    private static final int CANDIDATE_BATCH_SIZE = 1000;
+    private static final int RATING_INDEX_PAGE_SIZE = 500;
+    private static final Sort BY_RATING = Sort.by(Sort.Direction.DESC, "averageReviewScore", "name", "id");
+
     @Autowired
     RecipeRepo recipeRepo;
 
+    @Autowired
+    ReviewRepo reviewRepo;
+
+    @Autowired
+    RecipeSearchIndex recipeSearchIndex;
+
+    @Autowired
+    RecipeLeaderboard recipeLeaderboard;
+
+    @Autowired
+    RatingAccumulator ratingAccumulator;
 
-    @Cacheable(value = "recipe", key = "#id")
+    @PersistenceContext
+    EntityManager entityManager;
+
+    private final TransactionTemplate transactionTemplate;
+
+    public RecipeService(PlatformTransactionManager transactionManager) {
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+    }
+
+    //sync: concurrent misses for the same key share one load, see SingleFlightCache
+    @Cacheable(sync = true, value = CacheNames.RECIPE, key = "#id")
+    @Transactional
     public Recipe getRecipeById(Long id) throws NoSuchRecipeException {
         Optional<Recipe> recipeOptional = recipeRepo.findById(id);
 
@@ -31,73 +82,238 @@ public class RecipeService {
         }
 
         Recipe recipe = recipeOptional.get();
-
-        if (!recipe.getReviews().isEmpty()) {
-            long ratingsSum = 0;
-            for (Review review : recipe.getReviews()) {
-                ratingsSum += review.getRating();
-            }
-            recipe.setAverageReviewScore(ratingsSum / recipe.getReviews().size());
-        }
-
-        recipe.generateLocationURI();
+        applyFetchPlan(List.of(recipe), RecipeFetchPlan.WITH_REVIEWS);
         return recipe;
     }
 
-    @Cacheable(value = "recipes", key = "#name")
-    public ArrayList<Recipe> getRecipesByName(String name, Long rating) throws NoSuchRecipeException {
-        ArrayList<Recipe> matchingRecipes = recipeRepo.findByNameContaining(name);
+    //ranks matches with the in-memory search index, the database is only used to load the recipes on the page.
+    //Search cache keys use the normalized name, see RecipeSearchIndex.normalize
+    @Cacheable(sync = true, value = CacheNames.RECIPE_SEARCH, key = "T(com.example.recipe.services.RecipeSearchIndex).normalize(#name) + ':' + #page + ':' + #size + ':' + #fetchPlan")
+    @Transactional
+    public ArrayList<Recipe> getRecipesByName(String name, int page, int size, RecipeFetchPlan fetchPlan) throws NoSuchRecipeException {
+        List<Long> matchingIds = recipeSearchIndex.search(name, page, Math.max(1, Math.min(size, MAX_PAGE_SIZE)));
 
-        if (matchingRecipes.isEmpty()) {
+        if (matchingIds.isEmpty()) {
             throw new NoSuchRecipeException("No recipes could be found with that name.");
         }
 
-        for (Recipe r : matchingRecipes) {
-            r.generateLocationURI();
+        Map<Long, Recipe> recipesById = new HashMap<>();
+        for (Recipe r : recipeRepo.findByIdIn(matchingIds)) {
+            recipesById.put(r.getId(), r);
+        }
+
+        //keep the order of the ranking, skipping recipes deleted since they were indexed
+        ArrayList<Recipe> matchingRecipes = new ArrayList<>();
+        for (Long id : matchingIds) {
+            Recipe r = recipesById.get(id);
+            if (r != null) {
+                matchingRecipes.add(r);
+            }
         }
+        applyFetchPlan(matchingRecipes, fetchPlan);
         return matchingRecipes;
     }
 
-    @Cacheable(value = "recipes", key = "#name.concat('-').concat(#rating)")
-    public ArrayList<Recipe> getRecipesByNameAndRating(String name, Long rating) throws NoSuchRecipeException {
-        ArrayList<Recipe> matchingRecipes = recipeRepo.findByNameContaining(name);
+    //returns the best rated recipes first, at most limit of them. A recipe matches like in getRecipesByName
+    @Cacheable(sync = true, value = CacheNames.RECIPE_RATING_SEARCH, key = "T(com.example.recipe.services.RecipeSearchIndex).normalize(#name) + ':' + #rating + ':' + #limit + ':' + #fetchPlan")
+    @Transactional
+    public ArrayList<Recipe> getRecipesByNameAndRating(String name, Long rating, int limit, RecipeFetchPlan fetchPlan) throws NoSuchRecipeException {
+        List<Recipe> matchingRecipes = bestRated(name, rating, limit,
+                (ids, top) -> recipeRepo.findByIdInAndAverageReviewScoreGreaterThanEqual(ids, rating, top),
+                recipeRepo::findByIdIn, Recipe::getId);
 
         if (matchingRecipes.isEmpty()) {
-            throw new NoSuchRecipeException("No recipes could be found with that name.");
+            throw new NoSuchRecipeException("No recipes could be found with that name and rating.");
+        }
+
+        applyFetchPlan(matchingRecipes, fetchPlan);
+        return new ArrayList<>(matchingRecipes);
+    }
+
+    //pages through recipes ordered by id, either after a cursor (keyset) or by page number (offset)
+    @Transactional
+    public RecipePage<Recipe> getRecipesPage(Long after, Integer page, int size, RecipeFetchPlan fetchPlan) throws NoSuchRecipeException {
+        int pageSize = Math.max(1, Math.min(size, MAX_PAGE_SIZE));
+        List<Recipe> recipes;
+        boolean hasNext;
+
+        if (page != null && after == null) {
+            Slice<Recipe> slice = recipeRepo.findAllBy(PageRequest.of(Math.max(page, 0), pageSize, Sort.by("id")));
+            recipes = slice.getContent();
+            hasNext = slice.hasNext();
+        } else {
+            //fetch one extra row to find out whether there is another page without a count query
+            recipes = recipeRepo.findByIdGreaterThanOrderByIdAsc(after == null ? 0L : after, PageRequest.of(0, pageSize + 1));
+            hasNext = recipes.size() > pageSize;
+            if (hasNext) {
+                recipes = recipes.subList(0, pageSize);
+            }
         }
 
-        for (Recipe r : matchingRecipes) {
-            r.generateLocationURI();
+        if (recipes.isEmpty() && after == null && (page == null || page <= 0)) {
+            throw new NoSuchRecipeException("There are no recipes yet :( feel free to add one though");
         }
-        return matchingRecipes;
+        applyFetchPlan(recipes, fetchPlan);
+        Long nextCursor = hasNext ? recipes.get(recipes.size() - 1).getId() : null;
+        return new RecipePage<>(new ArrayList<>(recipes), nextCursor);
     }
 
-    @Cacheable(value = "recipes", key = "#name", sync = true)
-    public ArrayList<Recipe> getAllRecipes() throws NoSuchRecipeException {
-        ArrayList<Recipe> recipes = new ArrayList<>(recipeRepo.findAll());
+    //same paging as getRecipesPage, but only the summary columns are read
+    public RecipePage<RecipeSummary> getRecipeSummariesPage(Long after, Integer page, int size) throws NoSuchRecipeException {
+        int pageSize = Math.max(1, Math.min(size, MAX_PAGE_SIZE));
+        List<RecipeSummary> summaries;
+        boolean hasNext;
 
-        if (recipes.isEmpty()) {
+        if (page != null && after == null) {
+            Slice<RecipeSummary> slice = recipeRepo.findAllSummaries(PageRequest.of(Math.max(page, 0), pageSize, Sort.by("id")));
+            summaries = slice.getContent();
+            hasNext = slice.hasNext();
+        } else {
+            summaries = recipeRepo.findSummariesByIdGreaterThan(after == null ? 0L : after, PageRequest.of(0, pageSize + 1));
+            hasNext = summaries.size() > pageSize;
+            if (hasNext) {
+                summaries = summaries.subList(0, pageSize);
+            }
+        }
+
+        if (summaries.isEmpty() && after == null && (page == null || page <= 0)) {
             throw new NoSuchRecipeException("There are no recipes yet :( feel free to add one though");
         }
-        return recipes;
+        Long nextCursor = hasNext ? summaries.get(summaries.size() - 1).getId() : null;
+        return new RecipePage<>(new ArrayList<>(summaries), nextCursor);
     }
 
+    @Cacheable(sync = true, value = CacheNames.RECIPE_SEARCH, key = "'summary:' + T(com.example.recipe.services.RecipeSearchIndex).normalize(#name) + ':' + #page + ':' + #size")
+    public ArrayList<RecipeSummary> getRecipeSummariesByName(String name, int page, int size) throws NoSuchRecipeException {
+        List<Long> matchingIds = recipeSearchIndex.search(name, page, Math.max(1, Math.min(size, MAX_PAGE_SIZE)));
+
+        if (matchingIds.isEmpty()) {
+            throw new NoSuchRecipeException("No recipes could be found with that name.");
+        }
+
+        Map<Long, RecipeSummary> summariesById = new HashMap<>();
+        for (RecipeSummary summary : recipeRepo.findSummariesByIdIn(matchingIds)) {
+            summariesById.put(summary.getId(), summary);
+        }
+
+        ArrayList<RecipeSummary> matchingSummaries = new ArrayList<>();
+        for (Long id : matchingIds) {
+            RecipeSummary summary = summariesById.get(id);
+            if (summary != null) {
+                matchingSummaries.add(summary);
+            }
+        }
+        return matchingSummaries;
+    }
 
-    @CacheEvict(value = "recipe", key = "#recipe.id")
+    @Cacheable(sync = true, value = CacheNames.RECIPE_RATING_SEARCH, key = "'summary:' + T(com.example.recipe.services.RecipeSearchIndex).normalize(#name) + ':' + #rating + ':' + #limit")
+    public ArrayList<RecipeSummary> getRecipeSummariesByNameAndRating(String name, Long rating, int limit) throws NoSuchRecipeException {
+        List<RecipeSummary> matchingSummaries = bestRated(name, rating, limit,
+                (ids, top) -> recipeRepo.findSummariesByIdInAndAverageReviewScoreGreaterThanEqual(ids, rating, top),
+                recipeRepo::findSummariesByIdIn, RecipeSummary::getId);
+
+        if (matchingSummaries.isEmpty()) {
+            throw new NoSuchRecipeException("No recipes could be found with that name and rating.");
+        }
+        return new ArrayList<>(matchingSummaries);
+    }
+
+    //the best rated of the recipes the search index matches for name, rated at least rating. A few candidates are
+    //looked up by id and sorted, that is less work than any index walk. Many candidates come from a common name, and
+    //then the rating index is walked from the best rated down until limit of them are found
+    private <T> List<T> bestRated(String name, Long rating, int limit, BiFunction<List<Long>, PageRequest, List<T>> byIds,
+                                  Function<List<Long>, List<T>> load, Function<T, Long> idOf) {
+        Set<Long> candidates = recipeSearchIndex.matchingIds(name);
+        PageRequest top = PageRequest.of(0, Math.max(1, Math.min(limit, MAX_PAGE_SIZE)), BY_RATING);
+        if (candidates.size() <= CANDIDATE_BATCH_SIZE) {
+            return candidates.isEmpty() ? new ArrayList<>() : byIds.apply(new ArrayList<>(candidates), top);
+        }
+
+        List<Long> bestIds = walkRatingIndex(candidates, rating, top.getPageSize());
+        Map<Long, T> loaded = new HashMap<>();
+        for (T t : load.apply(bestIds)) {
+            loaded.put(idOf.apply(t), t);
+        }
+        List<T> best = new ArrayList<>();
+        for (Long id : bestIds) {
+            T t = loaded.get(id);
+            if (t != null) {
+                best.add(t);
+            }
+        }
+        return best;
+    }
+
+    //the first limit candidates in BY_RATING order. Scores are whole numbers from 0 to 10, so each score is one
+    //range of (averageReviewScore, name) in idx_recipe_rating_name, read in name order with a keyset cursor. Index
+    //entries carry the id, so no recipe row is read. The work is the index entries rated at least as well as the
+    //last match returned, however many recipes there are
+    private List<Long> walkRatingIndex(Set<Long> candidates, Long rating, int limit) {
+        List<Long> best = new ArrayList<>();
+        Long score = recipeRepo.findMaxAverageReviewScoreBetween(rating, Long.MAX_VALUE);
+        while (score != null) {
+            String lastName = "";
+            Long lastId = 0L;
+            List<RecipeRepo.RatingIndexEntry> page;
+            do {
+                page = recipeRepo.findRatingIndexEntries(score, lastName, lastId, PageRequest.of(0, RATING_INDEX_PAGE_SIZE));
+                for (RecipeRepo.RatingIndexEntry entry : page) {
+                    if (candidates.contains(entry.getId())) {
+                        best.add(entry.getId());
+                        if (best.size() == limit) {
+                            return best;
+                        }
+                    }
+                    lastName = entry.getName();
+                    lastId = entry.getId();
+                }
+            } while (page.size() == RATING_INDEX_PAGE_SIZE);
+            score = recipeRepo.findMaxAverageReviewScoreBetween(rating, score);
+        }
+        return best;
+    }
+
+    //a new recipe can show up in any search result
+    @CacheEvict(value = {CacheNames.RECIPE_SEARCH, CacheNames.RECIPE_RATING_SEARCH}, allEntries = true)
     @Transactional
     public Recipe createNewRecipe(Recipe recipe) throws IllegalStateException {
         recipe.validate();
+        recipe.initializeReviewAggregates();
+        //a new recipe always starts at the first version, whatever the client sent
+        recipe.setVersion(null);
+
+        //reviews own their recipeId, so they can only be inserted once the recipe has an ID
+        Collection<Review> reviews = recipe.getReviews();
+        recipe.setReviews(new ArrayList<>());
         recipe = recipeRepo.save(recipe);
-        recipe.generateLocationURI();
+
+        if (reviews != null) {
+            for (Review review : reviews) {
+                review.setId(null);
+                review.setRecipeId(recipe.getId());
+                recipe.getReviews().add(reviewRepo.save(review));
+            }
+        }
+
+        recipeSearchIndex.index(recipe);
+        if (recipe.getReviewCount() > 0) {
+            recipeLeaderboard.reviewsChanged(recipe.getId(), recipe.getReviewCount(), recipe.getRatingSum());
+        }
         return recipe;
     }
 
-    @CacheEvict(value = "recipe", key = "#id")
+    //the recipe's reviews are deleted with it, so the review region is cleared as well
+    @Caching(evict = {
+            @CacheEvict(value = CacheNames.RECIPE, key = "#id"),
+            @CacheEvict(value = {CacheNames.RECIPE_SEARCH, CacheNames.RECIPE_RATING_SEARCH, CacheNames.REVIEW}, allEntries = true)
+    })
     @Transactional
     public Recipe deleteRecipeById(Long id) throws NoSuchRecipeException {
         try {
             Recipe recipe = getRecipeById(id);
             recipeRepo.deleteById(id);
+            recipeSearchIndex.remove(id);
+            recipeLeaderboard.remove(id);
             return recipe;
         } catch (NoSuchRecipeException e) {
             throw new NoSuchRecipeException(e.getMessage() + " Could not delete.");
@@ -105,21 +321,85 @@ public class RecipeService {
     }
 
 
-    @CacheEvict(value = "recipe", key = "#recipe.id")
-    @Transactional
-    public Recipe updateRecipe(Recipe recipe, boolean forceIdCheck) throws NoSuchRecipeException {
-        try {
-            if (forceIdCheck) {
-                getRecipeById(recipe.getId());
-            }
-            recipe.validate();
-            Recipe savedRecipe = recipeRepo.save(recipe);
-            savedRecipe.generateLocationURI();
-            return savedRecipe;
-        } catch (NoSuchRecipeException e) {
+    //edits are checked against the recipe's version: the client sends back the version it read and gets a conflict
+    //if the recipe changed since. An edit without a version is refused rather than applied to whatever version is
+    //current, which would silently overwrite the other edit.
+    //Reviews never conflict with edits, they change the aggregates with atomic increments that leave the version alone
+    @Caching(evict = {
+            @CacheEvict(value = CacheNames.RECIPE, key = "#recipe.id"),
+            @CacheEvict(value = {CacheNames.RECIPE_SEARCH, CacheNames.RECIPE_RATING_SEARCH}, allEntries = true)
+    })
+    public Recipe updateRecipe(Recipe recipe, boolean forceIdCheck) throws NoSuchRecipeException, RecipeVersionRequiredException {
+        recipe.validate();
+        if (recipe.getVersion() == null) {
+            throw new RecipeVersionRequiredException("Send the version of the recipe you are editing, " +
+                    "GET /recipes/" + recipe.getId() + " returns it.");
+        }
+
+        Recipe savedRecipe = transactionTemplate.execute(status -> saveEdit(recipe, forceIdCheck));
+        if (savedRecipe == null) {
             throw new NoSuchRecipeException("The recipe you passed in did not have an ID found in the database." +
                     " Double check that it is correct. Or maybe you meant to POST a recipe not PATCH one.");
         }
+        return savedRecipe;
+    }
+
+    //returns null when the recipe does not exist and forceIdCheck is set
+    private Recipe saveEdit(Recipe recipe, boolean forceIdCheck) {
+        if (forceIdCheck && (recipe.getId() == null || !recipeRepo.existsById(recipe.getId()))) {
+            return null;
+        }
+        Recipe savedRecipe = recipeRepo.save(recipe);
+        //write now, so a stale version fails here with an OptimisticLockingFailureException rather than at commit
+        recipeRepo.flush();
+        recipeSearchIndex.index(savedRecipe);
+        return savedRecipe;
+    }
+
+    //applies a change in review count and rating sum as a single atomic update, without loading the reviews.
+    //Search results are left to expire: clearing every search region on each review would empty them as fast as
+    //reviews come in, so a cached search shows reviews and ratings up to recipe.cache.ttl.recipe-search old
+    @CacheEvict(value = CacheNames.RECIPE, key = "#recipeId")
+    @Transactional
+    public void applyReviewDelta(Long recipeId, long countDelta, long ratingDelta) throws NoSuchRecipeException {
+        //buffered mode: the recipe row is only read here, RatingAccumulator applies the change with its next flush
+        if (ratingAccumulator.isEnabled()) {
+            if (!recipeRepo.existsById(recipeId)) {
+                throw new NoSuchRecipeException("No recipe with ID " + recipeId + " could be found.");
+            }
+            ratingAccumulator.add(recipeId, countDelta, ratingDelta);
+            return;
+        }
+        if (recipeRepo.applyReviewDelta(recipeId, countDelta, ratingDelta) == 0) {
+            throw new NoSuchRecipeException("No recipe with ID " + recipeId + " could be found.");
+        }
+        recipeLeaderboard.reviewsChanged(recipeId, countDelta, ratingDelta);
     }
-}
 
+    //loads what the plan asks for and nothing more. Initializing the first recipe's collection loads the same
+    //collection of every other recipe in the persistence context with it (@BatchSize), so the number of queries
+    //depends on the plan, not on how many recipes there are. Recipes are then detached and the collections the
+    //plan left out are nulled, so neither the cache nor the JSON serializer can lazily load them one by one.
+    void applyFetchPlan(Collection<Recipe> recipes, RecipeFetchPlan fetchPlan) {
+        for (Recipe recipe : recipes) {
+            if (fetchPlan.loadsDetail()) {
+                Hibernate.initialize(recipe.getIngredients());
+                Hibernate.initialize(recipe.getSteps());
+            }
+            if (fetchPlan.loadsReviews()) {
+                Hibernate.initialize(recipe.getReviews());
+            }
+        }
+        if (fetchPlan == RecipeFetchPlan.WITH_REVIEWS) {
+            return;
+        }
+        for (Recipe recipe : recipes) {
+            entityManager.detach(recipe);
+            if (!fetchPlan.loadsDetail()) {
+                recipe.setIngredients(null);
+                recipe.setSteps(null);
+            }
+            recipe.setReviews(null);
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package com.example.recipe.services;
+
+import com.example.recipe.config.CacheNames;
+import com.example.recipe.repositories.RecipeRepo;
+import com.example.recipe.repositories.ReviewRepo;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PostConstruct;
+import java.util.*;
+
+//sets recipes' review count, rating sum and average to what their reviews add up to, for the cases where the stored
+//aggregates cannot be trusted: rows that existed before the aggregate columns did, and buffered rating changes whose
+//commit may or may not have happened. Review writes keep the aggregates current with deltas, they never recount
+@Component
+public class ReviewAggregateRecounter {
+
+    private static final Logger log = LoggerFactory.getLogger(ReviewAggregateRecounter.class);
+
+    private static final int BATCH_SIZE = 500;
+
+    private static final String UPDATE_AGGREGATES = "update recipe set " +
+            "average_review_score = ?, review_count = ?, rating_sum = ? where id = ?";
+
+    @Autowired
+    JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    RecipeRepo recipeRepo;
+
+    @Autowired
+    ReviewRepo reviewRepo;
+
+    @Autowired
+    CacheManager cacheManager;
+
+    private final TransactionTemplate transactionTemplate;
+
+    public ReviewAggregateRecounter(PlatformTransactionManager transactionManager) {
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        //the count has to see reviews committed after the recipe rows were locked
+        this.transactionTemplate.setIsolationLevel(TransactionDefinition.ISOLATION_READ_COMMITTED);
+    }
+
+    //ddl-auto added review_count and rating_sum to existing recipes as 0, whatever reviews they had, and the first
+    //new review would then set the average to its own rating. Runs before the web server takes requests, once the
+    //recipes are counted it finds nothing to do
+    @PostConstruct
+    public void countUncountedRecipes() {
+        List<Long> recipeIds = recipeRepo.findIdsWithUncountedReviews();
+        if (recipeIds.isEmpty()) {
+            return;
+        }
+        transactionTemplate.executeWithoutResult(status -> recount(recipeIds));
+        log.info("Counted the reviews of {} recipes stored before review aggregates were", recipeIds.size());
+        Cache recipes = cacheManager.getCache(CacheNames.RECIPE);
+        if (recipes != null) {
+            recipeIds.forEach(recipes::evict);
+        }
+    }
+
+    //runs in the caller's transaction, which should be READ COMMITTED. Returns how much each recipe's aggregates
+    //changed, [count, rating] per recipe id; recipes that do not exist are skipped
+    public Map<Long, long[]> recount(Collection<Long> recipeIds) {
+        //locked in id order, so two recounts of overlapping recipes cannot deadlock
+        List<Long> ids = new ArrayList<>(recipeIds);
+        Collections.sort(ids);
+        Map<Long, long[]> changes = new HashMap<>();
+        List<Object[]> updates = new ArrayList<>(ids.size());
+        for (int from = 0; from < ids.size(); from += BATCH_SIZE) {
+            List<Long> batch = ids.subList(from, Math.min(from + BATCH_SIZE, ids.size()));
+            List<RecipeRepo.ReviewAggregates> locked = recipeRepo.lockReviewAggregatesByIdIn(batch);
+            Map<Long, RecipeRepo.ReviewAggregates> counted = new HashMap<>();
+            for (RecipeRepo.ReviewAggregates recipe : reviewRepo.countReviewAggregatesByRecipeIdIn(batch)) {
+                counted.put(recipe.getId(), recipe);
+            }
+            for (RecipeRepo.ReviewAggregates before : locked) {
+                RecipeRepo.ReviewAggregates after = counted.get(before.getId());
+                long reviewCount = after == null ? 0 : after.getReviewCount();
+                long ratingSum = after == null ? 0 : after.getRatingSum();
+                //the same average RecipeRepo.applyReviewDelta writes
+                long average = reviewCount > 0 ? Math.floorDiv(ratingSum, reviewCount) : 0;
+                updates.add(new Object[]{average, reviewCount, ratingSum, before.getId()});
+                changes.put(before.getId(), new long[]{reviewCount - before.getReviewCount(),
+                        ratingSum - before.getRatingSum()});
+            }
+        }
+        if (!updates.isEmpty()) {
+            jdbcTemplate.batchUpdate(UPDATE_AGGREGATES, updates);
+        }
+        return changes;
+    }
+}
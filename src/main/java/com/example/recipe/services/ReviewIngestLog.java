@@ -0,0 +1,233 @@
+package com.example.recipe.services;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.CRC32;
+
+//append-only log of opaque records in fixed size, memory mapped segments reviews-<sequence>.log.
+//A record is its payload length, a CRC32 of the payload and the payload. Segments are zero filled when created, so
+//a zero length marks the end of a segment, and a torn record at the end fails its checksum.
+//
+//appends are group committed: a writer that finds no sync running forces the segment for every record written so
+//far, and the writers arriving meanwhile wait for that sync or the next one instead of each forcing on their own.
+class ReviewIngestLog {
+
+    private static final String PREFIX = "reviews-";
+    private static final String SUFFIX = ".log";
+    private static final int HEADER_SIZE = 2 * Integer.BYTES;
+
+    private final Path directory;
+    private final int segmentSize;
+
+    //writer state, guarded by this
+    private long segment;
+    private MappedByteBuffer mapped;
+    private int position;
+
+    //group commit state, guarded by syncLock. Positions are addresses, see address()
+    private final Object syncLock = new Object();
+    private boolean syncing;
+    private long synced;
+
+    //writing always starts in a new segment after every existing one, records of earlier runs are only ever read
+    ReviewIngestLog(Path directory, int segmentSize, long minimumSegment) throws IOException {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        Files.createDirectories(directory);
+        long last = minimumSegment;
+        for (long existing : segments()) {
+            last = Math.max(last, existing);
+        }
+        open(last + 1);
+        synced = address(segment, 0);
+    }
+
+    //returns once the record is on disk
+    void append(byte[] payload) throws IOException {
+        long end;
+        synchronized (this) {
+            int recordSize = HEADER_SIZE + payload.length;
+            if (recordSize > segmentSize) {
+                throw new IllegalArgumentException("A record of " + recordSize + " bytes does not fit in a segment.");
+            }
+            if (position + recordSize > segmentSize) {
+                rotate();
+            }
+            CRC32 crc = new CRC32();
+            crc.update(payload);
+            mapped.put(position + HEADER_SIZE, payload);
+            mapped.putInt(position + Integer.BYTES, (int) crc.getValue());
+            mapped.putInt(position, payload.length);
+            position += recordSize;
+            end = address(segment, position);
+        }
+        awaitSynced(end);
+    }
+
+    synchronized long currentSegment() {
+        return segment;
+    }
+
+    //records of one segment from a position on, at most limit of them. The current segment is only read up to what
+    //has been synced, so nothing is replayed that a crash could still take back
+    Batch read(long fromSegment, int fromPosition, int limit) throws IOException {
+        int end;
+        synchronized (syncLock) {
+            long syncedSegment = synced >>> 32;
+            if (fromSegment > syncedSegment) {
+                return new Batch(List.of(), List.of(), fromPosition);
+            }
+            end = fromSegment == syncedSegment ? (int) synced : segmentSize;
+        }
+
+        Path file = segmentPath(fromSegment);
+        if (!Files.exists(file)) {
+            return new Batch(List.of(), List.of(), fromPosition);
+        }
+        MappedByteBuffer segmentBuffer;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            segmentBuffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(channel.size(), segmentSize));
+        }
+        end = Math.min(end, segmentBuffer.capacity());
+
+        List<byte[]> records = new ArrayList<>();
+        List<Integer> ends = new ArrayList<>();
+        int next = fromPosition;
+        while (records.size() < limit && next + HEADER_SIZE <= end) {
+            int length = segmentBuffer.getInt(next);
+            if (length <= 0 || next + HEADER_SIZE + length > end) {
+                break;
+            }
+            byte[] payload = new byte[length];
+            segmentBuffer.get(next + HEADER_SIZE, payload);
+            CRC32 crc = new CRC32();
+            crc.update(payload);
+            if ((int) crc.getValue() != segmentBuffer.getInt(next + Integer.BYTES)) {
+                break;
+            }
+            records.add(payload);
+            next += HEADER_SIZE + length;
+            ends.add(next);
+        }
+        return new Batch(records, ends, next);
+    }
+
+    //sequences of the segments on disk, oldest first
+    List<Long> segments() throws IOException {
+        List<Long> sequences = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, PREFIX + "*" + SUFFIX)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                try {
+                    sequences.add(Long.parseLong(name.substring(PREFIX.length(), name.length() - SUFFIX.length())));
+                } catch (NumberFormatException e) {
+                    //not a segment
+                }
+            }
+        }
+        Collections.sort(sequences);
+        return sequences;
+    }
+
+    //removes a fully replayed segment, the segment being written is never deleted
+    synchronized void delete(long oldSegment) throws IOException {
+        if (oldSegment != segment) {
+            Files.deleteIfExists(segmentPath(oldSegment));
+        }
+    }
+
+    synchronized void close() {
+        mapped.force();
+    }
+
+    private void awaitSynced(long end) throws IOException {
+        synchronized (syncLock) {
+            while (synced < end) {
+                if (!syncing) {
+                    syncing = true;
+                    break;
+                }
+                try {
+                    syncLock.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while waiting for the review log to sync");
+                }
+            }
+            if (synced >= end) {
+                return;
+            }
+        }
+
+        //this writer leads the sync, for its own record and everything written before the force starts
+        MappedByteBuffer toForce;
+        long target;
+        synchronized (this) {
+            toForce = mapped;
+            target = address(segment, position);
+        }
+        try {
+            toForce.force();
+            markSynced(target);
+        } finally {
+            synchronized (syncLock) {
+                syncing = false;
+                syncLock.notifyAll();
+            }
+        }
+    }
+
+    //a full segment is forced before writing moves on, so a sync only ever has to force the current segment
+    private void rotate() throws IOException {
+        mapped.force();
+        markSynced(address(segment, position));
+        open(segment + 1);
+    }
+
+    private void markSynced(long address) {
+        synchronized (syncLock) {
+            synced = Math.max(synced, address);
+            syncLock.notifyAll();
+        }
+    }
+
+    private void open(long newSegment) throws IOException {
+        try (FileChannel channel = FileChannel.open(segmentPath(newSegment),
+                StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            //the mapping stays valid after the channel is closed
+            mapped = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+        }
+        segment = newSegment;
+        position = 0;
+    }
+
+    private Path segmentPath(long sequence) {
+        return directory.resolve(PREFIX + sequence + SUFFIX);
+    }
+
+    //segment in the high half and position in the low half, so addresses of later records compare greater
+    private static long address(long sequence, int offset) {
+        return (sequence << 32) | offset;
+    }
+
+    static class Batch {
+
+        final List<byte[]> records;
+        //position right after each record, a checkpoint behind that record
+        final List<Integer> ends;
+        //position right after the last record in the batch
+        final int nextPosition;
+
+        Batch(List<byte[]> records, List<Integer> ends, int nextPosition) {
+            this.records = records;
+            this.ends = ends;
+            this.nextPosition = nextPosition;
+        }
+    }
+}
@@ -0,0 +1,290 @@
+package com.example.recipe.services;
+
+import com.example.recipe.exceptions.NoSuchRecipeException;
+import com.example.recipe.models.CustomUserDetails;
+import com.example.recipe.models.PendingReview;
+import com.example.recipe.models.Review;
+import com.example.recipe.models.ReviewDeadLetter;
+import com.example.recipe.models.ReviewLogCheckpoint;
+import com.example.recipe.repositories.ReviewDeadLetterRepo;
+import com.example.recipe.repositories.ReviewLogCheckpointRepo;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.NonTransientDataAccessException;
+import org.springframework.dao.NonTransientDataAccessResourceException;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.util.unit.DataSize;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+
+//entry point of POST /review/{recipeId}/async. With the ingest log on, a submitted review is only appended to a
+//local ReviewIngestLog, which needs neither MySQL nor Redis, so submissions keep succeeding through a database
+//brownout. A replayer then applies the log to the database in batches, through the same path as the review_outbox,
+//and records how far it got in review_log_checkpoint in the same transaction. Fully replayed segments are deleted.
+//A record that can never be applied is moved to review_dead_letter, like a poisoned outbox row, and replay goes on
+//behind it. With the log off, submissions go to the review_outbox as before.
+@Service
+public class ReviewIngestService {
+
+    private static final Logger log = LoggerFactory.getLogger(ReviewIngestService.class);
+
+    @Autowired
+    ReviewWriteBehindService reviewWriteBehindService;
+
+    @Autowired
+    ReviewLogCheckpointRepo reviewLogCheckpointRepo;
+
+    @Autowired
+    ReviewDeadLetterRepo reviewDeadLetterRepo;
+
+    private final boolean enabled;
+    private final Path logDirectory;
+    private final int segmentSize;
+    private final int batchSize;
+    private final TransactionTemplate transactionTemplate;
+
+    private ReviewIngestLog ingestLog;
+    private String nodeId;
+    //replay position, only used by the replayer
+    private long replaySegment;
+    private int replayPosition;
+
+    public ReviewIngestService(PlatformTransactionManager transactionManager,
+                               @Value("${recipe.reviews.ingest-log.enabled:false}") boolean enabled,
+                               @Value("${recipe.reviews.ingest-log.directory:data/review-log}") String logDirectory,
+                               @Value("${recipe.reviews.ingest-log.segment-size:64MB}") DataSize segmentSize,
+                               @Value("${recipe.reviews.ingest-log.batch-size:500}") int batchSize) {
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.enabled = enabled;
+        this.logDirectory = Paths.get(logDirectory);
+        this.segmentSize = (int) Math.min(segmentSize.toBytes(), Integer.MAX_VALUE);
+        this.batchSize = batchSize;
+    }
+
+    //replay resumes at the checkpoint. Segments before it were fully applied before the last shutdown or crash,
+    //and a checkpoint whose segment is gone was at the end of it, so replay starts at the next segment on disk
+    @PostConstruct
+    public void recover() throws IOException {
+        if (!enabled) {
+            return;
+        }
+        nodeId = readOrCreateNodeId();
+        Optional<ReviewLogCheckpoint> checkpoint = reviewLogCheckpointRepo.findById(nodeId);
+        long checkpointSegment = checkpoint.map(ReviewLogCheckpoint::getSegment).orElse(0L);
+        ingestLog = new ReviewIngestLog(logDirectory, segmentSize, checkpointSegment);
+
+        replaySegment = ingestLog.currentSegment();
+        replayPosition = 0;
+        int unreplayed = 0;
+        for (long segment : ingestLog.segments()) {
+            if (segment < checkpointSegment) {
+                ingestLog.delete(segment);
+            } else if (segment < replaySegment) {
+                if (unreplayed++ == 0) {
+                    replaySegment = segment;
+                    replayPosition = segment == checkpointSegment ? checkpoint.get().getPosition() : 0;
+                }
+            }
+        }
+        if (unreplayed > 0) {
+            log.info("Replaying {} review log segments from segment {} at {}", unreplayed, replaySegment, replayPosition);
+        }
+    }
+
+    public PendingReview submitReview(Review review, Long recipeId, CustomUserDetails author) throws NoSuchRecipeException {
+        if (!enabled) {
+            return reviewWriteBehindService.submitReview(review, recipeId, author);
+        }
+        //the recipe is not looked up here, that would need the database. Reviews of missing recipes are dropped on replay
+        PendingReview pendingReview = reviewWriteBehindService.toPendingReview(review, recipeId, author);
+        try {
+            ingestLog.append(encode(pendingReview));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not write the review to the ingest log", e);
+        }
+        return pendingReview;
+    }
+
+    @Scheduled(fixedDelayString = "${recipe.reviews.ingest-log.replay-interval:500}")
+    public synchronized void replay() {
+        if (!enabled) {
+            return;
+        }
+        try {
+            while (true) {
+                ReviewIngestLog.Batch batch = ingestLog.read(replaySegment, replayPosition, batchSize);
+                if (batch.records.isEmpty()) {
+                    //a segment before the one being written is complete, move on and compact it away
+                    if (replaySegment < ingestLog.currentSegment()) {
+                        long finished = replaySegment;
+                        replaySegment = nextSegment(finished);
+                        replayPosition = 0;
+                        ingestLog.delete(finished);
+                        continue;
+                    }
+                    return;
+                }
+
+                try {
+                    applyBatch(batch);
+                } catch (NonTransientDataAccessException | UncheckedIOException e) {
+                    if (e instanceof NonTransientDataAccessResourceException) {
+                        //the database is unreachable, that is not the fault of any record
+                        throw e;
+                    }
+                    //retrying the batch would fail the same way on every run, so find the record it fails on
+                    log.warn("Could not replay a batch of the review ingest log at segment {} position {}, " +
+                            "replaying it one record at a time: {}", replaySegment, replayPosition, e.getMessage());
+                    applyOneByOne(batch);
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            //nothing is lost, the same records are tried again on the next run
+            log.warn("Could not replay the review ingest log at segment {} position {}: {}",
+                    replaySegment, replayPosition, e.getMessage());
+        }
+    }
+
+    private void applyBatch(ReviewIngestLog.Batch batch) {
+        List<PendingReview> pendingReviews = new ArrayList<>(batch.records.size());
+        for (byte[] record : batch.records) {
+            pendingReviews.add(decode(record));
+        }
+        ReviewLogCheckpoint checkpoint = new ReviewLogCheckpoint(nodeId, replaySegment, batch.nextPosition);
+        transactionTemplate.executeWithoutResult(status -> {
+            reviewWriteBehindService.applyReviews(pendingReviews);
+            reviewLogCheckpointRepo.save(checkpoint);
+        });
+        replayPosition = batch.nextPosition;
+    }
+
+    //one transaction per record, each moving the checkpoint behind its record. A record that fails for good is dead
+    //lettered and replay moves past it, any other failure is thrown and the rest of the batch waits for the next run
+    private void applyOneByOne(ReviewIngestLog.Batch batch) {
+        for (int i = 0; i < batch.records.size(); i++) {
+            ReviewLogCheckpoint checkpoint = new ReviewLogCheckpoint(nodeId, replaySegment, batch.ends.get(i));
+            PendingReview pendingReview;
+            try {
+                pendingReview = decode(batch.records.get(i));
+            } catch (UncheckedIOException e) {
+                //there is no review to dead letter, the record stays readable in the segment until it is compacted
+                log.error("Skipping the undecodable review log record at segment {} position {}: {}",
+                        replaySegment, replayPosition, e.getMessage());
+                transactionTemplate.executeWithoutResult(status -> reviewLogCheckpointRepo.save(checkpoint));
+                replayPosition = checkpoint.getPosition();
+                continue;
+            }
+
+            try {
+                transactionTemplate.executeWithoutResult(status -> {
+                    reviewWriteBehindService.applyReviews(List.of(pendingReview));
+                    reviewLogCheckpointRepo.save(checkpoint);
+                });
+            } catch (NonTransientDataAccessException e) {
+                if (e instanceof NonTransientDataAccessResourceException) {
+                    throw e;
+                }
+                log.error("Moving the review log record at segment {} position {} of recipe {} to review_dead_letter: {}",
+                        replaySegment, replayPosition, pendingReview.getRecipeId(), e.getMessage());
+                transactionTemplate.executeWithoutResult(status -> {
+                    reviewDeadLetterRepo.save(ReviewDeadLetter.of(pendingReview, e.getMostSpecificCause().getMessage()));
+                    reviewLogCheckpointRepo.save(checkpoint);
+                });
+            }
+            replayPosition = checkpoint.getPosition();
+        }
+    }
+
+    //whatever is still in the log is replayed on the next start
+    @PreDestroy
+    public void shutdown() {
+        if (enabled) {
+            ingestLog.close();
+        }
+    }
+
+    private long nextSegment(long after) throws IOException {
+        for (long segment : ingestLog.segments()) {
+            if (segment > after) {
+                return segment;
+            }
+        }
+        return ingestLog.currentSegment();
+    }
+
+    private byte[] encode(PendingReview pendingReview) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeLong(pendingReview.getRecipeId());
+        out.writeLong(pendingReview.getAuthorId());
+        out.writeInt(pendingReview.getRating());
+        out.writeLong(pendingReview.getAcceptedAt().toEpochMilli());
+        writeString(out, pendingReview.getUsername());
+        writeString(out, pendingReview.getDescription());
+        return bytes.toByteArray();
+    }
+
+    private PendingReview decode(byte[] record) {
+        try {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(record));
+            return PendingReview.builder()
+                    .recipeId(in.readLong())
+                    .authorId(in.readLong())
+                    .rating(in.readInt())
+                    .acceptedAt(Instant.ofEpochMilli(in.readLong()))
+                    .username(readString(in))
+                    .description(readString(in))
+                    .build();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not decode a review log record", e);
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    //the node id names this log directory's row in review_log_checkpoint, so it has to survive restarts
+    private String readOrCreateNodeId() throws IOException {
+        Files.createDirectories(logDirectory);
+        Path file = logDirectory.resolve("node-id");
+        if (Files.exists(file)) {
+            return Files.readString(file, StandardCharsets.UTF_8).trim();
+        }
+        String id = UUID.randomUUID().toString();
+        Files.writeString(file, id, StandardCharsets.UTF_8);
+        return id;
+    }
+}
@@ -1,18 +1,26 @@
 package com.example.recipe.services;
 
+import com.example.recipe.config.CacheNames;
 import com.example.recipe.exceptions.NoSuchRecipeException;
 import com.example.recipe.exceptions.NoSuchReviewException;
 import com.example.recipe.models.Recipe;
 import com.example.recipe.models.Review;
+import com.example.recipe.models.ReviewPage;
+import com.example.recipe.models.ReviewSort;
+import com.example.recipe.models.ReviewSummary;
+import com.example.recipe.repositories.RecipeRepo;
 import com.example.recipe.repositories.ReviewRepo;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.cache.annotation.CacheEvict;
 import org.springframework.cache.annotation.Cacheable;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.stereotype.Service;
 
 import javax.transaction.Transactional;
 import java.util.ArrayList;
+import java.util.List;
 import java.util.Optional;
+import java.util.function.Function;
 
 @Service
 public class ReviewService {
@@ -23,7 +31,10 @@ public class ReviewService {
     @Autowired
     RecipeService recipeService;
 
-    @Cacheable(value = "recipe", key = "#id")
+    @Autowired
+    RecipeRepo recipeRepo;
+
+    @Cacheable(value = CacheNames.REVIEW, key = "#id")
     public Review getReviewById(Long id) throws NoSuchReviewException {
         Optional<Review> review = reviewRepo.findById(id);
 
@@ -44,78 +55,149 @@ public class ReviewService {
         return reviews;
     }
 
+    //pages a recipe's reviews straight from the review table, the recipe and its collections are never loaded.
+    //after is the nextCursor of the previous page
+    public ReviewPage<Review> getReviewsPageByRecipeId(Long recipeId, ReviewSort sort, String after, int size)
+            throws NoSuchRecipeException, NoSuchReviewException {
+        int pageSize = Math.max(1, Math.min(size, RecipeService.MAX_PAGE_SIZE));
+        //fetch one extra row to find out whether there is another page without a count query
+        PageRequest limit = PageRequest.of(0, pageSize + 1);
+        List<Review> reviews;
+
+        if (sort == ReviewSort.RATING) {
+            if (after == null) {
+                reviews = reviewRepo.findByRecipeIdOrderByRatingDescIdDesc(recipeId, limit);
+            } else {
+                long[] position = parseCursor(after, 2);
+                reviews = reviewRepo.findByRecipeIdAfterRating(recipeId, (int) position[0], position[1], limit);
+            }
+        } else {
+            if (after == null) {
+                reviews = reviewRepo.findByRecipeIdOrderByIdDesc(recipeId, limit);
+            } else {
+                reviews = reviewRepo.findByRecipeIdAndIdLessThanOrderByIdDesc(recipeId, parseCursor(after, 1)[0], limit);
+            }
+        }
 
-    public ArrayList<Review> getReviewByUsername(String username) throws NoSuchReviewException {
-        ArrayList<Review> reviews = reviewRepo.findByUsername(username);
+        //only an empty first page needs to know whether the recipe exists at all
+        if (reviews.isEmpty() && after == null) {
+            if (!recipeRepo.existsById(recipeId)) {
+                throw new NoSuchRecipeException("No recipe with ID " + recipeId + " could be found.");
+            }
+            throw new NoSuchReviewException("There are no reviews for this recipe.");
+        }
 
-        if (reviews.isEmpty()) {
-            throw new NoSuchReviewException("No reviews could be found for username " + username);
+        boolean hasNext = reviews.size() > pageSize;
+        if (hasNext) {
+            reviews = reviews.subList(0, pageSize);
         }
+        String nextCursor = hasNext ? cursorOf(reviews.get(reviews.size() - 1), sort) : null;
+        return new ReviewPage<>(new ArrayList<>(reviews), nextCursor);
+    }
 
-        return reviews;
+    //newest pages are positioned by id alone, rating pages by rating and id
+    private String cursorOf(Review review, ReviewSort sort) {
+        return sort == ReviewSort.RATING ? review.getRating() + ":" + review.getId() : String.valueOf(review.getId());
     }
 
-    @CacheEvict(value = "review", key = "#review.id")
-    @Transactional
-    public Recipe postNewReview(Review review, Long recipeId) throws NoSuchRecipeException {
-        Recipe recipe = recipeService.getRecipeById(recipeId);
-        recipe.getReviews().add(review);
+    private long[] parseCursor(String cursor, int parts) {
+        String[] values = cursor.split(":");
+        if (values.length != parts) {
+            throw new IllegalArgumentException("Invalid cursor " + cursor + ".");
+        }
+        long[] position = new long[parts];
+        try {
+            for (int i = 0; i < parts; i++) {
+                position[i] = Long.parseLong(values[i]);
+            }
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid cursor " + cursor + ".");
+        }
+        return position;
+    }
+
+    //one page of the user's reviews, newest first. after is the nextCursor of the previous page
+    public ReviewPage<Review> getReviewsPageByUsername(String username, String after, int size) throws NoSuchReviewException {
+        int pageSize = Math.max(1, Math.min(size, RecipeService.MAX_PAGE_SIZE));
+        PageRequest limit = PageRequest.of(0, pageSize + 1);
+        List<Review> reviews = after == null
+                ? reviewRepo.findByUsernameOrderByIdDesc(username, limit)
+                : reviewRepo.findByUsernameAndIdLessThanOrderByIdDesc(username, parseCursor(after, 1)[0], limit);
+        return usernamePage(username, reviews, after, pageSize, Review::getId);
+    }
 
-        long ratingsSum = 0;
-        for (Review r : recipe.getReviews()) {
-            ratingsSum += r.getRating();
+    //same paging as getReviewsPageByUsername, but only the summary columns are read
+    public ReviewPage<ReviewSummary> getReviewSummariesPageByUsername(String username, String after, int size) throws NoSuchReviewException {
+        int pageSize = Math.max(1, Math.min(size, RecipeService.MAX_PAGE_SIZE));
+        Long before = after == null ? Long.MAX_VALUE : parseCursor(after, 1)[0];
+        List<ReviewSummary> summaries =
+                reviewRepo.findSummariesByUsernameAndIdLessThan(username, before, PageRequest.of(0, pageSize + 1));
+        return usernamePage(username, summaries, after, pageSize, ReviewSummary::getId);
+    }
+
+    //pages hold one row more than asked for, it only tells whether there is another page
+    private <T> ReviewPage<T> usernamePage(String username, List<T> reviews, String after, int pageSize,
+                                           Function<T, Long> idOf) throws NoSuchReviewException {
+        if (reviews.isEmpty() && after == null) {
+            throw new NoSuchReviewException("No reviews could be found for username " + username);
+        }
+        boolean hasNext = reviews.size() > pageSize;
+        if (hasNext) {
+            reviews = reviews.subList(0, pageSize);
         }
-        recipe.setAverageReviewScore(ratingsSum / recipe.getReviews().size());
+        String nextCursor = hasNext ? String.valueOf(idOf.apply(reviews.get(reviews.size() - 1))) : null;
+        return new ReviewPage<>(new ArrayList<>(reviews), nextCursor);
+    }
+
+    //returns the saved review only. Loading the recipe here would read all of its reviews again, and would cache a
+    //recipe this transaction has not committed yet
+    @Transactional
+    public Review postNewReview(Review review, Long recipeId) throws NoSuchRecipeException {
+        //bump the aggregate first so a missing recipe fails before anything is inserted
+        recipeService.applyReviewDelta(recipeId, 1, review.getRating());
 
-        recipeService.updateRecipe(recipe, false);
-        return recipe;
+        review.setId(null);
+        review.setRecipeId(recipeId);
+        return reviewRepo.save(review);
     }
 
 
     // create bidirectional link between review and recipe (@OnetoMany / @@ManyToOne)
 
-    @CacheEvict(value = "review", key = "#id")
+    @CacheEvict(value = CacheNames.REVIEW, key = "#id")
     @Transactional
     public Review deleteReviewById(Long id) throws NoSuchReviewException, NoSuchRecipeException {
-        Review review = getReviewById(id);
+        //locked, a concurrent edit or delete of the same review waits instead of changing the aggregates twice
+        Optional<Review> review = reviewRepo.findByIdForUpdate(id);
 
-        if (null == review) {
+        if (review.isEmpty()) {
             throw new NoSuchReviewException("The review you are trying to delete does not exist.");
         }
-        reviewRepo.deleteById(id);
-        Recipe recipe = recipeService.getRecipeById(review.getRecipeId());
+        reviewRepo.delete(review.get());
+        recipeService.applyReviewDelta(review.get().getRecipeId(), -1, -review.get().getRating());
 
-        long ratingsSum = 0;
-        for (Review r : recipe.getReviews()) {
-            ratingsSum += r.getRating();
-        }
-        recipe.setAverageReviewScore(ratingsSum / recipe.getReviews().size());
-
-        recipeService.updateRecipe(recipe, false);
-
-        return review;
+        return review.get();
     }
 
-    @CacheEvict(value = "review", key = "#review.id")
+    @CacheEvict(value = CacheNames.REVIEW, key = "#reviewToUpdate.id")
     @Transactional
     public Review updateReviewById(Review reviewToUpdate) throws NoSuchReviewException, NoSuchRecipeException {
-        try {
-            Review review = getReviewById(reviewToUpdate.getId());
-        } catch (NoSuchReviewException e) {
+        //the rating change is computed from the locked row, never from a cached copy
+        Optional<Review> current = reviewToUpdate.getId() == null ? Optional.empty() : reviewRepo.findByIdForUpdate(reviewToUpdate.getId());
+        if (current.isEmpty()) {
             throw new NoSuchReviewException("The review you are trying to update. Maybe you meant to create one? If not," +
                     "please double check the ID you passed in.");
         }
+        Review review = current.get();
+        long ratingDelta = reviewToUpdate.getRating() - review.getRating();
+        Long recipeId = review.getRecipeId();
+
+        //the review stays attached to its recipe and author, only the rating and description can change
+        reviewToUpdate.setRecipeId(recipeId);
+        reviewToUpdate.setAuthor(review.getAuthor());
+        reviewToUpdate.setUsername(review.getUsername());
         reviewRepo.save(reviewToUpdate);
-        Review review = getReviewById(reviewToUpdate.getId());
-        Recipe recipe = recipeService.getRecipeById(review.getRecipeId());
-
-        long ratingsSum = 0;
-        for (Review r : recipe.getReviews()) {
-            ratingsSum += r.getRating();
-        }
-        recipe.setAverageReviewScore(ratingsSum / recipe.getReviews().size());
-
-        recipeService.updateRecipe(recipe, false);
+        recipeService.applyReviewDelta(recipeId, 0, ratingDelta);
 
         return reviewToUpdate;
     }
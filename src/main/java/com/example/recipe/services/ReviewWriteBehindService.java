@@ -0,0 +1,197 @@
+package com.example.recipe.services;
+
+import com.example.recipe.exceptions.NoSuchRecipeException;
+import com.example.recipe.models.CustomUserDetails;
+import com.example.recipe.models.PendingReview;
+import com.example.recipe.models.Review;
+import com.example.recipe.models.ReviewDeadLetter;
+import com.example.recipe.repositories.PendingReviewRepo;
+import com.example.recipe.repositories.RecipeRepo;
+import com.example.recipe.repositories.ReviewDeadLetterRepo;
+import com.example.recipe.repositories.ReviewRepo;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.NonTransientDataAccessException;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+//write-behind path for reviews. Submitting only inserts a row into the review_outbox table, a background worker
+//then applies the pending reviews in batches, with one aggregate update per recipe per batch instead of one per review.
+//A review that can never be applied is moved to review_dead_letter, so it does not hold up the ones behind it.
+@Service
+public class ReviewWriteBehindService {
+
+    private static final Logger log = LoggerFactory.getLogger(ReviewWriteBehindService.class);
+    //length of the username and description columns of review and review_outbox
+    static final int MAX_TEXT_LENGTH = 255;
+
+    @Autowired
+    PendingReviewRepo pendingReviewRepo;
+
+    @Autowired
+    ReviewRepo reviewRepo;
+
+    @Autowired
+    RecipeRepo recipeRepo;
+
+    @Autowired
+    RecipeService recipeService;
+
+    @Autowired
+    ReviewDeadLetterRepo reviewDeadLetterRepo;
+
+    @PersistenceContext
+    EntityManager entityManager;
+
+    private final TransactionTemplate transactionTemplate;
+    private final int batchSize;
+
+    public ReviewWriteBehindService(PlatformTransactionManager transactionManager,
+                                    @Value("${recipe.reviews.write-behind.batch-size:500}") int batchSize) {
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        //see PendingReviewRepo.claimOldest
+        this.transactionTemplate.setIsolationLevel(TransactionDefinition.ISOLATION_READ_COMMITTED);
+        this.batchSize = batchSize;
+    }
+
+    public PendingReview submitReview(Review review, Long recipeId, CustomUserDetails author) throws NoSuchRecipeException {
+        if (!recipeRepo.existsById(recipeId)) {
+            throw new NoSuchRecipeException("No recipe with ID " + recipeId + " could be found.");
+        }
+        return pendingReviewRepo.save(toPendingReview(review, recipeId, author));
+    }
+
+    //a review is checked here, when it is submitted, because whatever is accepted has to fit the review table later.
+    //Anything that does not would be accepted and then fail on every attempt to apply it
+    PendingReview toPendingReview(Review review, Long recipeId, CustomUserDetails author) {
+        String username = review.getUsername() != null ? review.getUsername() : author.getUsername();
+        if (review.getRating() <= 0 || review.getRating() > 10) {
+            throw new IllegalStateException("Rating must be between 1 and 10.");
+        }
+        if (username.length() > MAX_TEXT_LENGTH) {
+            throw new IllegalStateException("The username can be at most " + MAX_TEXT_LENGTH + " characters long.");
+        }
+        if (review.getDescription() != null && review.getDescription().length() > MAX_TEXT_LENGTH) {
+            throw new IllegalStateException("The description can be at most " + MAX_TEXT_LENGTH + " characters long.");
+        }
+        return PendingReview.builder()
+                .recipeId(recipeId)
+                .username(username)
+                .rating(review.getRating())
+                .description(review.getDescription())
+                .authorId(author.getId())
+                .acceptedAt(Instant.now())
+                .build();
+    }
+
+    @Scheduled(fixedDelayString = "${recipe.reviews.write-behind.interval:500}")
+    public void applyPendingReviews() {
+        Integer applied;
+        do {
+            try {
+                applied = transactionTemplate.execute(status -> applyBatch());
+            } catch (NonTransientDataAccessException e) {
+                //retrying the batch would fail the same way on every run, so find the review it fails on
+                log.warn("Could not apply a batch of pending reviews, applying them one at a time: {}", e.getMessage());
+                applied = applyOneByOne();
+            }
+        } while (applied != null && applied == batchSize);
+    }
+
+    //the batch is claimed, applied and deleted in one transaction. If anything fails the rows stay in the outbox
+    //and are applied again, so a review can never be counted twice.
+    private int applyBatch() {
+        List<PendingReview> batch = pendingReviewRepo.claimOldest(batchSize);
+        if (batch.isEmpty()) {
+            return 0;
+        }
+
+        applyReviews(batch);
+        pendingReviewRepo.deleteAllInBatch(batch);
+        return batch.size();
+    }
+
+    //applies the oldest batch one review per transaction. A review that fails for good is dead lettered, any other
+    //failure ends the run and leaves the rest of the batch for the next one
+    private int applyOneByOne() {
+        List<Long> ids = transactionTemplate.execute(status -> {
+            List<Long> claimed = new ArrayList<>();
+            for (PendingReview pendingReview : pendingReviewRepo.claimOldest(batchSize)) {
+                claimed.add(pendingReview.getId());
+            }
+            return claimed;
+        });
+        if (ids == null) {
+            return 0;
+        }
+        for (Long id : ids) {
+            try {
+                //another worker may have taken the review since, then it is skipped here
+                transactionTemplate.executeWithoutResult(status -> pendingReviewRepo.claimById(id).ifPresent(pendingReview -> {
+                    applyReviews(List.of(pendingReview));
+                    pendingReviewRepo.delete(pendingReview);
+                }));
+            } catch (NonTransientDataAccessException e) {
+                deadLetter(id, e);
+            }
+        }
+        return ids.size();
+    }
+
+    private void deadLetter(Long id, NonTransientDataAccessException cause) {
+        transactionTemplate.executeWithoutResult(status -> pendingReviewRepo.claimById(id).ifPresent(pendingReview -> {
+            log.error("Moving pending review {} of recipe {} to review_dead_letter: {}",
+                    id, pendingReview.getRecipeId(), cause.getMessage());
+            reviewDeadLetterRepo.save(ReviewDeadLetter.of(pendingReview, cause.getMostSpecificCause().getMessage()));
+            pendingReviewRepo.delete(pendingReview);
+        }));
+    }
+
+    //inserts the reviews with one aggregate update per recipe, inside the caller's transaction.
+    //Reviews of recipes deleted since they were accepted are dropped
+    void applyReviews(List<PendingReview> pendingReviews) {
+        //grouped in list order, so each recipe's reviews are inserted in the order they were accepted
+        Map<Long, List<PendingReview>> byRecipe = new LinkedHashMap<>();
+        for (PendingReview pendingReview : pendingReviews) {
+            byRecipe.computeIfAbsent(pendingReview.getRecipeId(), id -> new ArrayList<>()).add(pendingReview);
+        }
+
+        for (Map.Entry<Long, List<PendingReview>> recipeReviews : byRecipe.entrySet()) {
+            long ratingSum = 0;
+            for (PendingReview pendingReview : recipeReviews.getValue()) {
+                ratingSum += pendingReview.getRating();
+            }
+            try {
+                recipeService.applyReviewDelta(recipeReviews.getKey(), recipeReviews.getValue().size(), ratingSum);
+            } catch (NoSuchRecipeException e) {
+                log.info("Dropping {} pending reviews of deleted recipe {}", recipeReviews.getValue().size(), recipeReviews.getKey());
+                continue;
+            }
+
+            List<Review> reviews = new ArrayList<>();
+            for (PendingReview pendingReview : recipeReviews.getValue()) {
+                reviews.add(Review.builder()
+                        .recipeId(pendingReview.getRecipeId())
+                        .username(pendingReview.getUsername())
+                        .rating(pendingReview.getRating())
+                        .description(pendingReview.getDescription())
+                        .author(entityManager.getReference(CustomUserDetails.class, pendingReview.getAuthorId()))
+                        .build());
+            }
+            reviewRepo.saveAll(reviews);
+        }
+    }
+}
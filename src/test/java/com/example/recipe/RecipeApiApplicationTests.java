@@ -1,10 +1,24 @@
 package com.example.recipe;
 
+import com.example.recipe.models.CustomUserDetails;
 import com.example.recipe.models.Ingredient;
+import com.example.recipe.models.PendingReview;
 import com.example.recipe.models.Recipe;
 import com.example.recipe.models.Review;
+import com.example.recipe.models.Role;
 import com.example.recipe.models.Step;
+import com.example.recipe.models.UserMeta;
+import com.example.recipe.repositories.PendingReviewRepo;
 import com.example.recipe.repositories.RecipeRepo;
+import com.example.recipe.repositories.ReviewDeadLetterRepo;
+import com.example.recipe.repositories.ReviewRepo;
+import com.example.recipe.repositories.UserRepo;
+import com.example.recipe.services.ReviewWriteBehindService;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
 import org.junit.jupiter.api.MethodOrderer;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.TestMethodOrder;
@@ -13,23 +27,36 @@ import org.springframework.boot.CommandLineRunner;
 import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.core.annotation.Order;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
 import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.security.crypto.password.PasswordEncoder;
 import org.springframework.test.context.ActiveProfiles;
 import org.springframework.test.web.servlet.MockMvc;
 import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.request.MockHttpServletRequestBuilder;
 
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.*;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.patch;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
 import static org.springframework.test.web.servlet.result.MockMvcResultHandlers.print;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
 
+import javax.persistence.EntityManagerFactory;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
 import java.util.Set;
 
 
-@SpringBootTest(classes = RecipeMainTest.class, webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+//small export batches, so the four recipes of the test data already span several of them
+@SpringBootTest(classes = RecipeMainTest.class, webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT,
+		properties = "recipe.export.batch-size=2")
 @AutoConfigureMockMvc
 @ActiveProfiles(profiles = "test")
 @TestMethodOrder(MethodOrderer.OrderAnnotation.class)
@@ -39,6 +66,22 @@ class RecipeApiApplicationTests implements CommandLineRunner {
 	RecipeRepo recipeRepo;
 	@Autowired
 	MockMvc mockMvc;
+	@Autowired
+	UserRepo userRepo;
+	@Autowired
+	PasswordEncoder passwordEncoder;
+	@Autowired
+	ReviewRepo reviewRepo;
+	@Autowired
+	PendingReviewRepo pendingReviewRepo;
+	@Autowired
+	ReviewDeadLetterRepo reviewDeadLetterRepo;
+	@Autowired
+	ReviewWriteBehindService reviewWriteBehindService;
+	@Autowired
+	EntityManagerFactory entityManagerFactory;
+
+	private static final String TEST_PASSWORD = "test password";
 
 	//given - when - then
 
@@ -62,7 +105,11 @@ class RecipeApiApplicationTests implements CommandLineRunner {
 				.andExpect(jsonPath("minutesToMake").value(2))
 				.andExpect(jsonPath("reviews", hasSize(1)))
 				.andExpect(jsonPath("ingredients", hasSize(1)))
-				.andExpect(jsonPath("steps", hasSize(2)));
+				.andExpect(jsonPath("steps", hasSize(2)))
+
+				//confirm the review aggregates were seeded from the review
+				.andExpect(jsonPath("reviewCount").value(1))
+				.andExpect(jsonPath("averageReviewScore").value(2));
 	}
 
 
@@ -263,6 +310,541 @@ class RecipeApiApplicationTests implements CommandLineRunner {
 		assertThat(message, is("No recipes could be found with that name."));
 	}
 
+	@Test
+	@Order(8)
+	public void testGetAllRecipesPagingBehavior() throws Exception {
+		//request the first page of two recipes
+		this.mockMvc.perform(get("/recipes").param("size", "2"))
+				//expect status is 200 OK
+				.andExpect(status().isOk())
+				//expect only two entries starting with ID 1
+				.andExpect(jsonPath("$", hasSize(2)))
+				.andExpect(jsonPath("$[0].id").value(1))
+				//expect the cursor to point at the last recipe on the page
+				.andExpect(header().string("X-Next-Cursor", "2"))
+				.andExpect(header().string("Link", containsString("after=2")));
+
+		//follow the cursor to the second page
+		this.mockMvc.perform(get("/recipes").param("after", "2").param("size", "2"))
+				.andExpect(status().isOk())
+				.andExpect(jsonPath("$", hasSize(2)))
+				.andExpect(jsonPath("$[0].id").value(3))
+				.andExpect(jsonPath("$[1].id").value(4));
+	}
+
+	@Test
+	@Order(9)
+	public void testGetRecipesByNameAndRatingSuccessBehavior() throws Exception {
+		//only test recipe has a review, so it is the only recipe named recipe with a rating of at least 1
+		this.mockMvc.perform(get("/recipes/search/recipe/rating/1"))
+				.andExpect(status().isOk())
+				.andExpect(jsonPath("$", hasSize(1)))
+				.andExpect(jsonPath("$[0].id").value(1));
+
+		//ask for the two best rated recipes with a t in the name
+		this.mockMvc.perform(get("/recipes/search/t/rating/0").param("limit", "2"))
+				.andExpect(status().isOk())
+				.andExpect(jsonPath("$", hasSize(2)))
+				//expect the best rated recipe first
+				.andExpect(jsonPath("$[0].name").value("chocolate and potato chips"))
+				.andExpect(jsonPath("$[0].averageReviewScore").value(10))
+				.andExpect(jsonPath("$[1].averageReviewScore").value(2));
+	}
+
+	@Test
+	@Order(10)
+	public void testGetAllRecipesFetchPlanBehavior() throws Exception {
+		//the summary plan leaves out every collection
+		this.mockMvc.perform(get("/recipes").param("size", "2").param("fetch", "summary"))
+				.andExpect(status().isOk())
+				.andExpect(jsonPath("$", hasSize(2)))
+				.andExpect(jsonPath("$[0].name").exists())
+				.andExpect(jsonPath("$[0].ingredients").doesNotExist())
+				.andExpect(jsonPath("$[0].steps").doesNotExist())
+				.andExpect(jsonPath("$[0].reviews").doesNotExist());
+
+		//the detail plan adds ingredients and steps but not reviews
+		this.mockMvc.perform(get("/recipes").param("size", "2").param("fetch", "detail"))
+				.andExpect(status().isOk())
+				.andExpect(jsonPath("$[0].ingredients").isArray())
+				.andExpect(jsonPath("$[0].steps").isArray())
+				.andExpect(jsonPath("$[0].reviews").doesNotExist());
+
+		//the default plan still returns the reviews
+		this.mockMvc.perform(get("/recipes").param("size", "2"))
+				.andExpect(status().isOk())
+				.andExpect(jsonPath("$[0].reviews", hasSize(1)));
+
+		//an unknown plan is rejected
+		this.mockMvc.perform(get("/recipes").param("fetch", "everything"))
+				.andExpect(status().isBadRequest());
+
+		//each collection in the plan costs one batched query for the whole page, however many recipes it has
+		Statistics statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+		statistics.setStatisticsEnabled(true);
+		try {
+			long summary = statementsForPage(statistics, "summary", 2);
+			long detail = statementsForPage(statistics, "detail", 2);
+			long withReviews = statementsForPage(statistics, "withReviews", 2);
+
+			assertThat(statementsForPage(statistics, "summary", 4), is(summary));
+			assertThat(statementsForPage(statistics, "detail", 4), is(detail));
+			assertThat(statementsForPage(statistics, "withReviews", 4), is(withReviews));
+			//ingredients and steps, then the reviews
+			assertThat(detail, is(summary + 2));
+			assertThat(withReviews, greaterThan(detail));
+		} finally {
+			statistics.setStatisticsEnabled(false);
+		}
+	}
+
+	@Test
+	@Order(11)
+	public void testGetRecipeSummariesBehavior() throws Exception {
+		//summaries carry the list view columns only
+		this.mockMvc.perform(get("/recipes/summary").param("size", "2"))
+				.andExpect(status().isOk())
+				.andExpect(jsonPath("$", hasSize(2)))
+				.andExpect(jsonPath("$[0].id").value(1))
+				.andExpect(jsonPath("$[0].name").exists())
+				.andExpect(jsonPath("$[0].minutesToMake").exists())
+				.andExpect(jsonPath("$[0].difficultyRating").exists())
+				.andExpect(jsonPath("$[0].averageReviewScore").value(2))
+				.andExpect(jsonPath("$[0].ingredients").doesNotExist())
+				.andExpect(jsonPath("$[0].author").doesNotExist())
+				.andExpect(header().string("X-Next-Cursor", "2"));
+
+		//the rating search summary keeps the best rated first ordering
+		this.mockMvc.perform(get("/recipes/search/t/rating/0/summary").param("limit", "2"))
+				.andExpect(status().isOk())
+				.andExpect(jsonPath("$", hasSize(2)))
+				.andExpect(jsonPath("$[0].name").value("chocolate and potato chips"))
+				.andExpect(jsonPath("$[0].steps").doesNotExist());
+
+		//name search summaries come back in search rank order
+		this.mockMvc.perform(get("/recipes/search/chocolate/summary"))
+				.andExpect(status().isOk())
+				.andExpect(jsonPath("$[0].name").value("chocolate and potato chips"));
+
+		this.mockMvc.perform(get("/recipes/search/nonexistentrecipe/summary"))
+				.andExpect(status().isNotFound());
+	}
+
+	@Test
+	@Order(12)
+	public void testExportRecipesRequiresAdminBehavior() throws Exception {
+		//the catalog export is not open to anonymous clients like the other recipe reads
+		this.mockMvc.perform(get("/recipes/export"))
+				.andExpect(status().isUnauthorized());
+	}
+
+	@Test
+	@Order(13)
+	public void testImportRecipesRequiresAuthenticationBehavior() throws Exception {
+		//bulk imports are attributed to the logged in user, so anonymous imports are refused
+		this.mockMvc.perform(post("/recipes/import")
+						.contentType(MediaType.APPLICATION_JSON)
+						.content("[]"))
+				.andExpect(status().isUnauthorized());
+	}
+
+	@Test
+	@Order(14)
+	public void testSubmitReviewAsyncRequiresAuthenticationBehavior() throws Exception {
+		//queued reviews are attributed to the logged in user, so anonymous submissions are refused
+		this.mockMvc.perform(post("/review/1/async")
+						.contentType(MediaType.APPLICATION_JSON)
+						.content("{\"rating\": 5, \"description\": \"queued\"}"))
+				.andExpect(status().isUnauthorized());
+	}
+
+	@Test
+	@Order(15)
+	public void testReactiveGetRecipeByIdBehavior() throws Exception {
+		//the reactive endpoint answers asynchronously, so dispatch the result before checking it
+		MvcResult found = this.mockMvc.perform(get("/reactive/recipes/1"))
+				.andExpect(request().asyncStarted())
+				.andReturn();
+		this.mockMvc.perform(asyncDispatch(found))
+				.andExpect(status().isOk())
+				.andExpect(jsonPath("id").value(1))
+				.andExpect(jsonPath("reviews", hasSize(1)));
+
+		//a missing recipe maps to 404 like the blocking endpoint
+		MvcResult missing = this.mockMvc.perform(get("/reactive/recipes/-1"))
+				.andExpect(request().asyncStarted())
+				.andReturn();
+		this.mockMvc.perform(asyncDispatch(missing))
+				.andExpect(status().isNotFound())
+				.andExpect(content().string(containsString("No recipe with ID -1 could be found.")));
+	}
+
+	@Test
+	@Order(16)
+	public void testCacheWarmupRequiresAdminBehavior() throws Exception {
+		//an on-demand warm-up loads many recipes at once, so anonymous clients may not start one
+		this.mockMvc.perform(post("/recipes/cache/warmup"))
+				.andExpect(status().isUnauthorized());
+	}
+
+	@Test
+	@Order(17)
+	public void testLeaderboardsBehavior() throws Exception {
+		//two 9s give recipe 2 (18 + 3*5)/(2 + 5) = 4.71, ahead of recipe 4's single 10 at 4.17,
+		//the caramel recipe's 3 at 3.0 and recipe 1's 2 at 2.83. Recipe 3 has no reviews yet and is not ranked
+		for (int i = 0; i < 2; i++) {
+			this.mockMvc.perform(post("/review/2/async")
+							.header(HttpHeaders.AUTHORIZATION, authorization("test-reviewer", Role.Roles.ROLE_USER))
+							.contentType(MediaType.APPLICATION_JSON)
+							.content("{\"rating\": 9, \"description\": \"ranked\"}"))
+					.andExpect(status().isAccepted());
+		}
+		//the scheduled worker may have been first, applying again finds nothing left
+		reviewWriteBehindService.applyPendingReviews();
+
+		//leaderboards are public reads and answer with summaries, never with full recipes
+		this.mockMvc.perform(get("/recipes/top-rated").param("limit", "10"))
+				.andExpect(status().isOk())
+				.andExpect(jsonPath("$", hasSize(4)))
+				.andExpect(jsonPath("$[0].id").value(2))
+				.andExpect(jsonPath("$[1].id").value(4))
+				.andExpect(jsonPath("$[2].name").value("caramel in a pan"))
+				.andExpect(jsonPath("$[3].id").value(1))
+				.andExpect(jsonPath("$[*].reviews").doesNotExist());
+
+		this.mockMvc.perform(get("/recipes/trending"))
+				.andExpect(status().isOk())
+				.andExpect(jsonPath("$[*].id", hasItem(2)));
+	}
+
+	@Test
+	@Order(18)
+	public void testRecipeCarriesVersionBehavior() throws Exception {
+		//clients send the version back with a PATCH so a concurrent edit is detected instead of overwritten
+		this.mockMvc.perform(get("/recipes/1"))
+				.andExpect(status().isOk())
+				.andExpect(jsonPath("version").isNumber());
+	}
+
+	@Test
+	@Order(19)
+	public void testRatingSearchMatchesLikeNameSearchBehavior() throws Exception {
+		//flour is only an ingredient of test recipe, the name search finds it through the search index
+		this.mockMvc.perform(get("/recipes/search/flour"))
+				.andExpect(status().isOk())
+				.andExpect(jsonPath("$", hasSize(1)))
+				.andExpect(jsonPath("$[0].id").value(1));
+
+		//the rating search matches the same recipes before it filters them by rating
+		this.mockMvc.perform(get("/recipes/search/flour/rating/0"))
+				.andExpect(status().isOk())
+				.andExpect(jsonPath("$", hasSize(1)))
+				.andExpect(jsonPath("$[0].id").value(1));
+
+		this.mockMvc.perform(get("/recipes/search/flour/rating/3/summary"))
+				.andExpect(status().isNotFound());
+	}
+
+	@Test
+	@Order(20)
+	public void testExportRecipesAsNdjsonBehavior() throws Exception {
+		MvcResult export = this.mockMvc.perform(get("/recipes/export")
+						.header(HttpHeaders.AUTHORIZATION, authorization("test-admin", Role.Roles.ROLE_ADMIN)))
+				.andExpect(request().asyncStarted())
+				.andReturn();
+		this.mockMvc.perform(asyncDispatch(export))
+				.andExpect(status().isOk())
+				.andExpect(content().contentType("application/x-ndjson"));
+
+		//one recipe per line, in id order, with none lost or repeated where one batch ends and the next starts
+		String[] lines = export.getResponse().getContentAsString().trim().split("\n");
+		List<Long> exportedIds = new ArrayList<>();
+		ObjectMapper mapper = new ObjectMapper();
+		for (String line : lines) {
+			JsonNode recipe = mapper.readTree(line);
+			exportedIds.add(recipe.get("id").asLong());
+		}
+		List<Long> expectedIds = new ArrayList<>();
+		recipeRepo.findAll().forEach(recipe -> expectedIds.add(recipe.getId()));
+		expectedIds.sort(null);
+
+		assertThat(expectedIds.size(), greaterThan(2));
+		assertThat(exportedIds, is(expectedIds));
+	}
+
+	@Test
+	@Order(21)
+	public void testImportRecipesReportsEachRecipeBehavior() throws Exception {
+		String recipes = "{\"name\": \"imported soup\", \"minutesToMake\": 20, \"difficultyRating\": 3, " +
+				"\"ingredients\": [{\"name\": \"water\", \"amount\": \"1 l\"}], " +
+				"\"steps\": [{\"stepNumber\": 1, \"description\": \"boil it\"}]}\n" +
+				//no steps, so this one fails and the recipes around it do not
+				"{\"name\": \"imported nothing\", \"minutesToMake\": 1, \"difficultyRating\": 1, " +
+				"\"ingredients\": [{\"name\": \"air\", \"amount\": \"some\"}]}\n" +
+				"{\"name\": \"imported toast\", \"minutesToMake\": 5, \"difficultyRating\": 1, " +
+				"\"ingredients\": [{\"name\": \"bread\", \"amount\": \"1 slice\"}], " +
+				"\"steps\": [{\"stepNumber\": 1, \"description\": \"toast it\"}], " +
+				"\"reviews\": [{\"rating\": 4, \"description\": \"crunchy\", " +
+				"\"username\": \"test-reviewer\", \"author\": {\"id\": 1}}]}\n";
+
+		MvcResult result = this.mockMvc.perform(post("/recipes/import")
+						.header(HttpHeaders.AUTHORIZATION, authorization("test-importer", Role.Roles.ROLE_USER))
+						.contentType("application/x-ndjson")
+						.content(recipes))
+				.andExpect(status().isOk())
+				.andExpect(jsonPath("$", hasSize(3)))
+				.andExpect(jsonPath("$[0].index").value(0))
+				.andExpect(jsonPath("$[0].status").value("CREATED"))
+				.andExpect(jsonPath("$[0].id").isNumber())
+				.andExpect(jsonPath("$[1].index").value(1))
+				.andExpect(jsonPath("$[1].status").value("FAILED"))
+				.andExpect(jsonPath("$[1].error").value("You have to include at least one step for your recipe!"))
+				.andExpect(jsonPath("$[2].index").value(2))
+				.andExpect(jsonPath("$[2].status").value("CREATED"))
+				.andReturn();
+
+		JsonNode results = new ObjectMapper().readTree(result.getResponse().getContentAsString());
+		Recipe soup = recipeRepo.findById(results.get(0).get("id").asLong()).orElseThrow();
+		assertThat(soup.getName(), is("imported soup"));
+		assertThat(soup.getAuthor().getUsername(), is("test-importer"));
+		Recipe toast = recipeRepo.findById(results.get(2).get("id").asLong()).orElseThrow();
+		assertThat(toast.getReviewCount(), is(1L));
+		assertThat(toast.getRatingSum(), is(4L));
+		//the review is attributed to the importer, not to the user the file names
+		Review imported = reviewRepo.findByRecipeIdOrderByIdDesc(toast.getId(), PageRequest.of(0, 1)).get(0);
+		assertThat(imported.getAuthor().getUsername(), is("test-importer"));
+		assertThat(imported.getUsername(), is("test-importer"));
+
+		//the imported recipes are searchable right away
+		this.mockMvc.perform(get("/recipes/search/toast"))
+				.andExpect(status().isOk())
+				.andExpect(jsonPath("$[0].id").value(toast.getId()));
+	}
+
+	@Test
+	@Order(22)
+	public void testAsyncReviewIsAppliedBehavior() throws Exception {
+		Recipe before = recipeRepo.findById(2L).orElseThrow();
+
+		MvcResult accepted = this.mockMvc.perform(post("/review/2/async")
+						.header(HttpHeaders.AUTHORIZATION, authorization("test-reviewer", Role.Roles.ROLE_USER))
+						.contentType(MediaType.APPLICATION_JSON)
+						.content("{\"rating\": 4, \"description\": \"queued and applied\"}"))
+				.andExpect(status().isAccepted())
+				.andReturn();
+		long pendingId = new ObjectMapper().readTree(accepted.getResponse().getContentAsString()).get("id").asLong();
+
+		//the scheduled worker may have been first, applying again finds nothing left
+		reviewWriteBehindService.applyPendingReviews();
+
+		assertThat(pendingReviewRepo.findById(pendingId).isPresent(), is(false));
+		Review review = reviewRepo.findByRecipeIdOrderByIdDesc(2L, PageRequest.of(0, 1)).get(0);
+		assertThat(review.getDescription(), is("queued and applied"));
+		assertThat(review.getUsername(), is("test-reviewer"));
+		Recipe after = recipeRepo.findById(2L).orElseThrow();
+		assertThat(after.getReviewCount(), is(before.getReviewCount() + 1));
+		assertThat(after.getRatingSum(), is(before.getRatingSum() + 4));
+	}
+
+	@Test
+	@Order(23)
+	public void testFailingAsyncReviewIsDeadLetteredBehavior() throws Exception {
+		Recipe before = recipeRepo.findById(3L).orElseThrow();
+		long deadLettersBefore = reviewDeadLetterRepo.count();
+
+		//no user has id -1, so inserting this review breaks the author foreign key on every attempt
+		PendingReview poisoned = pendingReviewRepo.save(PendingReview.builder()
+				.recipeId(3L).username("nobody").rating(1).description("never applies")
+				.authorId(-1L).acceptedAt(Instant.now()).build());
+		Long reviewerId = userRepo.findByUsername("test-reviewer").getId();
+		PendingReview healthy = pendingReviewRepo.save(PendingReview.builder()
+				.recipeId(3L).username("test-reviewer").rating(6).description("applies anyway")
+				.authorId(reviewerId).acceptedAt(Instant.now()).build());
+
+		reviewWriteBehindService.applyPendingReviews();
+
+		assertThat(pendingReviewRepo.findById(poisoned.getId()).isPresent(), is(false));
+		assertThat(pendingReviewRepo.findById(healthy.getId()).isPresent(), is(false));
+		assertThat(reviewDeadLetterRepo.count(), is(deadLettersBefore + 1));
+		Recipe after = recipeRepo.findById(3L).orElseThrow();
+		assertThat(after.getReviewCount(), is(before.getReviewCount() + 1));
+		assertThat(after.getRatingSum(), is(before.getRatingSum() + 6));
+	}
+
+	@Test
+	@Order(24)
+	public void testReviewsPageByRecipeIdBehavior() throws Exception {
+		//three 5s, so with two reviews a page the rating order has a tie across a page boundary
+		String pager = authorization("test-pager", Role.Roles.ROLE_USER);
+		for (int rating : new int[]{5, 8, 5, 5, 2}) {
+			this.mockMvc.perform(post("/review/3/async")
+							.header(HttpHeaders.AUTHORIZATION, pager)
+							.contentType(MediaType.APPLICATION_JSON)
+							.content("{\"rating\": " + rating + ", \"description\": \"paged\"}"))
+					.andExpect(status().isAccepted());
+		}
+		reviewWriteBehindService.applyPendingReviews();
+
+		List<Review> reviews = new ArrayList<>(reviewRepo.findByRecipeIdOrderByIdDesc(3L, PageRequest.of(0, 100)));
+		List<Long> newest = new ArrayList<>();
+		reviews.forEach(review -> newest.add(review.getId()));
+		reviews.sort(Comparator.comparingInt(Review::getRating).reversed()
+				.thenComparing(Review::getId, Comparator.reverseOrder()));
+		List<Long> byRating = new ArrayList<>();
+		reviews.forEach(review -> byRating.add(review.getId()));
+
+		//every review exactly once, in order, however the pages were cut
+		assertThat(newest.size(), greaterThan(4));
+		assertThat(pagedIds("/review/recipe/3/page", "sort", "newest"), is(newest));
+		assertThat(pagedIds("/review/recipe/3/page", "sort", "rating"), is(byRating));
+
+		//a rating cursor is rating:id, a newest cursor is the id alone
+		this.mockMvc.perform(get("/review/recipe/3/page")
+						.header(HttpHeaders.AUTHORIZATION, pager)
+						.param("sort", "rating")
+						.param("after", String.valueOf(newest.get(0))))
+				.andExpect(status().isBadRequest());
+		this.mockMvc.perform(get("/review/recipe/3/page")
+						.header(HttpHeaders.AUTHORIZATION, pager)
+						.param("after", "not-a-cursor"))
+				.andExpect(status().isBadRequest());
+		this.mockMvc.perform(get("/review/recipe/3/page")
+						.header(HttpHeaders.AUTHORIZATION, pager)
+						.param("sort", "oldest"))
+				.andExpect(status().isBadRequest());
+	}
+
+	@Test
+	@Order(25)
+	public void testReviewsPageByUsernameBehavior() throws Exception {
+		//test-pager wrote the five reviews of the previous test and nothing else
+		List<Long> newest = new ArrayList<>();
+		reviewRepo.findByUsernameOrderByIdDesc("test-pager", PageRequest.of(0, 100))
+				.forEach(review -> newest.add(review.getId()));
+		assertThat(newest, hasSize(5));
+
+		assertThat(pagedIds("/review/user/test-pager", "view", "full"), is(newest));
+		assertThat(pagedIds("/review/user/test-pager", "view", "summary"), is(newest));
+
+		String reviewer = authorization("test-reviewer", Role.Roles.ROLE_USER);
+		this.mockMvc.perform(get("/review/user/test-pager")
+						.header(HttpHeaders.AUTHORIZATION, reviewer))
+				.andExpect(status().isOk())
+				.andExpect(jsonPath("$[0].id").value(newest.get(0)))
+				.andExpect(jsonPath("$[0].description").value("paged"));
+
+		//summaries carry the rating and where the review belongs, not the text or the author
+		this.mockMvc.perform(get("/review/user/test-pager")
+						.header(HttpHeaders.AUTHORIZATION, reviewer)
+						.param("view", "summary"))
+				.andExpect(status().isOk())
+				.andExpect(jsonPath("$[0].id").value(newest.get(0)))
+				.andExpect(jsonPath("$[0].recipeId").value(3))
+				.andExpect(jsonPath("$[0].username").value("test-pager"))
+				.andExpect(jsonPath("$[0].rating").value(2))
+				.andExpect(jsonPath("$[0].description").doesNotExist())
+				.andExpect(jsonPath("$[0].author").doesNotExist());
+
+		this.mockMvc.perform(get("/review/user/test-pager")
+						.header(HttpHeaders.AUTHORIZATION, reviewer)
+						.param("view", "compact"))
+				.andExpect(status().isBadRequest());
+		this.mockMvc.perform(get("/review/user/nobody-at-all")
+						.header(HttpHeaders.AUTHORIZATION, reviewer))
+				.andExpect(status().isBadRequest());
+	}
+
+	@Test
+	@Order(26)
+	public void testStaleRecipeEditIsRefusedBehavior() throws Exception {
+		String admin = authorization("test-admin", Role.Roles.ROLE_ADMIN);
+		//two clients read the same version of the recipe
+		String read = this.mockMvc.perform(get("/recipes/1"))
+				.andExpect(status().isOk())
+				.andReturn().getResponse().getContentAsString();
+		ObjectNode first = (ObjectNode) new ObjectMapper().readTree(read);
+		ObjectNode second = first.deepCopy();
+		long version = first.get("version").asLong();
+
+		first.put("minutesToMake", 25);
+		this.mockMvc.perform(patch("/recipes")
+						.header(HttpHeaders.AUTHORIZATION, admin)
+						.contentType(MediaType.APPLICATION_JSON)
+						.content(first.toString()))
+				.andExpect(status().isOk())
+				.andExpect(jsonPath("version").value(version + 1));
+
+		//the second client's edit is based on a version that no longer exists
+		second.put("minutesToMake", 40);
+		this.mockMvc.perform(patch("/recipes")
+						.header(HttpHeaders.AUTHORIZATION, admin)
+						.contentType(MediaType.APPLICATION_JSON)
+						.content(second.toString()))
+				.andExpect(status().isConflict());
+
+		//and an edit that does not say which version it is based on is not applied to whichever is current
+		second.remove("version");
+		this.mockMvc.perform(patch("/recipes")
+						.header(HttpHeaders.AUTHORIZATION, admin)
+						.contentType(MediaType.APPLICATION_JSON)
+						.content(second.toString()))
+				.andExpect(status().isPreconditionRequired());
+
+		this.mockMvc.perform(get("/recipes/1"))
+				.andExpect(status().isOk())
+				.andExpect(jsonPath("minutesToMake").value(25))
+				.andExpect(jsonPath("version").value(version + 1));
+	}
+
+	@Test
+	@Order(27)
+	public void testSubmitReviewAsyncValidatesReviewBehavior() throws Exception {
+		//a queued review that does not fit the review table would fail on every attempt to apply it
+		this.mockMvc.perform(post("/review/1/async")
+						.header(HttpHeaders.AUTHORIZATION, authorization("test-reviewer", Role.Roles.ROLE_USER))
+						.contentType(MediaType.APPLICATION_JSON)
+						.content("{\"rating\": 5, \"description\": \"" + "x".repeat(256) + "\"}"))
+				.andExpect(status().isBadRequest());
+
+		this.mockMvc.perform(post("/review/1/async")
+						.header(HttpHeaders.AUTHORIZATION, authorization("test-reviewer", Role.Roles.ROLE_USER))
+						.contentType(MediaType.APPLICATION_JSON)
+						.content("{\"description\": \"no rating\"}"))
+				.andExpect(status().isBadRequest());
+	}
+
+	@Test
+	@Order(28)
+	public void testReviewOwnershipFollowsAuthorBehavior() throws Exception {
+		String owner = authorization("test-owner", Role.Roles.ROLE_USER);
+		String squatter = authorization("test-squatter", Role.Roles.ROLE_USER);
+		//the username on a review is free text, here the name of another user
+		this.mockMvc.perform(post("/review/1")
+						.header(HttpHeaders.AUTHORIZATION, owner)
+						.contentType(MediaType.APPLICATION_JSON)
+						.content("{\"username\": \"test-squatter\", \"rating\": 6, \"description\": \"mine\"}"))
+				.andExpect(status().isCreated())
+				.andExpect(header().string("Location", containsString("/recipes/1")))
+				.andExpect(jsonPath("id").value(1));
+		Review review = reviewRepo.findByUsernameOrderByIdDesc("test-squatter", PageRequest.of(0, 1)).get(0);
+
+		//naming a user does not make them the author
+		this.mockMvc.perform(patch("/review")
+						.header(HttpHeaders.AUTHORIZATION, squatter)
+						.contentType(MediaType.APPLICATION_JSON)
+						.content("{\"id\": " + review.getId() + ", \"rating\": 1, \"description\": \"not yours\"}"))
+				.andExpect(status().isForbidden());
+
+		this.mockMvc.perform(patch("/review")
+						.header(HttpHeaders.AUTHORIZATION, owner)
+						.contentType(MediaType.APPLICATION_JSON)
+						.content("{\"id\": " + review.getId() + ", \"rating\": 7, \"description\": \"edited\"}"))
+				.andExpect(status().isOk())
+				.andExpect(jsonPath("rating").value(7));
+		assertThat(reviewRepo.findAuthorIdById(review.getId()).orElseThrow(),
+				is(userRepo.findByUsername("test-owner").getId()));
+	}
+
 //	@Test
 //	@Order(8)
 //	public void testDeleteRecipeByIdSuccessBehavior() throws Exception {
@@ -307,7 +889,7 @@ class RecipeApiApplicationTests implements CommandLineRunner {
 
 	@Test
 //make sure this test runs last
-	@Order(11)
+	@Order(100)
 	public void testGetAllRecipesFailureBehavior() throws Exception {
 
 		//delete all entries to force error
@@ -325,6 +907,52 @@ class RecipeApiApplicationTests implements CommandLineRunner {
 				.andExpect(jsonPath("$").value("There are no recipes yet :( feel free to add one though"));
 	}
 
+	//the number of JDBC statements one GET /recipes page runs
+	private long statementsForPage(Statistics statistics, String fetchPlan, int size) throws Exception {
+		statistics.clear();
+		this.mockMvc.perform(get("/recipes").param("fetch", fetchPlan).param("size", String.valueOf(size)))
+				.andExpect(status().isOk())
+				.andExpect(jsonPath("$", hasSize(size)));
+		return statistics.getPrepareStatementCount();
+	}
+
+	//follows X-Next-Cursor from the first page to the last, two reviews a page, and returns the ids in the order served
+	private List<Long> pagedIds(String path, String param, String value) throws Exception {
+		List<Long> ids = new ArrayList<>();
+		String after = null;
+		do {
+			MockHttpServletRequestBuilder request = get(path)
+					.header(HttpHeaders.AUTHORIZATION, authorization("test-reviewer", Role.Roles.ROLE_USER))
+					.param(param, value)
+					.param("size", "2");
+			if (after != null) {
+				request.param("after", after);
+			}
+			MockHttpServletResponse response = this.mockMvc.perform(request)
+					.andExpect(status().isOk())
+					.andExpect(jsonPath("$", hasSize(lessThanOrEqualTo(2))))
+					.andReturn().getResponse();
+			for (JsonNode review : new ObjectMapper().readTree(response.getContentAsString())) {
+				ids.add(review.get("id").asLong());
+			}
+			after = response.getHeader("X-Next-Cursor");
+		} while (after != null);
+		return ids;
+	}
+
+	//creates the user on first use and returns the value of an Authorization header logging in as them
+	private String authorization(String username, Role.Roles role) {
+		if (userRepo.findByUsername(username) == null) {
+			userRepo.save(CustomUserDetails.builder()
+					.username(username)
+					.password(passwordEncoder.encode(TEST_PASSWORD))
+					.authorities(new ArrayList<>(List.of(new Role(role))))
+					.userMeta(new UserMeta(null, username + "@example.com", username))
+					.build());
+		}
+		return TestUtil.basicAuth(username, TEST_PASSWORD);
+	}
+
 	@Override
 	public void run(String... args) throws Exception {
 
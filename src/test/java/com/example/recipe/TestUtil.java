@@ -4,6 +4,8 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.ObjectReader;
 
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
 
 public class TestUtil {
 
@@ -30,4 +32,9 @@ public class TestUtil {
         //read the byte array containing the JSON and translate it into an object.
         return reader.readValue(bytes);
     }
-}
\ No newline at end of file
+
+    public static String basicAuth(String username, String password) {
+        //value of an Authorization header for HTTP Basic, the scheme SecurityConfig accepts
+        return "Basic " + Base64.getEncoder().encodeToString((username + ":" + password).getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,98 @@
+package com.example.recipe.config;
+
+import com.example.recipe.models.CustomUserDetails;
+import org.junit.jupiter.api.Test;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.Duration;
+import java.util.List;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+import static org.mockito.Mockito.*;
+
+class AuthenticationCacheTests {
+
+	private final Authentication authentication = new UsernamePasswordAuthenticationToken("idfk", null,
+			List.of(new SimpleGrantedAuthority("ROLE_USER")));
+
+	@Test
+	public void testOnlyTheSamePasswordHitsBehavior() {
+		AuthenticationCache cache = authenticationCache(Duration.ofMinutes(1));
+		cache.put("idfk", "password", authentication, cache.currentGeneration());
+
+		assertThat(cache.get("idfk", "password"), is(sameInstance(authentication)));
+		assertThat(cache.get("idfk", "Password"), is(nullValue()));
+		assertThat(cache.get("idfk", ""), is(nullValue()));
+		assertThat(cache.get("someone", "password"), is(nullValue()));
+	}
+
+	@Test
+	public void testEntriesExpireBehavior() throws Exception {
+		AuthenticationCache cache = authenticationCache(Duration.ofMillis(100));
+		cache.put("idfk", "password", authentication, cache.currentGeneration());
+		assertThat(cache.get("idfk", "password"), is(sameInstance(authentication)));
+
+		Thread.sleep(300);
+
+		assertThat(cache.get("idfk", "password"), is(nullValue()));
+	}
+
+	@Test
+	public void testUserChangeEvictsBehavior() {
+		AuthenticationCache cache = authenticationCache(Duration.ofMinutes(1));
+		AuthenticationCacheListener listener = new AuthenticationCacheListener();
+		listener.authenticationCache = cache;
+		cache.put("idfk", "password", authentication, cache.currentGeneration());
+
+		//a new password or role updates the user row, which is what reaches the listener
+		TransactionSynchronizationManager.initSynchronization();
+		try {
+			listener.evict(CustomUserDetails.builder().username("idfk").password("new password").build());
+			//evicted on this node right away, published to the others only once the change commits
+			assertThat(cache.get("idfk", "password"), is(nullValue()));
+			verify(cache.invalidationBus, never()).publishEvict(anyString(), anyString());
+
+			for (TransactionSynchronization synchronization : TransactionSynchronizationManager.getSynchronizations()) {
+				synchronization.afterCommit();
+			}
+		} finally {
+			TransactionSynchronizationManager.clearSynchronization();
+		}
+		verify(cache.invalidationBus).publishEvict(AuthenticationCache.NAME, "idfk");
+
+		//another node changed the user
+		cache.put("idfk", "password", authentication, cache.currentGeneration());
+		cache.evictLocal("idfk");
+		assertThat(cache.get("idfk", "password"), is(nullValue()));
+	}
+
+	@Test
+	public void testLoginReadBeforeAnEvictionIsNotCachedBehavior() {
+		AuthenticationCache cache = authenticationCache(Duration.ofMinutes(1));
+		long generation = cache.currentGeneration();
+		cache.evictLocal("idfk");
+
+		cache.put("idfk", "password", authentication, generation);
+
+		assertThat(cache.get("idfk", "password"), is(nullValue()));
+	}
+
+	@Test
+	public void testDisabledCacheNeverHitsBehavior() {
+		AuthenticationCache cache = new AuthenticationCache(false, 100, Duration.ofMinutes(1));
+		cache.put("idfk", "password", authentication, cache.currentGeneration());
+
+		assertThat(cache.get("idfk", "password"), is(nullValue()));
+	}
+
+	private static AuthenticationCache authenticationCache(Duration ttl) {
+		AuthenticationCache cache = new AuthenticationCache(true, 100, ttl);
+		cache.invalidationBus = mock(CacheInvalidationBus.class);
+		return cache;
+	}
+}
@@ -0,0 +1,130 @@
+package com.example.recipe.config;
+
+import com.example.recipe.models.*;
+import org.junit.jupiter.api.Test;
+import org.springframework.cache.support.NullValue;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+class RecipeCacheCodecTests {
+
+	@Test
+	public void testRecipeRoundTripWithCompressionBehavior() {
+		//a threshold of 0 compresses every value
+		RecipeCacheCodec codec = new RecipeCacheCodec(true, 0);
+
+		byte[] bytes = codec.serialize(recipe());
+
+		assertThat(bytes[2] & 1, is(1));
+		assertRecipe((Recipe) codec.deserialize(bytes));
+	}
+
+	@Test
+	public void testRecipeRoundTripWithoutCompressionBehavior() {
+		RecipeCacheCodec codec = new RecipeCacheCodec(false, 0);
+
+		byte[] bytes = codec.serialize(recipe());
+
+		assertThat(bytes[2] & 1, is(0));
+		assertRecipe((Recipe) codec.deserialize(bytes));
+	}
+
+	@Test
+	public void testCompressedEntriesReadWithCompressionOffBehavior() {
+		//turning compression off in a deploy must not turn the entries already in Redis into errors
+		byte[] bytes = new RecipeCacheCodec(true, 0).serialize(recipe());
+
+		assertRecipe((Recipe) new RecipeCacheCodec(false, 0).deserialize(bytes));
+	}
+
+	@Test
+	public void testRecipeListAndNullValueRoundTripBehavior() {
+		RecipeCacheCodec codec = new RecipeCacheCodec(true, 512);
+
+		Object list = codec.deserialize(codec.serialize(new ArrayList<>(List.of(recipe(), recipe()))));
+		assertThat(list, instanceOf(List.class));
+		assertThat(((List<?>) list), hasSize(2));
+		assertRecipe((Recipe) ((List<?>) list).get(1));
+
+		assertThat(codec.deserialize(codec.serialize(NullValue.INSTANCE)), sameInstance(NullValue.INSTANCE));
+	}
+
+	@Test
+	public void testOtherVersionReadsAsMissBehavior() {
+		RecipeCacheCodec codec = new RecipeCacheCodec(true, 0);
+		byte[] bytes = codec.serialize(recipe());
+
+		bytes[1]++;
+
+		assertThat(codec.deserialize(bytes), is(nullValue()));
+		assertThat(codec.deserialize(new byte[0]), is(nullValue()));
+	}
+
+	private static Recipe recipe() {
+		CustomUserDetails author = CustomUserDetails.builder()
+				.id(7L)
+				.username("idfk")
+				.isAccountNonExpired(true)
+				.isAccountNonLocked(true)
+				.isCredentialsNonExpired(true)
+				.isEnabled(true)
+				.build();
+		author.setAuthorities(new ArrayList<>(List.of(new Role(1L, Role.Roles.ROLE_USER))));
+
+		Recipe recipe = Recipe.builder()
+				.id(1L)
+				.name("test recipe")
+				.minutesToMake(2)
+				.difficultyRating(10)
+				.averageReviewScore(4L)
+				.reviewCount(2L)
+				.ratingSum(9L)
+				.version(3L)
+				.author(author)
+				.build();
+		recipe.setLocationURI(URI.create("http://localhost/recipes/1"));
+		recipe.setIngredients(new ArrayList<>(List.of(Ingredient.builder().id(1L).name("flour").amount("2 cups").build())));
+		recipe.setSteps(new ArrayList<>(List.of(Step.builder().id(1L).stepNumber(1).description("mix").build())));
+		recipe.setReviews(new ArrayList<>(List.of(
+				Review.builder().id(1L).username("idfk").rating(4).description("good").recipeId(1L).build(),
+				Review.builder().id(2L).username("ben").rating(5).description("great").recipeId(1L).build())));
+		return recipe;
+	}
+
+	private static void assertRecipe(Recipe recipe) {
+		assertThat(recipe.getId(), is(1L));
+		assertThat(recipe.getName(), is("test recipe"));
+		assertThat(recipe.getMinutesToMake(), is(2));
+		assertThat(recipe.getDifficultyRating(), is(10));
+		assertThat(recipe.getAverageReviewScore(), is(4L));
+		assertThat(recipe.getReviewCount(), is(2L));
+		assertThat(recipe.getRatingSum(), is(9L));
+		assertThat(recipe.getVersion(), is(3L));
+		//request-derived, never cached
+		assertThat(recipe.getLocationURI(), is(nullValue()));
+		assertThat(recipe.getAuthor().getUsername(), is("idfk"));
+		assertThat(recipe.getAuthor().getPassword(), is(nullValue()));
+		assertThat(recipe.getAuthor().getAuthorities(), hasSize(1));
+
+		List<Ingredient> ingredients = new ArrayList<>(recipe.getIngredients());
+		assertThat(ingredients, hasSize(1));
+		assertThat(ingredients.get(0).getName(), is("flour"));
+		assertThat(ingredients.get(0).getAmount(), is("2 cups"));
+		assertThat(ingredients.get(0).getState(), is(nullValue()));
+
+		List<Step> steps = new ArrayList<>(recipe.getSteps());
+		assertThat(steps, hasSize(1));
+		assertThat(steps.get(0).getDescription(), is("mix"));
+
+		List<Review> reviews = new ArrayList<>(recipe.getReviews());
+		assertThat(reviews, hasSize(2));
+		assertThat(reviews.get(1).getUsername(), is("ben"));
+		assertThat(reviews.get(1).getRating(), is(5));
+		assertThat(reviews.get(1).getRecipeId(), is(1L));
+	}
+}
@@ -0,0 +1,107 @@
+package com.example.recipe.config;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.cache.Cache;
+import org.springframework.cache.concurrent.ConcurrentMapCache;
+import org.springframework.data.redis.RedisConnectionFailureException;
+import org.springframework.data.redis.cache.RedisCacheWriter;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+class SingleFlightCacheTests {
+
+	private final RecipeCacheCodec codec = new RecipeCacheCodec(true, 512);
+
+	@Test
+	public void testConcurrentMissesShareOneLoadBehavior() throws Exception {
+		RedisCacheWriter cacheWriter = mock(RedisCacheWriter.class);
+		SingleFlightCache cache = new SingleFlightCache(new ConcurrentMapCache("recipe"), cacheWriter, codec, "node",
+				Duration.ofSeconds(2), Duration.ZERO, Runnable::run);
+
+		AtomicInteger loads = new AtomicInteger();
+		CountDownLatch loading = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		Callable<String> loader = () -> {
+			loads.incrementAndGet();
+			loading.countDown();
+			release.await(5, TimeUnit.SECONDS);
+			return "loaded";
+		};
+
+		ExecutorService callers = Executors.newFixedThreadPool(16);
+		try {
+			List<Future<String>> results = new ArrayList<>();
+			results.add(callers.submit(() -> cache.get(1L, loader)));
+			assertThat(loading.await(5, TimeUnit.SECONDS), is(true));
+			//the first load is still running, every other miss has to wait for it
+			for (int i = 0; i < 15; i++) {
+				results.add(callers.submit(() -> cache.get(1L, loader)));
+			}
+			Thread.sleep(100);
+			release.countDown();
+
+			for (Future<String> result : results) {
+				assertThat(result.get(5, TimeUnit.SECONDS), is("loaded"));
+			}
+		} finally {
+			callers.shutdownNow();
+		}
+
+		assertThat(loads.get(), is(1));
+		verify(cacheWriter, times(1)).putIfAbsent(eq("recipe"), any(byte[].class), any(byte[].class), any(Duration.class));
+		assertThat(cache.get(1L).get(), is("loaded"));
+	}
+
+	@Test
+	public void testRedisDownLoadsWithoutCacheBehavior() {
+		RedisConnectionFailureException down = new RedisConnectionFailureException("Redis is down");
+
+		Cache unreachable = mock(Cache.class);
+		when(unreachable.get(any())).thenThrow(down);
+		doThrow(down).when(unreachable).put(any(), any());
+		doThrow(down).when(unreachable).evict(any());
+		RedisCacheWriter failingWriter = mock(RedisCacheWriter.class);
+		when(failingWriter.putIfAbsent(any(), any(), any(), any())).thenThrow(down);
+		when(failingWriter.get(any(), any())).thenThrow(down);
+		doThrow(down).when(failingWriter).remove(any(), any());
+
+		SingleFlightCache cache = new SingleFlightCache(unreachable, failingWriter, codec, "node",
+				Duration.ofSeconds(2), Duration.ofMinutes(30), Runnable::run);
+		assertThat(cache.get(1L, () -> "loaded"), is("loaded"));
+		//an eviction after commit must not fail the request
+		cache.evict(1L);
+
+		//the cache answers, but the lease cannot be taken
+		SingleFlightCache noLease = new SingleFlightCache(new ConcurrentMapCache("recipe"), failingWriter, codec, "node",
+				Duration.ofSeconds(2), Duration.ZERO, Runnable::run);
+		assertThat(noLease.get(2L, () -> "loaded"), is("loaded"));
+	}
+
+	@Test
+	public void testEvictionDuringLoadIsNotOverwrittenBehavior() {
+		SingleFlightCache cache = new SingleFlightCache(new ConcurrentMapCache("recipe"), mock(RedisCacheWriter.class),
+				codec, "node", Duration.ZERO, Duration.ZERO, Runnable::run);
+
+		//the recipe changes and its entry is evicted while the old version is being loaded
+		String loaded = cache.get(1L, () -> {
+			cache.evict(1L);
+			return "old";
+		});
+
+		assertThat(loaded, is("old"));
+		assertThat(cache.get(1L), is(nullValue()));
+
+		assertThat(cache.get(1L, () -> "new"), is("new"));
+		assertThat(cache.get(1L).get(), is("new"));
+	}
+}
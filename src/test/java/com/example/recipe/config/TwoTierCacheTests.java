@@ -0,0 +1,211 @@
+package com.example.recipe.config;
+
+import com.example.recipe.models.Recipe;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.cache.RedisCacheConfiguration;
+import org.springframework.data.redis.cache.RedisCacheManager;
+import org.springframework.data.redis.cache.RedisCacheWriter;
+import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.data.redis.serializer.RedisSerializationContext;
+import redis.embedded.RedisServer;
+
+import java.time.Duration;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+//two nodes sharing one embedded Redis server, each with its own near cache and invalidation subscription
+class TwoTierCacheTests {
+
+	private static final int REDIS_PORT = 6391;
+
+	private static RedisServer redisServer;
+
+	private final RecipeCacheCodec codec = new RecipeCacheCodec(true, 512);
+	private Node first;
+	private Node second;
+
+	@BeforeAll
+	public static void startRedis() {
+		redisServer = new RedisServer(REDIS_PORT);
+		redisServer.start();
+	}
+
+	@AfterAll
+	public static void stopRedis() {
+		redisServer.stop();
+	}
+
+	@BeforeEach
+	public void setUp() throws Exception {
+		first = new Node(codec);
+		second = new Node(codec);
+		first.redisTemplate.execute((RedisCallback<Object>) connection -> {
+			connection.serverCommands().flushAll();
+			return null;
+		});
+		first.awaitSubscribed(second);
+		second.awaitSubscribed(first);
+	}
+
+	@AfterEach
+	public void tearDown() throws Exception {
+		first.close();
+		second.close();
+	}
+
+	@Test
+	public void testLocalHitsServeCopiesBehavior() {
+		first.cache.put(1L, recipe(1L));
+		//gone from Redis, so anything returned now comes from the near cache
+		first.redisTemplate.delete("recipe::1");
+
+		Recipe read = first.cache.get(1L, Recipe.class);
+		assertThat(read.getName(), is("test recipe"));
+		read.setName("changed by one caller");
+
+		Recipe readAgain = first.cache.get(1L, Recipe.class);
+		assertThat(readAgain, is(not(sameInstance(read))));
+		assertThat(readAgain.getName(), is("test recipe"));
+	}
+
+	@Test
+	public void testRedisHitsFillTheLocalTierBehavior() {
+		//written by a node that does not publish, like an entry that outlived the near cache's TTL
+		second.cache.getRemoteCache().put(2L, recipe(2L));
+		assertThat(second.cache.getLocal(2L), is(nullValue()));
+
+		assertThat(second.cache.get(2L, Recipe.class).getId(), is(2L));
+
+		second.redisTemplate.delete("recipe::2");
+		assertThat(second.cache.get(2L, Recipe.class).getId(), is(2L));
+	}
+
+	@Test
+	public void testEvictionReachesOtherNodesBehavior() throws Exception {
+		second.cache.getRemoteCache().put(3L, recipe(3L));
+		second.cache.get(3L);
+		assertThat(second.cache.getLocal(3L), is(notNullValue()));
+
+		first.cache.evict(3L);
+
+		assertThat(awaitLocalEviction(second.cache, 3L), is(true));
+		assertThat(second.cache.get(3L), is(nullValue()));
+	}
+
+	@Test
+	public void testWriteReachesOtherNodesBehavior() throws Exception {
+		second.cache.getRemoteCache().put(4L, recipe(4L));
+		second.cache.get(4L);
+		assertThat(second.cache.getLocal(4L), is(notNullValue()));
+
+		Recipe changed = recipe(4L);
+		changed.setName("changed recipe");
+		first.cache.put(4L, changed);
+
+		assertThat(awaitLocalEviction(second.cache, 4L), is(true));
+		assertThat(second.cache.get(4L, Recipe.class).getName(), is("changed recipe"));
+	}
+
+	@Test
+	public void testFillOvertakenByEvictionIsSkippedBehavior() {
+		//a read of the old value started before the eviction and finishes after it
+		long generation = first.cache.localGeneration(5L);
+		first.cache.evictLocal("5");
+		first.cache.fillLocal(5L, recipe(5L), generation);
+
+		assertThat(first.cache.getLocal(5L), is(nullValue()));
+
+		generation = first.cache.localGeneration(5L);
+		first.cache.fillLocal(5L, recipe(5L), generation);
+		assertThat(first.cache.getLocal(5L), is(notNullValue()));
+	}
+
+	private static boolean awaitLocalEviction(TwoTierCache cache, Long key) throws InterruptedException {
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+		while (System.nanoTime() < deadline) {
+			if (cache.getLocal(key) == null) {
+				return true;
+			}
+			Thread.sleep(20);
+		}
+		return false;
+	}
+
+	private static Recipe recipe(Long id) {
+		return Recipe.builder().id(id).name("test recipe").minutesToMake(2).difficultyRating(3).build();
+	}
+
+	private static class Node {
+		private final LettuceConnectionFactory connectionFactory;
+		private final StringRedisTemplate redisTemplate;
+		private final CacheInvalidationBus invalidationBus = new CacheInvalidationBus();
+		private final RedisMessageListenerContainer listenerContainer = new RedisMessageListenerContainer();
+		private final TwoTierCache cache;
+
+		private Node(RecipeCacheCodec codec) throws Exception {
+			connectionFactory = new LettuceConnectionFactory(new RedisStandaloneConfiguration("localhost", REDIS_PORT));
+			connectionFactory.afterPropertiesSet();
+			redisTemplate = new StringRedisTemplate(connectionFactory);
+			invalidationBus.redisTemplate = redisTemplate;
+
+			listenerContainer.setConnectionFactory(connectionFactory);
+			listenerContainer.addMessageListener(invalidationBus, new ChannelTopic(CacheInvalidationBus.CHANNEL));
+			listenerContainer.afterPropertiesSet();
+			listenerContainer.start();
+
+			RedisCacheManager redisCacheManager = RedisCacheManager
+					.builder(RedisCacheWriter.nonLockingRedisCacheWriter(connectionFactory))
+					.cacheDefaults(RedisCacheConfiguration.defaultCacheConfig()
+							.serializeValuesWith(RedisSerializationContext.SerializationPair.fromSerializer(codec)))
+					.build();
+			redisCacheManager.afterPropertiesSet();
+			cache = (TwoTierCache) new TwoTierCacheManager(redisCacheManager, invalidationBus, codec, Set.of("recipe"),
+					100, Duration.ofMinutes(1)).getCache("recipe");
+		}
+
+		//subscriptions start in the background, so publish probes until the other node has heard one
+		private void awaitSubscribed(Node publisher) throws InterruptedException {
+			CountDownLatch heard = new CountDownLatch(1);
+			invalidationBus.register(new LocalCache() {
+				@Override
+				public String getName() {
+					return "probe";
+				}
+
+				@Override
+				public void evictLocal(String key) {
+					heard.countDown();
+				}
+
+				@Override
+				public void clearLocal() {
+				}
+			});
+			long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+			while (!heard.await(50, TimeUnit.MILLISECONDS)) {
+				if (System.nanoTime() > deadline) {
+					throw new IllegalStateException("The invalidation subscription did not start");
+				}
+				publisher.invalidationBus.publishEvict("probe", "probe");
+			}
+		}
+
+		private void close() throws Exception {
+			listenerContainer.destroy();
+			connectionFactory.destroy();
+		}
+	}
+}
@@ -0,0 +1,65 @@
+package com.example.recipe.services;
+
+import com.example.recipe.exceptions.NoSuchRecipeException;
+import com.example.recipe.models.CacheWarmupResult;
+import com.example.recipe.models.RecipeFetchPlan;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+import static org.mockito.Mockito.*;
+
+class CacheWarmerTests {
+
+	@Test
+	public void testRecordedKeysAreWarmedBehavior() throws Exception {
+		CacheWarmer cacheWarmer = cacheWarmer(Duration.ofSeconds(5));
+		when(cacheWarmer.accessStatistics.topRecipeIds(500)).thenReturn(List.of(1L, 2L, 3L));
+		when(cacheWarmer.accessStatistics.topSearchTerms(100)).thenReturn(List.of("pasta"));
+		when(cacheWarmer.recipeService.getRecipeById(3L)).thenThrow(new NoSuchRecipeException("deleted"));
+
+		CacheWarmupResult result = cacheWarmer.warmUp();
+
+		assertThat(result.getRecipesWarmed(), is(2));
+		assertThat(result.getSearchesWarmed(), is(1));
+		assertThat(result.getFailed(), is(1));
+		assertThat(result.getSkipped(), is(0));
+		verify(cacheWarmer.recipeService).getRecipeById(1L);
+		verify(cacheWarmer.recipeService).getRecipeById(2L);
+		//the same arguments as GET /recipes/search/{name}, so the warmed entry is the one requests read
+		verify(cacheWarmer.recipeService).getRecipesByName("pasta", 0, RecipeService.DEFAULT_PAGE_SIZE, RecipeFetchPlan.WITH_REVIEWS);
+	}
+
+	@Test
+	public void testBudgetCancelsUnfinishedLoadsBehavior() throws Exception {
+		CacheWarmer cacheWarmer = cacheWarmer(Duration.ofMillis(200));
+		when(cacheWarmer.accessStatistics.topRecipeIds(500)).thenReturn(List.of(1L, 2L));
+		when(cacheWarmer.recipeService.getRecipeById(anyLong())).thenAnswer(invocation -> {
+			Thread.sleep(10_000);
+			return null;
+		});
+
+		CacheWarmupResult result = cacheWarmer.warmUp();
+
+		//one load was running and one never started, both are cancelled once the budget is used up
+		assertThat(result.getSkipped(), is(2));
+		assertThat(result.getRecipesWarmed(), is(0));
+		assertThat(result.getElapsedMillis(), lessThan(5_000L));
+	}
+
+	@Test
+	public void testSearchTermsAreNormalizedLikeCacheKeysBehavior() {
+		assertThat(RecipeSearchIndex.normalize("  Pasta Bake "), is("pasta bake"));
+		assertThat(RecipeSearchIndex.normalize("pasta bake"), is(RecipeSearchIndex.normalize("PASTA BAKE")));
+	}
+
+	private static CacheWarmer cacheWarmer(Duration budget) {
+		CacheWarmer cacheWarmer = new CacheWarmer(false, 500, 100, 1, budget);
+		cacheWarmer.recipeService = mock(RecipeService.class);
+		cacheWarmer.accessStatistics = mock(AccessStatistics.class);
+		return cacheWarmer;
+	}
+}
@@ -0,0 +1,170 @@
+package com.example.recipe.services;
+
+import com.example.recipe.models.RatingCheckpoint;
+import com.example.recipe.repositories.RatingCheckpointRepo;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.ArgumentCaptor;
+import org.springframework.cache.CacheManager;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class RatingAccumulatorTests {
+
+	@TempDir
+	Path directory;
+
+	@Test
+	public void testFlushAddsUpDeltasBehavior() throws Exception {
+		RatingAccumulator accumulator = accumulator();
+		accumulator.recover();
+
+		accumulator.add(2L, 1, 3);
+		accumulator.add(1L, 1, 5);
+		accumulator.add(1L, 1, 4);
+		accumulator.flush();
+
+		//one increment per recipe, in id order
+		assertThat(updatedRows(accumulator), contains(
+				equalTo(new Object[]{2L, 9L, 2L, 2L, 9L, 1L}),
+				equalTo(new Object[]{1L, 3L, 1L, 1L, 3L, 2L})));
+		assertThat(savedCheckpoint(accumulator).getLastSegment(), is(1L));
+		verify(accumulator.reviewAggregateRecounter, never()).recount(anyCollection());
+		verify(accumulator.recipeLeaderboard).reviewsChanged(1L, 2L, 9L);
+		verify(accumulator.recipeLeaderboard).reviewsChanged(2L, 1L, 3L);
+
+		//nothing changed since, so there is nothing to flush
+		accumulator.flush();
+		verify(accumulator.jdbcTemplate, times(1)).batchUpdate(anyString(), anyList());
+	}
+
+	@Test
+	public void testOnlyCommittedChangesAreAddedBehavior() throws Exception {
+		RatingAccumulator accumulator = accumulator();
+		accumulator.recover();
+		//the commit may or may not have happened, the recount finds out which
+		when(accumulator.reviewAggregateRecounter.recount(anyCollection())).thenReturn(Map.of(3L, new long[]{0, 0}));
+
+		complete(accumulator, 1L, TransactionSynchronization.STATUS_COMMITTED);
+		complete(accumulator, 2L, TransactionSynchronization.STATUS_ROLLED_BACK);
+		complete(accumulator, 3L, TransactionSynchronization.STATUS_UNKNOWN);
+		accumulator.flush();
+
+		assertThat(updatedRows(accumulator), contains(equalTo(new Object[]{1L, 5L, 1L, 1L, 5L, 1L})));
+		verify(accumulator.reviewAggregateRecounter).recount(Set.of(3L));
+		verify(accumulator.recipeLeaderboard).reviewsChanged(1L, 1L, 5L);
+		verify(accumulator.recipeLeaderboard).reviewsChanged(3L, 0L, 0L);
+		verify(accumulator.recipeLeaderboard, never()).reviewsChanged(eq(2L), anyLong(), anyLong());
+	}
+
+	@Test
+	public void testFailedFlushIsRecountedBehavior() throws Exception {
+		RatingAccumulator accumulator = accumulator();
+		accumulator.recover();
+		when(accumulator.jdbcTemplate.batchUpdate(anyString(), anyList()))
+				.thenThrow(new DataAccessResourceFailureException("database down"))
+				.thenReturn(new int[]{1});
+		accumulator.add(1L, 1, 5);
+		accumulator.flush();
+		verify(accumulator.ratingCheckpointRepo, never()).save(any());
+
+		//the failed update may have committed, so adding the delta again could count it twice
+		accumulator.add(1L, 1, 4);
+		accumulator.add(2L, 1, 3);
+		accumulator.flush();
+
+		verify(accumulator.reviewAggregateRecounter).recount(Set.of(1L));
+		//recipe 1's new delta is in the reviews the recount read, only recipe 2 is incremented
+		ArgumentCaptor<List<Object[]>> rows = rowsCaptor();
+		verify(accumulator.jdbcTemplate, times(2)).batchUpdate(anyString(), rows.capture());
+		assertThat(rows.getValue(), contains(equalTo(new Object[]{1L, 3L, 1L, 1L, 3L, 2L})));
+		assertThat(savedCheckpoint(accumulator).getLastSegment(), is(2L));
+	}
+
+	@Test
+	public void testRecoverAfterFailedFlushBehavior() throws Exception {
+		RatingAccumulator crashed = accumulator();
+		crashed.recover();
+		when(crashed.jdbcTemplate.batchUpdate(anyString(), anyList()))
+				.thenThrow(new DataAccessResourceFailureException("database down"));
+		crashed.add(1L, 1, 5);
+		crashed.add(2L, 1, 3);
+
+		//the flush closes segment 1 but cannot apply it, and the node stops before the next one
+		crashed.flush();
+		verify(crashed.ratingCheckpointRepo, never()).save(any());
+		assertThat(Files.exists(directory.resolve("rating-1.log")), is(true));
+
+		RatingAccumulator restarted = accumulator();
+		when(restarted.reviewAggregateRecounter.recount(anyCollection()))
+				.thenReturn(Map.of(1L, new long[]{1, 5}, 2L, new long[]{1, 3}));
+		restarted.recover();
+
+		verify(restarted.reviewAggregateRecounter).recount(Set.of(1L, 2L));
+		verify(restarted.jdbcTemplate, never()).batchUpdate(anyString(), anyList());
+		//segment 2 was started by the failed flush and is empty, it is checkpointed and deleted with segment 1
+		assertThat(savedCheckpoint(restarted).getLastSegment(), is(2L));
+		assertThat(Files.exists(directory.resolve("rating-1.log")), is(false));
+		assertThat(Files.exists(directory.resolve("rating-2.log")), is(false));
+		verify(restarted.recipeLeaderboard).reviewsChanged(1L, 1L, 5L);
+		verify(restarted.recipeLeaderboard).reviewsChanged(2L, 1L, 3L);
+	}
+
+	//adds a change of one review rated 5 inside a transaction that completes with the given status
+	private static void complete(RatingAccumulator accumulator, Long recipeId, int status) {
+		TransactionSynchronizationManager.initSynchronization();
+		try {
+			accumulator.add(recipeId, 1, 5);
+			for (TransactionSynchronization synchronization : TransactionSynchronizationManager.getSynchronizations()) {
+				synchronization.beforeCommit(false);
+				synchronization.afterCompletion(status);
+			}
+		} finally {
+			TransactionSynchronizationManager.clearSynchronization();
+		}
+	}
+
+	private RatingAccumulator accumulator() {
+		RatingAccumulator accumulator = new RatingAccumulator(mock(PlatformTransactionManager.class), true,
+				directory.toString(), false);
+		accumulator.jdbcTemplate = mock(JdbcTemplate.class);
+		accumulator.reviewAggregateRecounter = mock(ReviewAggregateRecounter.class);
+		accumulator.ratingCheckpointRepo = mock(RatingCheckpointRepo.class);
+		accumulator.cacheManager = mock(CacheManager.class);
+		accumulator.recipeLeaderboard = mock(RecipeLeaderboard.class);
+		when(accumulator.ratingCheckpointRepo.findById(anyString())).thenReturn(Optional.empty());
+		return accumulator;
+	}
+
+	private static List<Object[]> updatedRows(RatingAccumulator accumulator) {
+		ArgumentCaptor<List<Object[]>> rows = rowsCaptor();
+		verify(accumulator.jdbcTemplate).batchUpdate(anyString(), rows.capture());
+		return rows.getValue();
+	}
+
+	@SuppressWarnings("unchecked")
+	private static ArgumentCaptor<List<Object[]>> rowsCaptor() {
+		return ArgumentCaptor.forClass(List.class);
+	}
+
+	private static RatingCheckpoint savedCheckpoint(RatingAccumulator accumulator) {
+		ArgumentCaptor<RatingCheckpoint> checkpoint = ArgumentCaptor.forClass(RatingCheckpoint.class);
+		verify(accumulator.ratingCheckpointRepo).save(checkpoint.capture());
+		return checkpoint.getValue();
+	}
+}
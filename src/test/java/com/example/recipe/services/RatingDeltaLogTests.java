@@ -0,0 +1,116 @@
+package com.example.recipe.services;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+class RatingDeltaLogTests {
+
+	@TempDir
+	Path directory;
+
+	@Test
+	public void testTornTailRecordIsIgnoredBehavior() throws Exception {
+		RatingDeltaLog deltaLog = new RatingDeltaLog(directory, false, 0);
+		deltaLog.append(1, 1, 5);
+		deltaLog.append(2, 1, 3);
+		deltaLog.append(1, 1, 4);
+		long segment = deltaLog.rotate();
+
+		//the process died halfway through writing the last record
+		Path file = directory.resolve("rating-" + segment + ".log");
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+			channel.truncate(3L * RatingDeltaLog.RECORD_SIZE - 5);
+		}
+
+		Map<Long, long[]> deltas = deltaLog.read(segment);
+		assertThat(deltas.keySet(), containsInAnyOrder(1L, 2L));
+		assertThat(deltas.get(1L), is(new long[]{1, 5}));
+		assertThat(deltas.get(2L), is(new long[]{1, 3}));
+	}
+
+	@Test
+	public void testRecordWithBadChecksumEndsTheSegmentBehavior() throws Exception {
+		RatingDeltaLog deltaLog = new RatingDeltaLog(directory, false, 0);
+		deltaLog.append(1, 1, 5);
+		deltaLog.append(2, 1, 3);
+		long segment = deltaLog.rotate();
+
+		//the whole record made it to disk, but not the bytes that were written
+		Path file = directory.resolve("rating-" + segment + ".log");
+		byte[] bytes = Files.readAllBytes(file);
+		bytes[RatingDeltaLog.RECORD_SIZE + 3] ^= 0x7f;
+		Files.write(file, bytes);
+
+		assertThat(deltaLog.read(segment).keySet(), contains(1L));
+	}
+
+	@Test
+	public void testConcurrentSyncedAppendsAreAllWrittenBehavior() throws Exception {
+		RatingDeltaLog deltaLog = new RatingDeltaLog(directory, true, 0);
+		//the writers share fsyncs, and a rotation can close the segment a sync is forcing
+		ExecutorService writers = Executors.newFixedThreadPool(8);
+		List<Future<?>> done = new ArrayList<>();
+		for (int writer = 0; writer < 8; writer++) {
+			long recipeId = writer % 2 + 1;
+			done.add(writers.submit(() -> {
+				for (int i = 0; i < 50; i++) {
+					deltaLog.append(recipeId, 1, 2);
+				}
+				return null;
+			}));
+		}
+		List<Long> closed = new ArrayList<>();
+		closed.add(deltaLog.rotate());
+		for (Future<?> writer : done) {
+			writer.get(30, TimeUnit.SECONDS);
+		}
+		writers.shutdown();
+		closed.add(deltaLog.rotate());
+
+		long[] total = new long[2];
+		for (long segment : closed) {
+			for (long[] delta : deltaLog.read(segment).values()) {
+				total[0] += delta[0];
+				total[1] += delta[1];
+			}
+		}
+		assertThat(total, is(new long[]{400, 800}));
+		deltaLog.close();
+	}
+
+	@Test
+	public void testNewLogStartsAfterEverySegmentBehavior() throws Exception {
+		RatingDeltaLog deltaLog = new RatingDeltaLog(directory, false, 0);
+		deltaLog.append(1, 1, 5);
+		deltaLog.rotate();
+		deltaLog.close();
+
+		//segments 1 and 2 are on disk, 4 was the last one applied
+		RatingDeltaLog afterApplied = new RatingDeltaLog(directory, false, 4);
+		assertThat(afterApplied.currentSegment(), is(5L));
+		afterApplied.close();
+
+		//a segment on disk is never reused, even when the checkpoint is older
+		RatingDeltaLog reopened = new RatingDeltaLog(directory, false, 0);
+		assertThat(reopened.currentSegment(), is(6L));
+
+		reopened.deleteThrough(5);
+		assertThat(reopened.segments(), is(List.of(6L)));
+		reopened.close();
+	}
+}
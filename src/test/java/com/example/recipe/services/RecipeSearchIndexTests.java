@@ -0,0 +1,171 @@
+package com.example.recipe.services;
+
+import com.example.recipe.config.CacheInvalidationBus;
+import com.example.recipe.models.Ingredient;
+import com.example.recipe.models.Recipe;
+import com.example.recipe.models.Step;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+import static org.mockito.Mockito.*;
+
+class RecipeSearchIndexTests {
+
+	private RecipeSearchIndex searchIndex;
+
+	@BeforeEach
+	public void setUp() {
+		searchIndex = new RecipeSearchIndex(mock(PlatformTransactionManager.class));
+		searchIndex.invalidationBus = mock(CacheInvalidationBus.class);
+	}
+
+	@Test
+	public void testTokenizeBehavior() {
+		assertThat(RecipeSearchIndex.tokenize("Chicken-Tikka  Masala!"), contains("chicken", "tikka", "masala"));
+		//letters and digits of any script stay in the token, everything else separates tokens
+		assertThat(RecipeSearchIndex.tokenize("Crème Brûlée for 2"), contains("crème", "brûlée", "for", "2"));
+		assertThat(RecipeSearchIndex.tokenize("  ...  "), is(empty()));
+		assertThat(RecipeSearchIndex.tokenize(null), is(empty()));
+	}
+
+	@Test
+	public void testEveryQueryTermMustMatchBehavior() {
+		searchIndex.index(recipe(1L, "Pasta bake", List.of("cheese"), List.of("Bake it")));
+		searchIndex.index(recipe(2L, "Tomato soup", List.of("pasta"), List.of()));
+
+		//the name counts more than an ingredient
+		assertThat(searchIndex.search("PASTA", 0, 10), contains(1L, 2L));
+		assertThat(searchIndex.search("pasta cheese", 0, 10), contains(1L));
+		assertThat(searchIndex.search("pasta lentils", 0, 10), is(empty()));
+		assertThat(searchIndex.search(" ", 0, 10), is(empty()));
+	}
+
+	@Test
+	public void testExactMatchOutranksPrefixMatchBehavior() {
+		searchIndex.index(recipe(1L, "Tomato salad", List.of(), List.of()));
+		searchIndex.index(recipe(2L, "Tom yum", List.of(), List.of()));
+
+		assertThat(searchIndex.search("tom", 0, 10), contains(2L, 1L));
+		assertThat(searchIndex.search("toma", 0, 10), contains(1L));
+	}
+
+	@Test
+	public void testRareTermsOutrankCommonTermsBehavior() {
+		//both recipes have both terms, one in the name and one as an ingredient. Without idf they tie and the lower
+		//id comes first; garlic is in more recipes, so the recipe named after saffron wins
+		searchIndex.index(recipe(1L, "Garlic rice", List.of("saffron"), List.of()));
+		searchIndex.index(recipe(2L, "Saffron rice", List.of("garlic"), List.of()));
+		searchIndex.index(recipe(3L, "Garlic bread", List.of(), List.of()));
+		searchIndex.index(recipe(4L, "Roast", List.of("garlic"), List.of()));
+
+		assertThat(searchIndex.search("saffron garlic", 0, 10), contains(2L, 1L));
+		assertThat(searchIndex.search("garlic saffron", 0, 10), contains(2L, 1L));
+	}
+
+	@Test
+	public void testPrefixExpansionIsCappedByRecipeCountBehavior() {
+		//50 terms starting with zz in two recipes each, and one more in a single recipe
+		for (int i = 0; i < 50; i++) {
+			String term = String.format("zz%02d", i);
+			searchIndex.index(recipe(2L * i + 1, term, List.of(), List.of()));
+			searchIndex.index(recipe(2L * i + 2, term, List.of(), List.of()));
+		}
+		searchIndex.index(recipe(101L, "zzrare", List.of(), List.of()));
+
+		List<Long> matches = searchIndex.search("zz", 0, 200);
+		assertThat(matches, hasSize(100));
+		assertThat(matches, not(hasItem(101L)));
+		assertThat(searchIndex.search("zzr", 0, 200), contains(101L));
+
+		//the exact term keeps its place, one of the prefix terms makes room for it
+		searchIndex.index(recipe(102L, "zz", List.of(), List.of()));
+		matches = searchIndex.search("zz", 0, 200);
+		assertThat(matches.get(0), is(102L));
+		assertThat(matches, hasSize(99));
+		assertThat(matches, not(hasItem(101L)));
+	}
+
+	@Test
+	public void testPagingBehavior() {
+		for (long id = 1; id <= 5; id++) {
+			searchIndex.index(recipe(id, "Lentil soup", List.of(), List.of()));
+		}
+
+		//equal scores are ordered by id, so pages neither overlap nor skip recipes
+		assertThat(searchIndex.search("soup", 0, 2), contains(1L, 2L));
+		assertThat(searchIndex.search("soup", 1, 2), contains(3L, 4L));
+		assertThat(searchIndex.search("soup", 2, 2), contains(5L));
+		assertThat(searchIndex.search("soup", 3, 2), is(empty()));
+		assertThat(searchIndex.search("soup", -1, 2), contains(1L, 2L));
+		assertThat(searchIndex.matchingIds("lentil soup"), containsInAnyOrder(1L, 2L, 3L, 4L, 5L));
+	}
+
+	@Test
+	public void testChangesWaitForCommitBehavior() {
+		inTransaction(false, () -> searchIndex.index(recipe(1L, "Pasta bake", List.of(), List.of())));
+		assertThat(searchIndex.search("pasta", 0, 10), is(empty()));
+		verify(searchIndex.invalidationBus, never()).publishEvict(anyString(), anyString());
+
+		inTransaction(true, () -> {
+			searchIndex.index(recipe(1L, "Pasta bake", List.of(), List.of()));
+			//not searchable before the commit
+			assertThat(searchIndex.search("pasta", 0, 10), is(empty()));
+		});
+		assertThat(searchIndex.search("pasta", 0, 10), contains(1L));
+		verify(searchIndex.invalidationBus).publishEvict(RecipeSearchIndex.NAME, "1");
+
+		inTransaction(false, () -> searchIndex.remove(1L));
+		assertThat(searchIndex.search("pasta", 0, 10), contains(1L));
+
+		inTransaction(true, () -> searchIndex.remove(1L));
+		assertThat(searchIndex.search("pasta", 0, 10), is(empty()));
+		verify(searchIndex.invalidationBus, times(2)).publishEvict(RecipeSearchIndex.NAME, "1");
+	}
+
+	@Test
+	public void testReindexReplacesOldTermsBehavior() {
+		searchIndex.index(recipe(1L, "Pasta bake", List.of(), List.of()));
+		searchIndex.index(recipe(1L, "Risotto", List.of(), List.of()));
+
+		assertThat(searchIndex.search("pasta", 0, 10), is(empty()));
+		assertThat(searchIndex.search("risotto", 0, 10), contains(1L));
+	}
+
+	//runs the work with transaction synchronization active, then completes the transaction the way the
+	//transaction manager would
+	private static void inTransaction(boolean commit, Runnable work) {
+		TransactionSynchronizationManager.initSynchronization();
+		try {
+			work.run();
+			for (TransactionSynchronization synchronization : TransactionSynchronizationManager.getSynchronizations()) {
+				if (commit) {
+					synchronization.afterCommit();
+				}
+				synchronization.afterCompletion(commit ? TransactionSynchronization.STATUS_COMMITTED
+						: TransactionSynchronization.STATUS_ROLLED_BACK);
+			}
+		} finally {
+			TransactionSynchronizationManager.clearSynchronization();
+		}
+	}
+
+	private static Recipe recipe(Long id, String name, List<String> ingredients, List<String> steps) {
+		List<Ingredient> recipeIngredients = new ArrayList<>();
+		for (String ingredient : ingredients) {
+			recipeIngredients.add(Ingredient.builder().name(ingredient).amount("1").build());
+		}
+		List<Step> recipeSteps = new ArrayList<>();
+		for (String step : steps) {
+			recipeSteps.add(Step.builder().stepNumber(recipeSteps.size() + 1).description(step).build());
+		}
+		return Recipe.builder().id(id).name(name).ingredients(recipeIngredients).steps(recipeSteps).build();
+	}
+}
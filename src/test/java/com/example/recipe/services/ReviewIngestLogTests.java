@@ -0,0 +1,121 @@
+package com.example.recipe.services;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+class ReviewIngestLogTests {
+
+	@TempDir
+	Path directory;
+
+	@Test
+	public void testTornTailRecordIsNotReadBehavior() throws Exception {
+		ReviewIngestLog ingestLog = new ReviewIngestLog(directory, 4096, 0);
+		ingestLog.append(bytes("one"));
+		ingestLog.append(bytes("two"));
+		ingestLog.append(bytes("three"));
+		ingestLog.close();
+
+		//records are an 8 byte header and the payload: "three" starts at 22. The process died before the last
+		//two bytes of its payload reached the disk, the segment is zero filled there
+		try (FileChannel channel = FileChannel.open(directory.resolve("reviews-1.log"), StandardOpenOption.WRITE)) {
+			channel.write(ByteBuffer.wrap(new byte[2]), 22 + 8 + 3);
+		}
+
+		//a restarted log writes to a new segment, the old one is read up to its first bad record
+		ReviewIngestLog restarted = new ReviewIngestLog(directory, 4096, 0);
+		ReviewIngestLog.Batch batch = restarted.read(1, 0, 10);
+		assertThat(strings(batch.records), contains("one", "two"));
+		assertThat(batch.ends, contains(11, 22));
+		assertThat(batch.nextPosition, is(22));
+		restarted.close();
+	}
+
+	@Test
+	public void testReadResumesMidSegmentBehavior() throws Exception {
+		ReviewIngestLog ingestLog = new ReviewIngestLog(directory, 4096, 0);
+		ingestLog.append(bytes("one"));
+		ingestLog.append(bytes("two"));
+		ingestLog.append(bytes("three"));
+
+		ReviewIngestLog.Batch first = ingestLog.read(1, 0, 2);
+		assertThat(strings(first.records), contains("one", "two"));
+
+		ReviewIngestLog.Batch rest = ingestLog.read(1, first.nextPosition, 2);
+		assertThat(strings(rest.records), contains("three"));
+		assertThat(ingestLog.read(1, rest.nextPosition, 2).records, is(empty()));
+		ingestLog.close();
+	}
+
+	@Test
+	public void testConcurrentAppendsAreAllReadBackBehavior() throws Exception {
+		//small segments, so the writers also rotate while other writers wait for a sync
+		ReviewIngestLog ingestLog = new ReviewIngestLog(directory, 1024, 0);
+		int writers = 16;
+		int recordsPerWriter = 50;
+
+		ExecutorService executor = Executors.newFixedThreadPool(writers);
+		try {
+			List<Future<?>> appends = new ArrayList<>();
+			for (int writer = 0; writer < writers; writer++) {
+				int w = writer;
+				appends.add(executor.submit(() -> {
+					for (int i = 0; i < recordsPerWriter; i++) {
+						ingestLog.append(bytes("review " + w + "-" + i));
+					}
+					return null;
+				}));
+			}
+			for (Future<?> append : appends) {
+				append.get(30, TimeUnit.SECONDS);
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+
+		//every append has returned, so every record is synced and readable, exactly once
+		List<String> read = new ArrayList<>();
+		for (long segment : ingestLog.segments()) {
+			read.addAll(strings(ingestLog.read(segment, 0, Integer.MAX_VALUE).records));
+		}
+		assertThat(read, hasSize(writers * recordsPerWriter));
+		Set<String> expected = new HashSet<>();
+		for (int writer = 0; writer < writers; writer++) {
+			for (int i = 0; i < recordsPerWriter; i++) {
+				expected.add("review " + writer + "-" + i);
+			}
+		}
+		assertThat(new HashSet<>(read), is(expected));
+		assertThat(ingestLog.segments().size(), greaterThan(1));
+		ingestLog.close();
+	}
+
+	private static byte[] bytes(String value) {
+		return value.getBytes(StandardCharsets.UTF_8);
+	}
+
+	private static List<String> strings(List<byte[]> records) {
+		List<String> values = new ArrayList<>();
+		for (byte[] record : records) {
+			values.add(new String(record, StandardCharsets.UTF_8));
+		}
+		return values;
+	}
+}
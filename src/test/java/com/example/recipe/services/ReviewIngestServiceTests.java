@@ -0,0 +1,162 @@
+package com.example.recipe.services;
+
+import com.example.recipe.models.CustomUserDetails;
+import com.example.recipe.models.PendingReview;
+import com.example.recipe.models.Review;
+import com.example.recipe.models.ReviewDeadLetter;
+import com.example.recipe.models.ReviewLogCheckpoint;
+import com.example.recipe.repositories.ReviewDeadLetterRepo;
+import com.example.recipe.repositories.ReviewLogCheckpointRepo;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.ArgumentCaptor;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.util.unit.DataSize;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class ReviewIngestServiceTests {
+
+	@TempDir
+	Path directory;
+
+	private final CustomUserDetails author = CustomUserDetails.builder().id(7L).username("idfk").build();
+
+	@Test
+	public void testRestartResumesAtMidSegmentCheckpointBehavior() throws Exception {
+		ReviewIngestService crashed = ingestService(null);
+		crashed.recover();
+		submit(crashed, "first", "second", "third");
+		//the first batch of two is applied, the database goes away before the second
+		doNothing().doThrow(new DataAccessResourceFailureException("database down"))
+				.when(crashed.reviewWriteBehindService).applyReviews(anyList());
+		crashed.replay();
+		ReviewLogCheckpoint checkpoint = lastCheckpoint(crashed);
+		assertThat(checkpoint.getSegment(), is(1L));
+
+		ReviewIngestService restarted = ingestService(checkpoint);
+		restarted.recover();
+		restarted.replay();
+
+		//only the review behind the checkpoint is applied again, and the finished segment is compacted away
+		assertThat(appliedDescriptions(restarted), contains("third"));
+		assertThat(Files.exists(directory.resolve("reviews-1.log")), is(false));
+	}
+
+	@Test
+	public void testCheckpointSegmentAlreadyDeletedBehavior() throws Exception {
+		ReviewIngestService first = ingestService(null);
+		first.recover();
+		submit(first, "first");
+		first.replay();
+		ReviewLogCheckpoint checkpoint = lastCheckpoint(first);
+
+		//the next run finds segment 1 replayed to its end and deletes it without a new checkpoint, then stops before
+		//replaying what it was sent
+		ReviewIngestService second = ingestService(checkpoint);
+		second.recover();
+		second.replay();
+		submit(second, "second");
+		assertThat(Files.exists(directory.resolve("reviews-1.log")), is(false));
+
+		ReviewIngestService third = ingestService(checkpoint);
+		third.recover();
+		third.replay();
+
+		assertThat(appliedDescriptions(third), contains("second"));
+	}
+
+	@Test
+	public void testPoisonRecordIsDeadLetteredBehavior() throws Exception {
+		ReviewIngestService ingestService = ingestService(null);
+		ingestService.recover();
+		submit(ingestService, "first", "poison", "third");
+		//the review breaks a constraint every time it is applied, alone or with others
+		doThrow(new DataIntegrityViolationException("foreign key"))
+				.when(ingestService.reviewWriteBehindService)
+				.applyReviews(argThat(reviews -> reviews.stream().anyMatch(review -> "poison".equals(review.getDescription()))));
+
+		ingestService.replay();
+
+		ArgumentCaptor<ReviewDeadLetter> deadLetter = ArgumentCaptor.forClass(ReviewDeadLetter.class);
+		verify(ingestService.reviewDeadLetterRepo).save(deadLetter.capture());
+		assertThat(deadLetter.getValue().getDescription(), is("poison"));
+		assertThat(deadLetter.getValue().getError(), is("foreign key"));
+
+		//the records around it are applied, and the checkpoint is past all three
+		verify(ingestService.reviewWriteBehindService).applyReviews(argThat(reviews ->
+				reviews.size() == 1 && "first".equals(reviews.get(0).getDescription())));
+		verify(ingestService.reviewWriteBehindService).applyReviews(argThat(reviews ->
+				reviews.size() == 1 && "third".equals(reviews.get(0).getDescription())));
+		ingestService.replay();
+		verify(ingestService.reviewDeadLetterRepo, times(1)).save(any());
+
+		ReviewIngestService restarted = ingestService(lastCheckpoint(ingestService));
+		restarted.recover();
+		restarted.replay();
+		verify(restarted.reviewWriteBehindService, never()).applyReviews(anyList());
+	}
+
+	@Test
+	public void testOversizedReviewIsRefusedBehavior() throws Exception {
+		ReviewIngestService ingestService = ingestService(null);
+		ingestService.recover();
+
+		Review review = Review.builder().rating(5).description("x".repeat(256)).build();
+		assertThrows(IllegalStateException.class, () -> ingestService.submitReview(review, 1L, author));
+		Review unrated = Review.builder().description("no rating").build();
+		assertThrows(IllegalStateException.class, () -> ingestService.submitReview(unrated, 1L, author));
+
+		//nothing was logged, so there is nothing to replay
+		ingestService.replay();
+		verify(ingestService.reviewWriteBehindService, never()).applyReviews(anyList());
+	}
+
+	private ReviewIngestService ingestService(ReviewLogCheckpoint checkpoint) {
+		ReviewIngestService ingestService = new ReviewIngestService(mock(PlatformTransactionManager.class), true,
+				directory.toString(), DataSize.ofKilobytes(4), 2);
+		ingestService.reviewWriteBehindService = mock(ReviewWriteBehindService.class);
+		ingestService.reviewLogCheckpointRepo = mock(ReviewLogCheckpointRepo.class);
+		ingestService.reviewDeadLetterRepo = mock(ReviewDeadLetterRepo.class);
+		when(ingestService.reviewWriteBehindService.toPendingReview(any(), anyLong(), any())).thenCallRealMethod();
+		when(ingestService.reviewLogCheckpointRepo.findById(anyString())).thenReturn(Optional.ofNullable(checkpoint));
+		return ingestService;
+	}
+
+	private void submit(ReviewIngestService ingestService, String... descriptions) throws Exception {
+		for (String description : descriptions) {
+			ingestService.submitReview(Review.builder().rating(5).description(description).build(), 1L, author);
+		}
+	}
+
+	private static ReviewLogCheckpoint lastCheckpoint(ReviewIngestService ingestService) {
+		ArgumentCaptor<ReviewLogCheckpoint> checkpoints = ArgumentCaptor.forClass(ReviewLogCheckpoint.class);
+		verify(ingestService.reviewLogCheckpointRepo, atLeastOnce()).save(checkpoints.capture());
+		return checkpoints.getValue();
+	}
+
+	@SuppressWarnings("unchecked")
+	private static List<String> appliedDescriptions(ReviewIngestService ingestService) {
+		ArgumentCaptor<List<PendingReview>> applied = ArgumentCaptor.forClass(List.class);
+		verify(ingestService.reviewWriteBehindService, atLeastOnce()).applyReviews(applied.capture());
+		List<String> descriptions = new ArrayList<>();
+		for (List<PendingReview> reviews : applied.getAllValues()) {
+			for (PendingReview review : reviews) {
+				descriptions.add(review.getDescription());
+			}
+		}
+		return descriptions;
+	}
+}